@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.activemq.brokerservice.runner.BrokersBrokerServiceSpawner;
+
+/**
+ * This spawner starts standalone brokers that listen on free ports and store their data
+ * within the passed directory.  It also exposes the configuration generation used by the
+ * spawners to the benchmarks.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BenchmarkBrokerServiceSpawner extends BrokersBrokerServiceSpawner {
+
+	private final File dataDir;
+	private final Map<Integer, Integer> ports = new HashMap<Integer, Integer>();
+
+	public BenchmarkBrokerServiceSpawner(File dataDir) {
+		this.dataDir = dataDir;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.BrokersBrokerServiceSpawner#getTemplatePrefix()
+	 */
+	@Override
+	protected String getTemplatePrefix() {
+		return "activemq";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.BrokersBrokerServiceSpawner#populateProperties(java.util.Properties, int)
+	 */
+	@Override
+	protected void populateProperties(Properties props, int id) {
+		props.setProperty("activemq.suffix.name", String.valueOf(id));
+		props.setProperty("kahadb.dir", dataDir.getAbsolutePath());
+		props.setProperty("kahadb.prefix", String.valueOf(id));
+		props.setProperty("hostname", "localhost");
+		props.setProperty("port.number", String.valueOf(getPort(id)));
+	}
+
+	/**
+	 * @param id
+	 * @return the port used by the passed broker, the same port is used every time the
+	 * 		broker is started
+	 */
+	protected synchronized int getPort(int id) {
+		Integer port = ports.get(id);
+		if (port == null) {
+			port = getFreePort();
+			ports.put(id, port);
+		}
+		return port;
+	}
+
+	/**
+	 * @param props
+	 * @param id
+	 */
+	public void populate(Properties props, int id) {
+		populateProperties(props, id);
+	}
+
+	/**
+	 * @param properties
+	 * @param propertyFileName
+	 * @param activemqTemplate
+	 * @param activemqConfigFileName
+	 * @throws IOException
+	 */
+	public void generate(Properties properties, String propertyFileName,
+			String activemqTemplate, String activemqConfigFileName) throws IOException {
+		generateBrokerServiceConfigurationFiles(properties, propertyFileName, activemqTemplate,
+				activemqConfigFileName);
+	}
+
+	/**
+	 * @return a port that was free when this method was called
+	 */
+	public static int getFreePort() {
+		try {
+			ServerSocket socket = new ServerSocket(0);
+			try {
+				return socket.getLocalPort();
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to find a free port", e);
+		}
+	}
+
+	/**
+	 * @param prefix
+	 * @return a new temporary directory
+	 * @throws IOException
+	 */
+	public static File createDataDir(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix, "");
+		if (!dir.delete() || !dir.mkdirs()) {
+			throw new IOException("Unable to create the directory " + dir);
+		}
+		return dir;
+	}
+}
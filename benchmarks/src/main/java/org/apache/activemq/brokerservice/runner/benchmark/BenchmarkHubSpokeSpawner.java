@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.HubSpokeBrokerServiceSpawner;
+
+/**
+ * This spawner starts hubs and spokes that listen on free ports and store their data within
+ * the passed directory.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BenchmarkHubSpokeSpawner extends HubSpokeBrokerServiceSpawner {
+
+	private final File dataDir;
+
+	public BenchmarkHubSpokeSpawner(File dataDir) {
+		this.dataDir = dataDir;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.HubSpokeBrokerServiceSpawner#getHubTemplatePrefix()
+	 */
+	@Override
+	protected String getHubTemplatePrefix() {
+		return "hub-activemq";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.HubSpokeBrokerServiceSpawner#getSpokeTemplatePrefix()
+	 */
+	@Override
+	protected String getSpokeTemplatePrefix() {
+		return "spoke-activemq";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.HubSpokeBrokerServiceSpawner#populateProperties(org.apache.activemq.brokerservice.runner.HubSpokeBrokerServiceSpawner.TYPE, java.util.Properties, int)
+	 */
+	@Override
+	protected void populateProperties(TYPE type, Properties props, int id) {
+		populateProperties(type, props, id, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.HubSpokeBrokerServiceSpawner#populateProperties(org.apache.activemq.brokerservice.runner.HubSpokeBrokerServiceSpawner.TYPE, java.util.Properties, int, org.apache.activemq.brokerservice.runner.BrokerServiceNode)
+	 */
+	@Override
+	protected void populateProperties(TYPE type, Properties props, int id, BrokerServiceNode hub) {
+		switch (type) {
+		case HUB:
+			props.setProperty("hub.suffix.name", String.valueOf(id));
+			props.setProperty("kahadb.dir", new File(dataDir, "hub").getAbsolutePath());
+			props.setProperty("kahadb.prefix", String.valueOf(id));
+			props.setProperty("hub.hostname", "localhost");
+			props.setProperty("hub.port.number", String.valueOf(BenchmarkBrokerServiceSpawner.getFreePort()));
+			break;
+		case SPOKE:
+			// The spokes started with the hub and the ones added later use the same hub
+			String hubId = hub.getProperties().getProperty("hub.suffix.name");
+			props.setProperty("spoke.suffix.name", hubId + "-" + id);
+			props.setProperty("kahadb.dir", new File(dataDir, "spoke").getAbsolutePath());
+			props.setProperty("kahadb.prefix", hubId + "-" + id);
+			props.setProperty("hub.hostname", "localhost");
+			props.setProperty("hub.port.number", hub.getProperties().getProperty("hub.port.number"));
+			props.setProperty("spoke.hostname", "localhost");
+			props.setProperty("spoke.port.number", String.valueOf(BenchmarkBrokerServiceSpawner.getFreePort()));
+			break;
+		}
+	}
+}
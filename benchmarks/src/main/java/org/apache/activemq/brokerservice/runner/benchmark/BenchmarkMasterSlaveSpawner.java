@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.activemq.brokerservice.runner.MasterSlaveBrokerServiceSpawner;
+
+/**
+ * This spawner starts master/slave pairs that listen on free ports and store their data
+ * within the passed directory.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BenchmarkMasterSlaveSpawner extends MasterSlaveBrokerServiceSpawner {
+
+	private final File dataDir;
+	private int masterPort;
+
+	public BenchmarkMasterSlaveSpawner(File dataDir) {
+		this.dataDir = dataDir;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.MasterSlaveBrokerServiceSpawner#getMasterTemplatePrefix()
+	 */
+	@Override
+	protected String getMasterTemplatePrefix() {
+		return "master-activemq";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.MasterSlaveBrokerServiceSpawner#getSlaveTemplatePrefix()
+	 */
+	@Override
+	protected String getSlaveTemplatePrefix() {
+		return "slave-activemq";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.MasterSlaveBrokerServiceSpawner#populateProperties(org.apache.activemq.brokerservice.runner.MasterSlaveBrokerServiceSpawner.TYPE, java.util.Properties, int)
+	 */
+	@Override
+	protected void populateProperties(TYPE type, Properties props, int id) {
+		switch(type) {
+		case MASTER:
+			masterPort = BenchmarkBrokerServiceSpawner.getFreePort();
+			props.setProperty("master.suffix.name", String.valueOf(id));
+			props.setProperty("kahadb.dir", new File(dataDir, "master").getAbsolutePath());
+			props.setProperty("kahadb.prefix", String.valueOf(id));
+			props.setProperty("master.hostname", "localhost");
+			props.setProperty("master.port.number", String.valueOf(masterPort));
+			break;
+		case SLAVE:
+			props.setProperty("slave.suffix.name", String.valueOf(id));
+			props.setProperty("kahadb.dir", new File(dataDir, "slave").getAbsolutePath());
+			props.setProperty("kahadb.prefix", String.valueOf(id));
+			props.setProperty("master.hostname", "localhost");
+			props.setProperty("master.port.number", String.valueOf(masterPort));
+			props.setProperty("slave.hostname", "localhost");
+			props.setProperty("slave.port.number", String.valueOf(BenchmarkBrokerServiceSpawner.getFreePort()));
+			break;
+		}
+	}
+}
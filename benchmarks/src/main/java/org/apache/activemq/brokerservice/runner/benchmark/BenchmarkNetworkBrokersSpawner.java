@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.NetworkBrokersBrokerServiceSpawner;
+
+/**
+ * This spawner starts networks of brokers that listen on free ports and store their data
+ * within the passed directory.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BenchmarkNetworkBrokersSpawner extends NetworkBrokersBrokerServiceSpawner {
+
+	private final File dataDir;
+
+	public BenchmarkNetworkBrokersSpawner(File dataDir) {
+		this.dataDir = dataDir;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.NetworkBrokersBrokerServiceSpawner#getMainTemplatePrefix()
+	 */
+	@Override
+	protected String getMainTemplatePrefix() {
+		return "main-activemq";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.NetworkBrokersBrokerServiceSpawner#getNetworkedTemplatePrefix()
+	 */
+	@Override
+	protected String getNetworkedTemplatePrefix() {
+		return "network-activemq";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.NetworkBrokersBrokerServiceSpawner#populateProperties(org.apache.activemq.brokerservice.runner.NetworkBrokersBrokerServiceSpawner.TYPE, java.util.Properties, int)
+	 */
+	@Override
+	protected void populateProperties(TYPE type, Properties props, int id) {
+		populateProperties(type, props, id, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.NetworkBrokersBrokerServiceSpawner#populateProperties(org.apache.activemq.brokerservice.runner.NetworkBrokersBrokerServiceSpawner.TYPE, java.util.Properties, int, org.apache.activemq.brokerservice.runner.BrokerServiceNode)
+	 */
+	@Override
+	protected void populateProperties(TYPE type, Properties props, int id, BrokerServiceNode main) {
+		switch(type) {
+		case MAIN:
+			props.setProperty("main.suffix.name", String.valueOf(id));
+			props.setProperty("kahadb.dir", new File(dataDir, "main").getAbsolutePath());
+			props.setProperty("kahadb.prefix", id + "-0");
+			props.setProperty("hostname", "localhost");
+			props.setProperty("port.number", String.valueOf(BenchmarkBrokerServiceSpawner.getFreePort()));
+			break;
+		case NETWORKED:
+			// The networked brokers started with the main broker and the ones added later use
+			// the same main broker
+			String mainId = main.getProperties().getProperty("main.suffix.name");
+			String mainPort = main.getProperties().getProperty("port.number");
+			props.setProperty("network.suffix.name", mainId + "-" + id);
+			props.setProperty("kahadb.dir", new File(dataDir, "network").getAbsolutePath());
+			props.setProperty("kahadb.prefix", mainId + "-" + id);
+			props.setProperty("hostname", "localhost");
+			props.setProperty("port.number", String.valueOf(BenchmarkBrokerServiceSpawner.getFreePort()));
+			props.setProperty("network.hostname", "localhost");
+			props.setProperty("network.port.number", mainPort);
+			break;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.brokerservice.runner.AbstractBrokerServiceSpawner;
+import org.apache.activemq.brokerservice.runner.BrokerServiceControlFrame;
+import org.apache.activemq.brokerservice.runner.BrokerServiceFuture;
+import org.apache.activemq.brokerservice.runner.ControlCommandEnum;
+
+/**
+ * This thread periodically requests the statistics of every broker of a spawner through the
+ * control channel.  It keeps the first, last and largest value of every statistic so that a
+ * scenario can report the growth of a backlog or the peak heap usage of a broker.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerStatisticsSampler extends Thread {
+
+	private final AbstractBrokerServiceSpawner spawner;
+	private final long interval;
+	private final Map<String, Map<String, Long>> first = new HashMap<String, Map<String, Long>>();
+	private final Map<String, Map<String, Long>> last = new HashMap<String, Map<String, Long>>();
+	private final Map<String, Map<String, Long>> max = new HashMap<String, Map<String, Long>>();
+	private volatile boolean running = true;
+
+	/**
+	 * @param spawner the spawner of the sampled brokers
+	 * @param interval the number of milliseconds between two samples
+	 */
+	public BrokerStatisticsSampler(AbstractBrokerServiceSpawner spawner, long interval) {
+		super("BrokerStatisticsSampler");
+		this.spawner = spawner;
+		this.interval = interval;
+		setDaemon(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Thread#run()
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				sample();
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				break;
+			} catch (Exception e) {
+				// A broker could have been stopped between two samples
+			}
+		}
+	}
+
+	/**
+	 * This will take a sample of the statistics of every broker.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void sample() throws IOException, InterruptedException {
+		Map<String, BrokerServiceFuture<BrokerServiceControlFrame>> replies = spawner.broadcast(ControlCommandEnum.STATS);
+		for (Map.Entry<String, BrokerServiceFuture<BrokerServiceControlFrame>> entry : replies.entrySet()) {
+			Map<String, Long> statistics;
+			try {
+				statistics = entry.getValue().get(interval + 5000, TimeUnit.MILLISECONDS).getStatistics();
+			} catch (Exception e) {
+				continue;
+			}
+			update(entry.getKey(), statistics);
+		}
+	}
+
+	private synchronized void update(String identifier, Map<String, Long> statistics) {
+		if (!first.containsKey(identifier)) {
+			first.put(identifier, statistics);
+		}
+		last.put(identifier, statistics);
+		Map<String, Long> largest = max.get(identifier);
+		if (largest == null) {
+			max.put(identifier, new HashMap<String, Long>(statistics));
+		} else {
+			for (Map.Entry<String, Long> entry : statistics.entrySet()) {
+				Long value = largest.get(entry.getKey());
+				if (value == null || value < entry.getValue()) {
+					largest.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * This will take a last sample and stop sampling.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		running = false;
+		interrupt();
+		join();
+		try {
+			sample();
+		} catch (IOException e) {
+			// Keep the previous samples
+		}
+	}
+
+	/**
+	 * @param identifier
+	 * @param statistic
+	 * @return the first sampled value of the passed statistic or zero if it was not sampled
+	 */
+	public synchronized long getFirst(String identifier, String statistic) {
+		return get(first, identifier, statistic);
+	}
+
+	/**
+	 * @param identifier
+	 * @param statistic
+	 * @return the last sampled value of the passed statistic or zero if it was not sampled
+	 */
+	public synchronized long getLast(String identifier, String statistic) {
+		return get(last, identifier, statistic);
+	}
+
+	/**
+	 * @param identifier
+	 * @param statistic
+	 * @return the largest sampled value of the passed statistic or zero if it was not sampled
+	 */
+	public synchronized long getMax(String identifier, String statistic) {
+		return get(max, identifier, statistic);
+	}
+
+	/**
+	 * @param identifier
+	 * @param statistic
+	 * @return the difference between the last and first sampled value of the passed statistic
+	 */
+	public synchronized long getGrowth(String identifier, String statistic) {
+		return getLast(identifier, statistic) - getFirst(identifier, statistic);
+	}
+
+	private static long get(Map<String, Map<String, Long>> samples, String identifier, String statistic) {
+		Map<String, Long> statistics = samples.get(identifier);
+		Long value = statistics == null ? null : statistics.get(statistic);
+		return value == null ? 0 : value;
+	}
+}
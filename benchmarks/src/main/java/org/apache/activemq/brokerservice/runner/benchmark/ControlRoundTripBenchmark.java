@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceControlFrame;
+import org.apache.activemq.brokerservice.runner.BrokerServiceFuture;
+import org.apache.activemq.brokerservice.runner.BrokerServiceManager;
+import org.apache.activemq.brokerservice.runner.ControlCommandEnum;
+import org.apache.activemq.brokerservice.runner.ExecutionModeEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * This benchmark measures the round trip of the requests sent on the control connection of
+ * a started broker.
+ *
+ * @author Claudio Corsi
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ControlRoundTripBenchmark {
+
+	private static final int BATCH_SIZE = 16;
+
+	private static final ControlCommandEnum PINGS[] = new ControlCommandEnum[BATCH_SIZE];
+
+	static {
+		for (int idx = 0 ; idx < BATCH_SIZE ; idx++) {
+			PINGS[idx] = ControlCommandEnum.PING;
+		}
+	}
+
+	@Param({ "EMBEDDED", "FORKED" })
+	public ExecutionModeEnum executionMode;
+
+	private BenchmarkBrokerServiceSpawner spawner;
+	private BrokerServiceManager manager;
+
+	@Setup
+	public void setUp() throws IOException {
+		System.setProperty("notifyIfStarted", "true");
+		spawner = new BenchmarkBrokerServiceSpawner(BenchmarkBrokerServiceSpawner.createDataDir("control"));
+		spawner.setNumberOfBrokers(1);
+		spawner.setExecutionMode(executionMode);
+		spawner.execute();
+		manager = spawner.getBrokerNodes().iterator().next().getManager();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		spawner.stopBrokers();
+	}
+
+	/**
+	 * @return the round trip of a single PING request
+	 * @throws Exception
+	 */
+	@Benchmark
+	public long ping() throws Exception {
+		return manager.ping().get();
+	}
+
+	/**
+	 * This sends a batch of PING requests using a single write and waits for every reply.
+	 *
+	 * @throws Exception
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void pipelinedPing() throws Exception {
+		List<BrokerServiceFuture<BrokerServiceControlFrame>> replies = manager.sendBatch(PINGS);
+		for (BrokerServiceFuture<BrokerServiceControlFrame> reply : replies) {
+			reply.get();
+		}
+	}
+
+	/**
+	 * @return the statistics of the broker
+	 * @throws Exception
+	 */
+	@Benchmark
+	public BrokerServiceControlFrame stats() throws Exception {
+		return manager.send(ControlCommandEnum.STATS).get();
+	}
+}
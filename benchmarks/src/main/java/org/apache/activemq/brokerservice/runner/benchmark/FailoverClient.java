@@ -0,0 +1,306 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This client sends numbered persistent messages at a fixed rate through a failover url
+ * and consumes them.  The sequence numbers are used to count the messages that were lost or
+ * received more than once and the receive times are used to follow the throughput while
+ * the clients fail over to the slave.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class FailoverClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(FailoverClient.class);
+
+	private static final String SEQUENCE_PROPERTY = "BrokerServiceFailoverSequence";
+
+	private static final long BUCKET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final PooledConnectionFactory factory;
+	private final String queueName;
+	private final int rate;
+	private final long start = System.nanoTime();
+	private final long buckets[];
+
+	// The sequences are only read once both threads completed
+	private final BitSet sent = new BitSet();
+	private final BitSet received = new BitSet();
+	private long duplicates;
+	private long sendErrors;
+
+	private volatile boolean producing = true;
+	private volatile boolean consuming = true;
+	private volatile long failureTime;
+	private volatile int failureSequence = Integer.MAX_VALUE;
+	private volatile int nextSequence;
+	private volatile long producerResumeTime;
+	private volatile long consumerResumeTime;
+	private volatile long stopTime;
+
+	private Thread producer;
+	private Thread consumer;
+
+	/**
+	 * @param url the failover url of the master/slave pair
+	 * @param queueName
+	 * @param rate the number of messages sent per second
+	 * @param maxMillis the longest time during which the throughput is followed
+	 */
+	public FailoverClient(String url, String queueName, int rate, long maxMillis) {
+		this.factory = new PooledConnectionFactory(url);
+		this.queueName = queueName;
+		this.rate = rate;
+		this.buckets = new long[(int) (TimeUnit.MILLISECONDS.toNanos(maxMillis) / BUCKET_NANOS) + 1];
+	}
+
+	/**
+	 * This will start the consumer and then the producer.
+	 */
+	public void start() {
+		factory.start();
+		consumer = new Thread("FailoverClient-consumer") {
+			{ setDaemon(true); start(); }
+			public void run() {
+				try {
+					consume();
+				} catch (JMSException e) {
+					logger.warn("The consumer failed", e);
+				}
+			}
+		};
+		producer = new Thread("FailoverClient-producer") {
+			{ setDaemon(true); start(); }
+			public void run() {
+				try {
+					produce();
+				} catch (JMSException e) {
+					logger.warn("The producer failed", e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * This is called right before the master is stopped.
+	 */
+	public void failureStarted() {
+		failureSequence = nextSequence;
+		failureTime = System.nanoTime();
+	}
+
+	/**
+	 * This will stop the producer and give the consumer the passed time to receive the
+	 * remaining messages.
+	 *
+	 * @param drainMillis
+	 * @throws InterruptedException
+	 */
+	public void stop(long drainMillis) throws InterruptedException {
+		stopTime = System.nanoTime();
+		producing = false;
+		producer.join();
+		long deadline = System.currentTimeMillis() + drainMillis;
+		synchronized (this) {
+			while (received.cardinality() < sent.cardinality() && System.currentTimeMillis() < deadline) {
+				wait(100);
+			}
+		}
+		consuming = false;
+		consumer.join();
+		factory.stop();
+	}
+
+	private void produce() throws JMSException {
+		Connection connection = factory.createConnection();
+		try {
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageProducer producer = session.createProducer(session.createQueue(queueName));
+			producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+			BytesMessage message = session.createBytesMessage();
+			message.writeBytes(new byte[256]);
+			long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+			long next = System.nanoTime();
+			while (producing) {
+				long now;
+				while ((now = System.nanoTime()) < next) {
+					LockSupport.parkNanos(next - now);
+				}
+				next += interval;
+				int sequence = nextSequence++;
+				message.setIntProperty(SEQUENCE_PROPERTY, sequence);
+				try {
+					producer.send(message);
+				} catch (JMSException e) {
+					synchronized (this) {
+						sendErrors++;
+					}
+					continue;
+				}
+				synchronized (this) {
+					sent.set(sequence);
+				}
+				if (failureTime != 0 && producerResumeTime == 0 && now > failureTime) {
+					// The first message that was sent once the master was stopped
+					producerResumeTime = System.nanoTime();
+				}
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	private void consume() throws JMSException {
+		Connection connection = factory.createConnection();
+		try {
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer consumer = session.createConsumer(session.createQueue(queueName));
+			while (consuming) {
+				Message message = consumer.receive(100);
+				if (message == null) {
+					continue;
+				}
+				long now = System.nanoTime();
+				int sequence = message.getIntProperty(SEQUENCE_PROPERTY);
+				synchronized (this) {
+					if (received.get(sequence)) {
+						duplicates++;
+					} else {
+						received.set(sequence);
+					}
+					int bucket = (int) ((now - start) / BUCKET_NANOS);
+					if (bucket < buckets.length) {
+						buckets[bucket]++;
+					}
+					notifyAll();
+				}
+				if (consumerResumeTime == 0 && sequence >= failureSequence) {
+					// Messages prefetched before the failure do not show that the consumer resumed
+					consumerResumeTime = now;
+				}
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * @return the number of milliseconds between the failure and the first message sent once
+	 * 		the master was stopped or -1 if the producer did not resume
+	 */
+	public long getProducerResumeMillis() {
+		return producerResumeTime == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(producerResumeTime - failureTime);
+	}
+
+	/**
+	 * @return the number of milliseconds between the failure and the first received message
+	 * 		sent once the master was stopped or -1 if the consumer did not resume
+	 */
+	public long getConsumerResumeMillis() {
+		return consumerResumeTime == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(consumerResumeTime - failureTime);
+	}
+
+	/**
+	 * @return the number of messages that were successfully sent
+	 */
+	public synchronized long getSent() {
+		return sent.cardinality();
+	}
+
+	/**
+	 * @return the number of messages that were successfully sent but never received
+	 */
+	public synchronized long getLost() {
+		BitSet lost = (BitSet) sent.clone();
+		lost.andNot(received);
+		return lost.cardinality();
+	}
+
+	/**
+	 * @return the number of messages that were received more than once
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * @return the number of sends that failed
+	 */
+	public synchronized long getSendErrors() {
+		return sendErrors;
+	}
+
+	/**
+	 * @return the average number of messages received per second before the failure
+	 */
+	public synchronized long getBaselineRate() {
+		// The first second is skipped since the consumer could still be catching up
+		int from = (int) (TimeUnit.SECONDS.toNanos(1) / BUCKET_NANOS);
+		int to = Math.min(Math.min(getFailureBucket(), getBucket(stopTime)), buckets.length);
+		long total = 0;
+		for (int idx = from ; idx < to ; idx++) {
+			total += buckets[idx];
+		}
+		return to <= from ? 0 : total * TimeUnit.SECONDS.toNanos(1) / BUCKET_NANOS / (to - from);
+	}
+
+	/**
+	 * @return the number of milliseconds during which the consumer received less than half
+	 * 		of the baseline rate once the master was stopped
+	 */
+	public synchronized long getDipMillis() {
+		long threshold = getBaselineRate() * BUCKET_NANOS / TimeUnit.SECONDS.toNanos(1) / 2;
+		int end = Math.min(getBucket(stopTime), buckets.length);
+		int idx = getFailureBucket();
+		while (idx < end && buckets[idx] >= threshold) {
+			idx++;
+		}
+		int dip = idx;
+		while (idx < end && buckets[idx] < threshold) {
+			idx++;
+		}
+		return TimeUnit.NANOSECONDS.toMillis((idx - dip) * BUCKET_NANOS);
+	}
+
+	private int getBucket(long time) {
+		return (int) ((time - start) / BUCKET_NANOS);
+	}
+
+	private int getFailureBucket() {
+		return failureTime == 0 ? buckets.length : getBucket(failureTime);
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.RoleEnum;
+import org.apache.activemq.brokerservice.runner.TcpConnectReadinessProbe;
+
+/**
+ * This scenario measures the failover of master/slave pairs.  Persistent messages are sent
+ * and consumed through a failover url while the master of every pair is killed or stopped
+ * in turn.  Every failover reports the time taken by the slave to accept connections and by
+ * the producer and consumer to resume, the number of lost and duplicated messages and the
+ * throughput dip.  The distribution of every measure is printed once every round completed.<p/>
+ *
+ * The scenario is configured using the scenario.failover system properties, for example:
+ *
+ * <pre>
+ *   java -Dscenario.failover.pairs=3 -Dscenario.failover.rounds=5 -Dscenario.failover.action=STOP \
+ *       -cp target/benchmarks.jar org.apache.activemq.brokerservice.runner.benchmark.FailoverScenario
+ * </pre>
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class FailoverScenario {
+
+	/**
+	 * KILL simulates the crash of the master, STOP asks it to stop.
+	 */
+	public enum ActionEnum { KILL, STOP }
+
+	private static final String FORMAT = "%-6s %5s %-10s %10s %10s %10s %8s %6s %6s %10s %8s%n";
+
+	private static final String MEASURES[] = { "slaveAccept(ms)", "producerResume(ms)",
+		"consumerResume(ms)", "lost", "duplicates", "dip(ms)" };
+
+	public static void main(String[] args) throws Exception {
+		// The load can only be started once every broker was started
+		System.setProperty("notifyIfStarted", "true");
+		int pairs = Integer.getInteger("scenario.failover.pairs", 2);
+		int rounds = Integer.getInteger("scenario.failover.rounds", 3);
+		ActionEnum action = ActionEnum.valueOf(System.getProperty("scenario.failover.action", ActionEnum.KILL.name()).toUpperCase());
+		int rate = Integer.getInteger("scenario.failover.rate", 200);
+		long before = Long.getLong("scenario.failover.before", 3000);
+		long after = Long.getLong("scenario.failover.after", 5000);
+
+		Map<String, List<Long>> measures = new LinkedHashMap<String, List<Long>>();
+		for (String measure : MEASURES) {
+			measures.put(measure, new ArrayList<Long>());
+		}
+		System.out.printf(FORMAT, "round", "pair", "action", "slave(ms)", "prod(ms)", "cons(ms)",
+				"sent", "lost", "dups", "rate/s", "dip(ms)");
+		for (int round = 0 ; round < rounds ; round++) {
+			BenchmarkMasterSlaveSpawner spawner = new BenchmarkMasterSlaveSpawner(
+					BenchmarkBrokerServiceSpawner.createDataDir("failover"));
+			spawner.setNumberOfMasterSlavesPairs(pairs);
+			spawner.execute();
+			LoadScenarioSupport.recordPlacement(spawner);
+			try {
+				int pair = 0;
+				for (BrokerServiceNode master : spawner.getBrokerNodes()) {
+					if (master.getRole() != RoleEnum.MASTER || master.getDependents().isEmpty()) {
+						continue;
+					}
+					BrokerServiceNode slave = master.getDependents().iterator().next();
+					long result[] = failover(spawner, master, slave, action, rate, before, after, round, pair++);
+					int idx = 0;
+					for (List<Long> values : measures.values()) {
+						if (result[idx] >= 0) {
+							values.add(result[idx]);
+						}
+						idx++;
+					}
+				}
+			} finally {
+				spawner.stopBrokers();
+			}
+		}
+
+		System.out.println();
+		System.out.printf("%-20s %8s %8s %8s %8s %8s%n", "measure", "samples", "min", "p50", "p90", "max");
+		for (Map.Entry<String, List<Long>> entry : measures.entrySet()) {
+			List<Long> values = entry.getValue();
+			Collections.sort(values);
+			System.out.printf("%-20s %8d %8d %8d %8d %8d%n", entry.getKey(), values.size(),
+					get(values, 0), get(values, 50), get(values, 90), get(values, 100));
+		}
+	}
+
+	/**
+	 * This will run a single failover of the passed pair.
+	 *
+	 * @return the slave accept, producer resume and consumer resume times, the lost and
+	 * 		duplicated messages and the dip duration, a negative value was not measured
+	 * @throws Exception
+	 */
+	static long[] failover(BenchmarkMasterSlaveSpawner spawner, BrokerServiceNode master,
+			BrokerServiceNode slave, ActionEnum action, int rate, long before, long after,
+			int round, int pair) throws Exception {
+		InetSocketAddress masterAddress = TcpConnectReadinessProbe.getTransportAddress(master);
+		InetSocketAddress slaveAddress = TcpConnectReadinessProbe.getTransportAddress(slave);
+		// The timeout lets a blocked send fail instead of hanging once the slave never took over
+		String url = "failover:(tcp://" + masterAddress.getHostName() + ":" + masterAddress.getPort()
+				+ ",tcp://" + slaveAddress.getHostName() + ":" + slaveAddress.getPort()
+				+ ")?randomize=false&initialReconnectDelay=10&maxReconnectDelay=100&timeout=" + after;
+		FailoverClient client = new FailoverClient(url, "failover." + master.getIdentifier(), rate,
+				before + after + 60000);
+		client.start();
+		Thread.sleep(before);
+
+		client.failureStarted();
+		long failure = System.nanoTime();
+		if (action == ActionEnum.KILL) {
+			spawner.killBroker(master);
+		} else {
+			master.getManager().stopBroker();
+		}
+		TcpConnectReadinessProbe probe = new TcpConnectReadinessProbe();
+		long deadline = failure + TimeUnit.MILLISECONDS.toNanos(after);
+		long slaveAccept = -1;
+		while (System.nanoTime() < deadline) {
+			if (probe.isReady(slave)) {
+				slaveAccept = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - failure);
+				break;
+			}
+			Thread.sleep(10);
+		}
+		long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		if (left > 0) {
+			Thread.sleep(left);
+		}
+		client.stop(after);
+
+		System.out.printf(FORMAT, round, pair, action, slaveAccept, client.getProducerResumeMillis(),
+				client.getConsumerResumeMillis(), client.getSent(), client.getLost(),
+				client.getDuplicates(), client.getBaselineRate(), client.getDipMillis());
+		return new long[] { slaveAccept, client.getProducerResumeMillis(), client.getConsumerResumeMillis(),
+				client.getLost(), client.getDuplicates(), client.getDipMillis() };
+	}
+
+	private static long get(List<Long> sorted, int percentile) {
+		if (sorted.isEmpty()) {
+			return -1;
+		}
+		// Nearest rank
+		int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+		return sorted.get(Math.max(rank, 1) - 1);
+	}
+}
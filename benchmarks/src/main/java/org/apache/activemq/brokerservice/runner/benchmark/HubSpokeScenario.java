@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.RoleEnum;
+import org.apache.activemq.brokerservice.runner.load.LatencyHistogram;
+import org.apache.activemq.brokerservice.runner.load.LoadDriver;
+import org.apache.activemq.brokerservice.runner.load.LoadResult;
+
+/**
+ * This scenario measures how a hub behaves as spokes are added.  The FANOUT pattern sends to
+ * a topic on every hub and consumes it on every spoke of the hub, the FANIN pattern sends to
+ * a queue on every spoke and consumes it on the hub.  Every combination reports the aggregate
+ * throughput, the spread of the median and 99th percentile latencies between the spokes and
+ * the largest heap and cpu usage of the hubs.  The cpu usage is the one of the process of the
+ * hub, it is the one of the whole spawning process when the brokers are embedded.<p/>
+ *
+ * The swept values are passed using the scenario.hubs and scenario.spokes system properties,
+ * for example:
+ *
+ * <pre>
+ *   java -Dscenario.hubs=1,2 -Dscenario.spokes=2,4,8,16 -cp target/benchmarks.jar \
+ *       org.apache.activemq.brokerservice.runner.benchmark.HubSpokeScenario
+ * </pre>
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class HubSpokeScenario {
+
+	/**
+	 * FANOUT sends from the hubs to the spokes using topics, FANIN sends from the spokes to the
+	 * hubs using queues.
+	 */
+	public enum PatternEnum { FANOUT, FANIN }
+
+	private static final String FORMAT = "%-7s %5s %6s %10s %10s %8s %8s %10s %10s %11s %8s%n";
+
+	public static void main(String[] args) throws Exception {
+		// The load can only be started once every broker was started
+		System.setProperty("notifyIfStarted", "true");
+		System.out.printf(FORMAT, "pattern", "hubs", "spokes", "sent/s", "recv/s", "p50(us)", "p99(us)",
+				"p50skew", "p99skew", "hubHeap(MB)", "hubCpu%");
+		for (int hubs : LoadScenarioSupport.getIntegers("scenario.hubs", "1")) {
+			for (int spokes : LoadScenarioSupport.getIntegers("scenario.spokes", "2,4,8")) {
+				for (PatternEnum pattern : PatternEnum.values()) {
+					run(hubs, spokes, pattern);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param hubs
+	 * @param spokes the number of spokes of every hub
+	 * @param pattern
+	 * @throws Exception
+	 */
+	public static void run(int hubs, int spokes, PatternEnum pattern) throws Exception {
+		BenchmarkHubSpokeSpawner spawner = new BenchmarkHubSpokeSpawner(
+				BenchmarkBrokerServiceSpawner.createDataDir("hubspoke"));
+		spawner.setNumberOfHubs(hubs);
+		spawner.setNumberOfSpokesPerHub(spokes);
+		spawner.execute();
+		LoadScenarioSupport.recordPlacement(spawner);
+		try {
+			List<LoadDriver> drivers = new ArrayList<LoadDriver>();
+			List<String> hubIdentifiers = new ArrayList<String>();
+			for (BrokerServiceNode hub : spawner.getBrokerNodes()) {
+				if (hub.getRole() != RoleEnum.HUB || hub.getDependents().isEmpty()) {
+					continue;
+				}
+				List<String> spokeUrls = new ArrayList<String>();
+				for (BrokerServiceNode spoke : hub.getDependents()) {
+					spokeUrls.add(LoadDriver.getBrokerUrl(spoke));
+				}
+				LoadDriver driver = LoadScenarioSupport.createDriver(pattern.name().toLowerCase() + "." + hub.getIdentifier());
+				if (pattern == PatternEnum.FANOUT) {
+					// A single producer on the hub and one subscriber on every spoke
+					driver.setTopic(true);
+					driver.setProducerUrls(LoadDriver.getBrokerUrl(hub));
+					driver.setConsumerUrls(spokeUrls.toArray(new String[spokeUrls.size()]));
+					driver.setConsumers(spokeUrls.size());
+				} else {
+					// One producer on every spoke and a single consumer on the hub
+					driver.setProducerUrls(spokeUrls.toArray(new String[spokeUrls.size()]));
+					driver.setProducers(spokeUrls.size());
+					driver.setConsumerUrls(LoadDriver.getBrokerUrl(hub));
+				}
+				drivers.add(driver);
+				hubIdentifiers.add(hub.getIdentifier());
+			}
+			if (drivers.isEmpty()) {
+				return;
+			}
+
+			BrokerStatisticsSampler sampler = new BrokerStatisticsSampler(spawner, 500);
+			sampler.start();
+			long start = System.nanoTime();
+			LoadResult result = LoadResult.merge(LoadScenarioSupport.run(drivers));
+			long elapsed = System.nanoTime() - start;
+			sampler.close();
+
+			// The latencies of every spoke are keyed by the url of the spoke
+			Map<String, LatencyHistogram> perSpoke = pattern == PatternEnum.FANOUT
+					? result.getLatenciesByConsumerUrl() : result.getLatenciesByProducerUrl();
+			long heap = 0, cpu = 0;
+			for (String hub : hubIdentifiers) {
+				heap = Math.max(heap, sampler.getMax(hub, "heap.used"));
+				cpu = Math.max(cpu, sampler.getGrowth(hub, "cpu.time"));
+			}
+			System.out.printf(FORMAT, pattern, hubs, spokes,
+					String.format("%.0f", result.getSendThroughput()),
+					String.format("%.0f", result.getReceiveThroughput()),
+					result.getLatencyMicros(50), result.getLatencyMicros(99),
+					getSkewMicros(perSpoke, 50), getSkewMicros(perSpoke, 99),
+					heap / (1024 * 1024), cpu * 100 / elapsed);
+		} finally {
+			spawner.stopBrokers();
+		}
+	}
+
+	/**
+	 * @param perSpoke
+	 * @param percentile
+	 * @return the difference in microseconds between the largest and smallest value of the
+	 * 		passed percentile among the spokes
+	 */
+	private static long getSkewMicros(Map<String, LatencyHistogram> perSpoke, double percentile) {
+		long min = Long.MAX_VALUE, max = 0;
+		for (LatencyHistogram latencies : perSpoke.values()) {
+			if (latencies.getCount() == 0) {
+				continue;
+			}
+			long value = latencies.getPercentile(percentile);
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		return min == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMicros(max - min);
+	}
+}
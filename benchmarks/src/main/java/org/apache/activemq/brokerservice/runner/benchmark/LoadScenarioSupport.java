@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.activemq.brokerservice.runner.AbstractBrokerServiceSpawner;
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.BrokerServicePlacement;
+import org.apache.activemq.brokerservice.runner.load.LoadDriver;
+import org.apache.activemq.brokerservice.runner.load.LoadResult;
+
+/**
+ * This contains the methods shared by the load scenarios.  A scenario is a main class that
+ * starts a topology for every combination of its sweep parameters, loads it using load
+ * drivers and prints one line per measured combination.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public final class LoadScenarioSupport {
+
+	private LoadScenarioSupport() {
+	}
+
+	/**
+	 * @param property the name of a system property containing a comma separated list
+	 * @param defaults the list used when the system property is not set
+	 * @return the integers of the list
+	 */
+	public static int[] getIntegers(String property, String defaults) {
+		String values[] = System.getProperty(property, defaults).split(",");
+		int integers[] = new int[values.length];
+		for (int idx = 0 ; idx < values.length ; idx++) {
+			integers[idx] = Integer.parseInt(values[idx].trim());
+		}
+		return integers;
+	}
+
+	/**
+	 * This will apply the settings shared by every scenario, they can be changed using the
+	 * broker.service.load system properties.
+	 *
+	 * @param destinationName
+	 * @return a new load driver using the passed destination
+	 */
+	public static LoadDriver createDriver(String destinationName) {
+		LoadDriver driver = new LoadDriver();
+		driver.setDestinationName(destinationName);
+		// Give the network bridges the time to propagate the consumer demand
+		driver.setWarmupMillis(Long.getLong("broker.service.load.warmup", 2000));
+		driver.setDurationMillis(Long.getLong("broker.service.load.duration", 10000));
+		return driver;
+	}
+
+	/**
+	 * This will print the placement of every broker of the passed spawner as a comment line
+	 * and pin this process, where the load drivers run, to the processors reserved for the
+	 * clients.  Nothing is printed when the spawner does not use a placement.
+	 *
+	 * @param spawner
+	 */
+	public static void recordPlacement(AbstractBrokerServiceSpawner spawner) {
+		BrokerServicePlacement placement = spawner.getPlacement();
+		if (placement == null) {
+			return;
+		}
+		String clientCpus = BrokerServicePlacement.toCpuList(placement.getClientCpus());
+		if (clientCpus.length() > 0) {
+			boolean pinned = BrokerServicePlacement.pinCurrentProcess(clientCpus);
+			System.out.println("# clients cpus=" + clientCpus + (pinned ? "" : " (not pinned)"));
+		}
+		for (BrokerServiceNode node : spawner.getBrokerNodes()) {
+			System.out.println("# " + node.getIdentifier() + " " + node.getPlacement()
+					+ (node.isPinned() ? "" : " (not pinned)"));
+		}
+	}
+
+	/**
+	 * This will run the passed drivers concurrently.
+	 *
+	 * @param drivers
+	 * @return the result of every driver in the order of the drivers
+	 * @throws Exception
+	 */
+	public static List<LoadResult> run(List<LoadDriver> drivers) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(drivers.size());
+		try {
+			List<Future<LoadResult>> futures = new ArrayList<Future<LoadResult>>(drivers.size());
+			for (final LoadDriver driver : drivers) {
+				futures.add(executor.submit(new Callable<LoadResult>() {
+					public LoadResult call() throws Exception {
+						return driver.run();
+					}
+				}));
+			}
+			List<LoadResult> results = new ArrayList<LoadResult>(drivers.size());
+			for (Future<LoadResult> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.RoleEnum;
+import org.apache.activemq.brokerservice.runner.load.LoadDriver;
+import org.apache.activemq.brokerservice.runner.load.LoadResult;
+
+/**
+ * This scenario measures the cost of the store and forward hop between the networked brokers
+ * and their main broker.  Every networked broker uses its own queue, the messages are either
+ * produced on the networked brokers and consumed on the main broker or the reverse.  It
+ * reports for every hop the latency distribution, the throughput of the bridge and the growth
+ * of the backlog of the broker forwarding the messages.<p/>
+ *
+ * The swept values are passed using the scenario.networks and scenario.network.brokers
+ * system properties, for example:
+ *
+ * <pre>
+ *   java -Dscenario.networks=1,2 -Dscenario.network.brokers=2,5 -cp target/benchmarks.jar \
+ *       org.apache.activemq.brokerservice.runner.benchmark.NetworkForwardingScenario
+ * </pre>
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class NetworkForwardingScenario {
+
+	/**
+	 * INBOUND produces on the networked brokers, OUTBOUND produces on the main brokers.
+	 */
+	public enum DirectionEnum { INBOUND, OUTBOUND }
+
+	private static final String FORMAT = "%-9s %8s %8s %-22s %10s %10s %8s %8s %8s %10s %10s%n";
+
+	public static void main(String[] args) throws Exception {
+		// The load can only be started once every broker was started
+		System.setProperty("notifyIfStarted", "true");
+		System.out.printf(FORMAT, "direction", "networks", "brokers", "hop", "sent/s", "recv/s",
+				"p50(us)", "p99(us)", "p999(us)", "backlog", "maxBacklog");
+		for (int networks : LoadScenarioSupport.getIntegers("scenario.networks", "1,2")) {
+			for (int brokers : LoadScenarioSupport.getIntegers("scenario.network.brokers", "2,3,5")) {
+				for (DirectionEnum direction : DirectionEnum.values()) {
+					run(networks, brokers, direction);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param networks the number of main brokers
+	 * @param brokers the number of brokers of every network including its main broker
+	 * @param direction
+	 * @throws Exception
+	 */
+	public static void run(int networks, int brokers, DirectionEnum direction) throws Exception {
+		BenchmarkNetworkBrokersSpawner spawner = new BenchmarkNetworkBrokersSpawner(
+				BenchmarkBrokerServiceSpawner.createDataDir("network"));
+		spawner.setNumberOfNetworks(networks);
+		spawner.setNumberOfNetworkBrokers(brokers);
+		spawner.execute();
+		LoadScenarioSupport.recordPlacement(spawner);
+		try {
+			List<LoadDriver> drivers = new ArrayList<LoadDriver>();
+			List<String> hops = new ArrayList<String>();
+			List<String> sources = new ArrayList<String>();
+			for (BrokerServiceNode main : spawner.getBrokerNodes()) {
+				if (main.getRole() != RoleEnum.MAIN) {
+					continue;
+				}
+				for (BrokerServiceNode networked : main.getDependents()) {
+					LoadDriver driver = LoadScenarioSupport.createDriver("forward." + networked.getIdentifier());
+					if (direction == DirectionEnum.INBOUND) {
+						driver.setProducerUrls(LoadDriver.getBrokerUrl(networked));
+						driver.setConsumerUrls(LoadDriver.getBrokerUrl(main));
+						hops.add(networked.getIdentifier() + ">" + main.getIdentifier());
+						sources.add(networked.getIdentifier());
+					} else {
+						driver.setProducerUrls(LoadDriver.getBrokerUrl(main));
+						driver.setConsumerUrls(LoadDriver.getBrokerUrl(networked));
+						hops.add(main.getIdentifier() + ">" + networked.getIdentifier());
+						sources.add(main.getIdentifier());
+					}
+					drivers.add(driver);
+				}
+			}
+			if (drivers.isEmpty()) {
+				return;
+			}
+
+			BrokerStatisticsSampler sampler = new BrokerStatisticsSampler(spawner, 500);
+			sampler.start();
+			List<LoadResult> results = LoadScenarioSupport.run(drivers);
+			sampler.close();
+
+			for (int idx = 0 ; idx < results.size() ; idx++) {
+				// The backlog of a main broker is shared by all of its hops when the messages flow outbound
+				print(direction, networks, brokers, hops.get(idx), results.get(idx),
+						sampler.getGrowth(sources.get(idx), "messages"),
+						sampler.getMax(sources.get(idx), "messages"));
+			}
+			print(direction, networks, brokers, "all", LoadResult.merge(results), -1, -1);
+		} finally {
+			spawner.stopBrokers();
+		}
+	}
+
+	private static void print(DirectionEnum direction, int networks, int brokers, String hop,
+			LoadResult result, long backlog, long maxBacklog) {
+		System.out.printf(FORMAT, direction, networks, brokers, hop,
+				String.format("%.0f", result.getSendThroughput()),
+				String.format("%.0f", result.getReceiveThroughput()),
+				result.getLatencyMicros(50), result.getLatencyMicros(99), result.getLatencyMicros(99.9),
+				backlog < 0 ? "-" : String.valueOf(backlog), maxBacklog < 0 ? "-" : String.valueOf(maxBacklog));
+	}
+}
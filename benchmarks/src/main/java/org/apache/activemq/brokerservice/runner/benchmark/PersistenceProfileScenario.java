@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.PersistenceProfileEnum;
+import org.apache.activemq.brokerservice.runner.load.LoadDriver;
+import org.apache.activemq.brokerservice.runner.load.LoadResult;
+
+/**
+ * This scenario runs the same persistent queue workload against a standalone broker for every
+ * persistence profile and prints the throughput and latencies of the profiles side by side.
+ * The broker.service.load system properties change the workload, i.e. the message size or
+ * the acknowledgement mode, and the scenario.profiles system property selects the profiles:
+ *
+ * <pre>
+ *   java -Dscenario.profiles=durable-fsync,async-journal -Dbroker.service.load.producers=4 \
+ *       -cp target/benchmarks.jar \
+ *       org.apache.activemq.brokerservice.runner.benchmark.PersistenceProfileScenario
+ * </pre>
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class PersistenceProfileScenario {
+
+	private static final String FORMAT = "%-17s %10s %10s %8s %8s %8s %8s%n";
+
+	public static void main(String[] args) throws Exception {
+		// The load can only be started once the broker was started
+		System.setProperty("notifyIfStarted", "true");
+		System.out.printf(FORMAT, "profile", "sent/s", "recv/s", "p50(us)", "p99(us)", "p999(us)", "errors");
+		for (PersistenceProfileEnum profile : getProfiles()) {
+			run(profile);
+		}
+	}
+
+	/**
+	 * @return the profiles passed using the scenario.profiles system property or every profile
+	 */
+	private static List<PersistenceProfileEnum> getProfiles() {
+		List<PersistenceProfileEnum> profiles = new ArrayList<PersistenceProfileEnum>();
+		String names = System.getProperty("scenario.profiles");
+		if (names == null) {
+			for (PersistenceProfileEnum profile : PersistenceProfileEnum.values()) {
+				profiles.add(profile);
+			}
+		} else {
+			for (String name : names.split(",")) {
+				profiles.add(PersistenceProfileEnum.fromName(name));
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * @param profile
+	 * @throws Exception
+	 */
+	public static void run(PersistenceProfileEnum profile) throws Exception {
+		BenchmarkBrokerServiceSpawner spawner = new BenchmarkBrokerServiceSpawner(
+				BenchmarkBrokerServiceSpawner.createDataDir("profile"));
+		spawner.setNumberOfBrokers(1);
+		spawner.setPersistenceProfile(profile);
+		spawner.execute();
+		LoadScenarioSupport.recordPlacement(spawner);
+		try {
+			BrokerServiceNode broker = spawner.getBrokerNodes().iterator().next();
+			LoadDriver driver = LoadScenarioSupport.createDriver("profile." + profile.name().toLowerCase());
+			driver.setProducerUrls(LoadDriver.getBrokerUrl(broker));
+			driver.setConsumerUrls(LoadDriver.getBrokerUrl(broker));
+			LoadResult result = driver.run();
+			System.out.printf(FORMAT, profile,
+					String.format("%.0f", result.getSendThroughput()),
+					String.format("%.0f", result.getReceiveThroughput()),
+					result.getLatencyMicros(50), result.getLatencyMicros(99),
+					result.getLatencyMicros(99.9), result.getErrors());
+		} finally {
+			spawner.stopBrokers();
+		}
+	}
+}
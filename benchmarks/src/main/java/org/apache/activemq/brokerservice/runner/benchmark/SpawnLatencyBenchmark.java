@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceWorkerPool;
+import org.apache.activemq.brokerservice.runner.ExecutionModeEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the time taken to start brokers until they informed the spawning
+ * process that they were started.  The brokers are stopped after every invocation and the
+ * stopping time is not measured.
+ *
+ * @author Claudio Corsi
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SpawnLatencyBenchmark {
+
+	@Param({ "FORKED", "EMBEDDED", "POOLED" })
+	public ExecutionModeEnum executionMode;
+
+	@Param({ "1", "4" })
+	public int brokers;
+
+	private BenchmarkBrokerServiceSpawner spawner;
+	private BrokerServiceWorkerPool pool;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws IOException {
+		System.setProperty("notifyIfStarted", "true");
+		System.setProperty("notifyIfStopped", "true");
+		if (executionMode == ExecutionModeEnum.POOLED) {
+			// Keep enough warm workers for the brokers of the next invocation
+			pool = new BrokerServiceWorkerPool(brokers * 2, new LinkedList<String>());
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setUp() throws IOException {
+		spawner = new BenchmarkBrokerServiceSpawner(BenchmarkBrokerServiceSpawner.createDataDir("spawn"));
+		spawner.setNumberOfBrokers(brokers);
+		spawner.setExecutionMode(executionMode);
+		spawner.setWorkerPool(pool);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() throws IOException {
+		spawner.stopBrokers();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Benchmark
+	public void start() throws IOException {
+		spawner.execute();
+	}
+}
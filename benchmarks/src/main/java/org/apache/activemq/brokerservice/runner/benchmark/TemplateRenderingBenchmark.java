@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * This benchmark measures the generation of the activemq configuration file of a broker.
+ *
+ * @author Claudio Corsi
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateRenderingBenchmark {
+
+	private BenchmarkBrokerServiceSpawner spawner;
+	private Properties properties;
+	private String propertyFileName;
+	private String configFileName;
+	private int id;
+
+	@Setup
+	public void setUp() throws IOException {
+		File dir = BenchmarkBrokerServiceSpawner.createDataDir("template");
+		spawner = new BenchmarkBrokerServiceSpawner(dir);
+		properties = new Properties();
+		spawner.populate(properties, 0);
+		propertyFileName = new File(dir, "activemq-0.properties").getAbsolutePath();
+		configFileName = new File(dir, "activemq-0.xml").getAbsolutePath();
+	}
+
+	/**
+	 * @return the rendered configuration without writing it
+	 * @throws IOException
+	 */
+	@Benchmark
+	public byte[] render() throws IOException {
+		return BrokerServiceTemplate.getTemplate("activemq.xml").renderBytes(properties,
+				BrokerServiceTemplate.INLINED_PROPERTIES_FILE);
+	}
+
+	/**
+	 * This includes writing the configuration file.
+	 *
+	 * @throws IOException
+	 */
+	@Benchmark
+	public void generateConfigurationFiles() throws IOException {
+		spawner.generate(properties, propertyFileName, "activemq.xml", configFileName);
+	}
+
+	/**
+	 * This populates the properties of a broker and generates its configuration file.
+	 *
+	 * @throws IOException
+	 */
+	@Benchmark
+	public void populateAndGenerate() throws IOException {
+		Properties props = new Properties();
+		spawner.populate(props, id++ & 1023);
+		spawner.generate(props, propertyFileName, "activemq.xml", configFileName);
+	}
+}
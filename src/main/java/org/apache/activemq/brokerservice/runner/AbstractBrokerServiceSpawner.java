@@ -16,20 +16,36 @@
  */
 package org.apache.activemq.brokerservice.runner;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.ObjectName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,13 +59,107 @@ public abstract class AbstractBrokerServiceSpawner {
 
 	private static final Logger logger = LoggerFactory.getLogger(AbstractBrokerServiceSpawner.class);
 	
-	private Collection<IBrokerServiceManager> managers = new LinkedList<IBrokerServiceManager>();
+	private Collection<IBrokerServiceManager> managers = new CopyOnWriteArrayList<IBrokerServiceManager>();
 	
 	private int startedBrokers = 0;
 	
+	private Set<BrokerServiceManager> countedBrokers = new HashSet<BrokerServiceManager>();
+	
+	private List<BrokerServiceLifecycleListener> listeners = new CopyOnWriteArrayList<BrokerServiceLifecycleListener>();
+	
+	private List<BrokerServiceStateListener> stateListeners = new CopyOnWriteArrayList<BrokerServiceStateListener>();
+	
+	private List<BrokerServiceNode> nodes = new CopyOnWriteArrayList<BrokerServiceNode>();
+	
+	private int startupThreads = Integer.getInteger("broker.service.startup.threads", Runtime.getRuntime().availableProcessors());
+	
+	private ReadinessProbe readinessProbe = createReadinessProbe(System.getProperty("broker.service.readiness.probe", "tcp"));
+	
+	private long readinessTimeout = Long.getLong("broker.service.readiness.timeout", 60000);
+	
+	private long startTimeout = Long.getLong("broker.service.start.timeout", 300000);
+	
+	private long stopTimeout = Long.getLong("broker.service.stop.timeout", 30000);
+	
+	private ExecutionModeEnum executionMode = ExecutionModeEnum.valueOf(System.getProperty("broker.service.execution.mode", ExecutionModeEnum.FORKED.name()).toUpperCase());
+	
+	private int controlPort;
+	
+	private ObjectName timingsName;
+	
+	private File statusBoardFile = System.getProperty("broker.service.status.board") == null ? null
+			: new File(System.getProperty("broker.service.status.board"));
+	
+	private int statusBoardSlots = Integer.getInteger("broker.service.status.slots", 256);
+	
+	private BrokerServiceStatusBoard statusBoard;
+	
+	private BrokerServiceWorkerPool workerPool;
+	
+	private boolean classDataSharing = Boolean.getBoolean("broker.service.cds");
+	
+	private boolean programmaticConfiguration = Boolean.getBoolean("broker.service.programmatic");
+	
+	private PersistenceProfileEnum persistenceProfile = PersistenceProfileEnum.fromName(System.getProperty("broker.service.persistence.profile", PersistenceProfileEnum.DEFAULT.name()));
+	
+	private Map<RoleEnum, PersistenceProfileEnum> rolePersistenceProfiles = new EnumMap<RoleEnum, PersistenceProfileEnum>(RoleEnum.class);
+	
+	private boolean ramDataDirectory = Boolean.getBoolean("broker.service.ram.data.dir");
+	
+	private String ramDataDirectoryRoots = System.getProperty("broker.service.ram.data.dir.roots", BrokerServiceDataDirectory.DEFAULT_ROOTS);
+	
+	private BrokerServiceDataDirectory dataDirectory;
+	
+	private boolean jvmProfiles = Boolean.getBoolean("broker.service.jvm.profiles");
+	
+	private double jvmMemoryFraction = Double.parseDouble(System.getProperty("broker.service.jvm.memory.fraction", "0.5"));
+	
+	private Map<RoleEnum, BrokerServiceJvmProfile> roleJvmProfiles = new EnumMap<RoleEnum, BrokerServiceJvmProfile>(RoleEnum.class);
+	
+	private boolean placement = Boolean.getBoolean("broker.service.placement");
+	
+	private int placementClientCpus = Integer.getInteger("broker.service.placement.client.cpus", 0);
+	
+	private BrokerServicePlacement cpuPlacement;
+	
+	private volatile ExecutorService pinningExecutor;
+	
+	private List<RoleEnum> placementRoles = new LinkedList<RoleEnum>();
+	
+	private TreeSet<Integer> freePlacementIndexes = new TreeSet<Integer>();
+	
+	private boolean restartBrokers = Boolean.getBoolean("broker.service.restart");
+	
+	private int restartBudget = Integer.getInteger("broker.service.restart.budget", 3);
+	
+	private long restartBackoff = Long.getLong("broker.service.restart.backoff", 1000);
+	
+	private long restartMaxBackoff = Long.getLong("broker.service.restart.backoff.max", 30000);
+	
+	private volatile BrokerServiceSupervisor supervisor;
+	
+	private boolean watchdog = Boolean.getBoolean("broker.service.watchdog");
+	
+	private long heartbeatInterval = Long.getLong("broker.service.heartbeat.interval", 1000);
+	
+	private int heartbeatMisses = Integer.getInteger("broker.service.heartbeat.misses", 3);
+	
+	private boolean watchdogRecycle = Boolean.getBoolean("broker.service.watchdog.recycle");
+	
+	private BrokerServiceWatchdog brokerWatchdog;
+	
+	private int nextStatusSlot;
+	
+	private TreeSet<Integer> freeStatusSlots = new TreeSet<Integer>();
+	
 	protected Spawner spawners[];
 
 	/**
+	 * This method will render the activemq configuration file of a broker using the passed
+	 * template.  The broker properties are inlined within the rendered configuration and the
+	 * properties file is only written when the template uses placeholders that are not defined
+	 * by the broker properties.
+	 * 
 	 * @param properties
 	 * @param propertyFileName
 	 * @param activemqTemplate
@@ -60,131 +170,452 @@ public abstract class AbstractBrokerServiceSpawner {
 			Properties properties, String propertyFileName,
 			String activemqTemplate, String activemqConfigFileName)
 			throws IOException {
+		BrokerServiceTemplate template = BrokerServiceTemplate.getTemplate(activemqTemplate);
 		File propFile = new File(propertyFileName);
-		if (propFile.exists()) {
-			propFile.delete();
+		String propertiesFile;
+		if (template.isResolvedBy(properties)) {
+			if (propFile.exists()) {
+				// Do not leave a properties file that does not match the configuration file
+				propFile.delete();
+			}
+			propertiesFile = BrokerServiceTemplate.INLINED_PROPERTIES_FILE;
+		} else {
+			writePropertiesFile(properties, propFile, activemqConfigFileName);
+			propertiesFile = propFile.toURI().toString();
 		}
-		PrintWriter writer = new PrintWriter(propFile);
-		properties.store(writer, "Properties used by the "
+		write(new File(activemqConfigFileName), template.renderBytes(properties, propertiesFile));
+	}
+
+	private static void writePropertiesFile(Properties properties, File propFile,
+			String activemqConfigFileName) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		properties.store(baos, "Properties used by the "
 				+ activemqConfigFileName + " activemq configuration file");
-		InputStream is = ClassLoader
-				.getSystemResourceAsStream(activemqTemplate);
-		BufferedReader br = new BufferedReader(new InputStreamReader(is));
-		PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(
-				activemqConfigFileName)));
-		String line;
-		while ((line = br.readLine()) != null) {
-			pw.println(line.replace("@@PROPERTIESFILE@@", propFile.toURI()
-					.toString()));
+		write(propFile, baos.toByteArray());
+	}
+
+	private static void write(File file, byte data[]) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			FileChannel channel = fos.getChannel();
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			fos.close();
 		}
-		pw.close();
-		br.close();
 	}
 
 	/**
-	 * This is the main method that will manage the spawned broker services.
+	 * This is the main method that will manage the spawned broker services.  It returns once
+	 * every broker was started or throws a BrokerServiceStartupException when a broker
+	 * failed to start or the brokers were not started within the start timeout.
 	 * 
 	 * @throws IOException 
 	 * 
 	 */
 	public final void execute() throws IOException {
-		ServerSocket server = new ServerSocket(0);
-		int port = server.getLocalPort();
+		BrokerServiceTopologyFuture future = executeAsync();
+		try {
+			if (startTimeout > 0) {
+				future.get(startTimeout, TimeUnit.MILLISECONDS);
+			} else {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for the brokers to be started");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new BrokerServiceStartupException("Unable to start the topology: " + e.getCause(),
+					future.getFailures(), future.getPendingBrokers());
+		} catch (TimeoutException e) {
+			throw new BrokerServiceStartupException("The topology was not started within "
+					+ startTimeout + " milliseconds", future.getFailures(),
+					future.getPendingBrokers());
+		}
+	}
+
+	/**
+	 * This method will start the spawned broker services without waiting for them to be
+	 * started.  The returned future provides a future for every broker and is completed once
+	 * every broker was started.  The brokers are started even if the caller never waits for
+	 * the returned future.
+	 * 
+	 * @return the future that is completed once every broker was started
+	 * @throws IOException if the control channel used by the brokers could not be created
+	 */
+	public final BrokerServiceTopologyFuture executeAsync() throws IOException {
+		BrokerServiceControlChannel control = new BrokerServiceControlChannel(this, new LifecycleDispatcher());
+		int port = control.getPort();
+		this.controlPort = port;
 		System.setProperty("broker.service.port.number", String.valueOf(port));
-		new Thread(new Runnable() {
-			private ServerSocket server;
+		control.start();
+		
+		registerStartupTimings();
+		if (statusBoardFile != null) {
+			statusBoard = BrokerServiceStatusBoard.create(statusBoardFile, statusBoardSlots);
+		}
+		if (ramDataDirectory && dataDirectory == null) {
+			dataDirectory = BrokerServiceDataDirectory.create(ramDataDirectoryRoots);
+		}
+		if (placement && cpuPlacement == null) {
+			cpuPlacement = BrokerServicePlacement.fromHost(placementClientCpus);
+		}
+		if (cpuPlacement != null && pinningExecutor == null) {
+			pinningExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "BrokerServicePlacement");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		if (restartBrokers && supervisor == null) {
+			supervisor = new BrokerServiceSupervisor(this, restartBudget, restartBackoff, restartMaxBackoff);
+		}
+		if (watchdog && brokerWatchdog == null) {
+			brokerWatchdog = new BrokerServiceWatchdog(this, heartbeatInterval, heartbeatMisses, watchdogRecycle);
+			brokerWatchdog.start();
+		}
+		
+		final BrokerServiceTopologyFuture future = new BrokerServiceTopologyFuture();
+		new Thread("BrokerServiceSpawner-start") {
+			{ setDaemon(true); start(); }
 			
-			public Runnable setServerSocket(ServerSocket server) {
-				this.server = server;
-				return this;
-			}
-	
-			@Override
 			public void run() {
-				do {
-					try {
-						Socket socket = server.accept();
-						BrokerServiceManager manager = new BrokerServiceManager(socket);
-						AbstractBrokerServiceSpawner.this.managers.add(manager);
-						if (Boolean.getBoolean("notifyIfStarted")) {
-							// Spawn a thread that will read the integer and increment started count...
-							new Thread(new Runnable() {
-								private BrokerServiceManager manager;
+				try {
+					preCreateSpawners();
+					createSpawners();
+					postCreateSpawners();
+					if (nodes.isEmpty()) {
+						waitUntilSpawnersStarted();
+						future.set(getBrokerNodes());
+					} else {
+						future.setBrokerNodes(nodes);
+					}
+				} catch (Throwable e) {
+					logger.debug("Received an exception while starting the brokers", e);
+					future.fail(e);
+				}
+			}
+		};
+		return future;
+	}
+
+	/**
+	 * This will register the MBean exposing the startup timings of the brokers of this
+	 * spawner.
+	 */
+	private void registerStartupTimings() {
+		try {
+			timingsName = new ObjectName("org.apache.activemq.brokerservice.runner:type=StartupTimings,name="
+					+ getClass().getSimpleName() + "-" + controlPort);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new BrokerServiceStartupTimings(nodes), timingsName);
+		} catch (Exception e) {
+			logger.debug("Unable to register the startup timings MBean", e);
+			timingsName = null;
+		}
+	}
+
+	private void unregisterStartupTimings() {
+		if (timingsName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(timingsName);
+			} catch (Exception e) {
+				logger.debug("Unable to unregister the startup timings MBean", e);
+			}
+			timingsName = null;
+		}
+	}
+
+	/**
+	 * This is used when the createSpawners method did not create any broker node and only
+	 * the spawners array is available.
+	 * 
+	 * @throws IOException if the spawned brokers exited before all of them were started
+	 * @throws InterruptedException
+	 */
+	private synchronized void waitUntilSpawnersStarted() throws IOException, InterruptedException {
+		if (!Boolean.getBoolean("notifyIfStarted")) {
+			return;
+		}
+		while (this.startedBrokers < this.spawners.length) {
+			wait(1000);
+			if (this.startedBrokers < this.spawners.length && !stillActive()) {
+				throw new IOException("Only " + this.startedBrokers + " of the "
+						+ this.spawners.length + " spawned brokers were started");
+			}
+		}
+	}
+
+	/**
+	 * This is called by the control channel to handle the brokers that exited before they
+	 * connected to it.  The exit of a connected broker is noticed once its control
+	 * connection is closed.
+	 */
+	void checkExitedBrokers() {
+		for (BrokerServiceNode node : nodes) {
+			StateEnum state = node.getState();
+			if ((state == StateEnum.STARTING || state == StateEnum.RESTARTING)
+					&& node.getManager() == null && node.isExited()) {
+				brokerExited(node, "exited before it was started");
+			}
+		}
+	}
+
+	/**
+	 * This is called once the passed broker exited.  A broker that was not requested to stop
+	 * has crashed and is restarted by the supervisor when the restart of the brokers is
+	 * enabled and the broker did not use its restart budget.
+	 * 
+	 * @param node
+	 * @param reason
+	 */
+	private void brokerExited(BrokerServiceNode node, String reason) {
+		StateEnum state = node.getState();
+		if (state == StateEnum.STOPPING || state == StateEnum.STOPPED) {
+			setBrokerState(node, StateEnum.STOPPED);
+			return;
+		}
+		if (state == StateEnum.CRASHED) {
+			return;
+		}
+		setBrokerState(node, StateEnum.CRASHED);
+		managers.remove(node.getManager());
+		logger.warn("The broker " + node + " " + reason);
+		BrokerServiceSupervisor supervisor = this.supervisor;
+		if (supervisor != null && supervisor.canRestart(node)) {
+			setBrokerState(node, StateEnum.RESTARTING);
+			supervisor.restart(node);
+			return;
+		}
+		if (supervisor != null) {
+			logger.error("The broker " + node + " will not be restarted after "
+					+ node.getRestartCount() + " restarts");
+		}
+		node.getStartedFuture().fail(new IOException("The broker " + node + " " + reason));
+	}
 
+	/**
+	 * This is called by the supervisor to restart the passed broker that crashed.  The
+	 * previous instance of the broker is forcibly stopped if it did not exit within the stop
+	 * timeout.
+	 * 
+	 * @param node
+	 */
+	void restartBrokerNode(BrokerServiceNode node) {
+		if (node.getState() != StateEnum.RESTARTING) {
+			// The broker was requested to stop while it was waiting to be restarted
+			return;
+		}
+		try {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stopTimeout);
+			while (!node.isExited() && System.nanoTime() < deadline) {
+				Thread.sleep(100);
+			}
+			if (!node.isExited()) {
+				BrokerServiceShutdown.forceStop(node, node.getManager(), node.getIdentifier());
+			}
+			synchronized (node) {
+				// The brokers could have been stopped while the previous instance was exiting
+				if (node.getState() != StateEnum.RESTARTING) {
+					logger.debug("The broker " + node + " is not restarted since it is " + node.getState());
+					return;
+				}
+				node.setManager(null);
+				launchBrokerNode(node);
+			}
+		} catch (InterruptedException e) {
+			logger.debug("Interrupted while restarting the broker " + node, e);
+		} catch (Exception e) {
+			logger.warn("Unable to restart the broker " + node, e);
+			brokerExited(node, "could not be restarted: " + e);
+		}
+	}
+
+	/**
+	 * This will change the state of the passed broker and inform the state listeners.
+	 * 
+	 * @param node
+	 * @param state
+	 */
+	void setBrokerState(BrokerServiceNode node, StateEnum state) {
+		StateEnum previous;
+		synchronized (node) {
+			previous = node.getState();
+			if (previous == state) {
+				return;
+			}
+			node.setState(state);
+		}
+		logger.debug("The broker " + node + " changed from " + previous + " to " + state);
+		for (BrokerServiceStateListener listener : stateListeners) {
+			listener.brokerStateChanged(node, previous, state);
+		}
+	}
+
+	/**
+	 * @return true if some of the brokers have not exited yet
+	 */
+	boolean stillActive() {
+		if (!nodes.isEmpty()) {
+			for (BrokerServiceNode node : nodes) {
+				// A broker that has not been launched yet is still expected to connect and
+				// a broker that is restarted will connect again
+				if (node.getState() == StateEnum.RESTARTING || !node.isExited())
+					return true;
+			}
+			return false;
+		}
+		if (spawners == null) {
+			// The spawners have not been created yet
+			return true;
+		}
+		for (Spawner spawner : spawners) {
+			// FIXME: Add exited processes to a separate collection to
+			// combat possible boundary conditions for wait until
+			// started/stop cases
+			if (spawner == null || !spawner.isProcessExited())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * This will count the passed broker as started and notify the thread waiting for all of
+	 * the brokers to be started.
+	 * 
+	 * @param manager
+	 */
+	private synchronized void brokerStartedOrFailed(BrokerServiceManager manager) {
+		if (countedBrokers.add(manager)) {
+			// Increment the started count notify waiting parent thread
+			this.startedBrokers++;
+			this.notify();
+		}
+	}
+
+	/**
+	 * This listener is used by the control channel to inform this spawner and the registered
+	 * listeners of the broker signals.
+	 */
+	private class LifecycleDispatcher implements BrokerServiceLifecycleListener {
+
+		public void brokerConnected(final BrokerServiceManager manager) {
+			managers.add(manager);
+			for (final BrokerServiceNode node : nodes) {
+				if (node.getIdentifier().equals(manager.getIdentifier())) {
+					node.setManager(manager);
+					node.setStartupPhase("connected", System.nanoTime() - node.getLaunchNanos());
+					ExecutorService pinningExecutor = AbstractBrokerServiceSpawner.this.pinningExecutor;
+					if (pinningExecutor != null) {
+						try {
+							// The control channel thread is not blocked while taskset is executed
+							pinningExecutor.execute(new Runnable() {
 								public void run() {
-									try {
-										manager.waitUntilStarted();
-									} catch (IOException e) {
-										logger.info("Received an exception while waiting to be informed that the broker was started",e);
-									} finally {
-										synchronized(AbstractBrokerServiceSpawner.this) {
-											// Increment the started count notify waiting parent thread
-											AbstractBrokerServiceSpawner.this.startedBrokers++;
-											AbstractBrokerServiceSpawner.this.notify();
-										}
-									}
+									pinBroker(node, manager);
 								}
-								
-								public Runnable setManager(BrokerServiceManager manager) {
-									this.manager = manager;
-									return this;
-								}
-							}.setManager(manager)) {
-								{
-									this.setDaemon(true);
-									this.start();
-								}
-							};
+							});
+						} catch (RejectedExecutionException e) {
+							logger.debug("The broker " + node + " is not pinned since the brokers are being stopped");
 						}
-					} catch (IOException e) {
-						// Something happened but let us not worry about this just yet.
 					}
-				} while(stillActive());
+				}
 			}
-	
-			private boolean stillActive() {
-				for (Spawner spawner : AbstractBrokerServiceSpawner.this.spawners) {
-					// FIXME: Add exited processes to a separate collection to
-					// combat possible boundary conditions for wait until
-					// started/stop cases
-					if (!spawner.isProcessExited())
-						return true;
+			for (BrokerServiceLifecycleListener listener : listeners) {
+				listener.brokerConnected(manager);
+			}
+		}
+
+		public void brokerStarted(BrokerServiceManager manager) {
+			BrokerServiceNode node = getBrokerNode(manager);
+			if (node != null) {
+				node.setStartupPhase("started", System.nanoTime() - node.getLaunchNanos());
+				node.setStartupPhases(manager.getStartupTimings());
+				if (node.getState() == StateEnum.STARTING || node.getState() == StateEnum.RESTARTING) {
+					setBrokerState(node, StateEnum.STARTED);
 				}
-				return false;
 			}
-		}.setServerSocket(server))
-		{
-			{
-				setDaemon(true);
-				start();
+			if (Boolean.getBoolean("notifyIfStarted")) {
+				brokerStartedOrFailed(manager);
+				if (node != null) {
+					node.getStartedFuture().set(node);
+				}
 			}
-		};
-		
-		preCreateSpawners();
-		createSpawners();
-		postCreateSpawners();
-		
-		if (Boolean.getBoolean("notifyIfStarted")) {
-			while (true) { // FIXME: We need a better way to combat unpredictable situations...like broker not starting...
-				// Wait to be notified that a broker was started...
-				synchronized (this) {
-					try {
-						wait();
-					} catch (InterruptedException e) {
-						logger.debug(
-								"Received an exception while waiting to find out if all of the brokers have been started",
-								e);
-					} finally {
-						if (this.startedBrokers >= this.spawners.length) {
-							// We are done return...
-							return;
-						}
-					}
+			for (BrokerServiceLifecycleListener listener : listeners) {
+				listener.brokerStarted(manager);
+			}
+		}
+
+		public void brokerStopped(BrokerServiceManager manager) {
+			BrokerServiceNode node = getBrokerNode(manager);
+			if (node != null) {
+				setBrokerState(node, StateEnum.STOPPED);
+			}
+			for (BrokerServiceLifecycleListener listener : listeners) {
+				listener.brokerStopped(manager);
+			}
+		}
+
+		public void brokerDisconnected(BrokerServiceManager manager) {
+			if (Boolean.getBoolean("notifyIfStarted")) {
+				// A broker that disconnects before it was started will never be started
+				brokerStartedOrFailed(manager);
+			}
+			BrokerServiceNode node = getBrokerNode(manager);
+			if (node != null) {
+				// The control connection is closed by the operating system once the broker exited
+				brokerExited(node, node.getStartedFuture().isDone() ? "disconnected"
+						: "disconnected before it was started");
+			}
+			for (BrokerServiceLifecycleListener listener : listeners) {
+				listener.brokerDisconnected(manager);
+			}
+		}
+
+		private BrokerServiceNode getBrokerNode(BrokerServiceManager manager) {
+			for (BrokerServiceNode node : nodes) {
+				if (node.getManager() == manager) {
+					return node;
 				}
 			}
+			return null;
 		}
 	}
 
+	/**
+	 * @param listener the listener informed of the signals sent by the spawned brokers
+	 */
+	public void addLifecycleListener(BrokerServiceLifecycleListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener the listener to remove
+	 */
+	public void removeLifecycleListener(BrokerServiceLifecycleListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @param listener the listener informed of the changes of the state of the brokers
+	 * @see BrokerServiceNode#getState()
+	 */
+	public void addStateListener(BrokerServiceStateListener listener) {
+		stateListeners.add(listener);
+	}
+
+	/**
+	 * @param listener the listener to remove
+	 */
+	public void removeStateListener(BrokerServiceStateListener listener) {
+		stateListeners.remove(listener);
+	}
+
 	/**
 	 * This is called prior to calling the createSpawners method.
 	 */
@@ -205,18 +636,873 @@ public abstract class AbstractBrokerServiceSpawner {
 	 */
 	protected abstract void createSpawners();
 
+	/**
+	 * This method will generate the configuration files of a broker and create the spawner
+	 * that will start it.  The broker is not started until the spawnBrokerNodes method is
+	 * called.
+	 * 
+	 * @param identifier The identifier of the spawned broker
+	 * @param role The role of the broker within the topology
+	 * @param properties The properties used to generate the configuration files
+	 * @param propertyFileName
+	 * @param activemqTemplate
+	 * @param activemqConfigFileName
+	 * @param dependencies The brokers that have to be ready before this broker is started
+	 * @return the broker node that was created
+	 * @throws IOException
+	 */
+	protected final BrokerServiceNode createBrokerNode(String identifier,
+			RoleEnum role, Properties properties, String propertyFileName,
+			String activemqTemplate, String activemqConfigFileName,
+			BrokerServiceNode... dependencies) throws IOException {
+		long start = System.nanoTime();
+		PersistenceProfileEnum profile = getPersistenceProfile(role);
+		profile.apply(properties);
+		File brokerDataDirectory = allocateDataDirectory(identifier, properties);
+		generateBrokerServiceConfigurationFiles(properties, propertyFileName,
+				activemqTemplate, activemqConfigFileName);
+		Properties settings = new Properties();
+		settings.setProperty("broker.config.file", "xbean:" + activemqConfigFileName);
+		settings.setProperty("broker.service.identifier", identifier);
+		settings.setProperty("broker.service.persistence.profile", profile.name());
+		if (watchdog) {
+			// The broker answers that it is stalled before the heartbeat is missed
+			settings.setProperty("broker.service.heartbeat.timeout", String.valueOf(Math.max(1, heartbeatInterval / 2)));
+		}
+		int statusSlot = -1;
+		if (statusBoard != null) {
+			statusSlot = allocateStatusSlot();
+			if (statusSlot >= 0) {
+				settings.setProperty("broker.service.status.board", statusBoardFile.getAbsolutePath());
+				settings.setProperty("broker.service.status.slot", String.valueOf(statusSlot));
+			} else {
+				logger.warn("The status board has no slot left for broker " + identifier);
+			}
+		}
+		if (useProgrammaticConfiguration(role, activemqTemplate)) {
+			File propFile = new File(propertyFileName);
+			if (!propFile.exists()) {
+				writePropertiesFile(properties, propFile, activemqConfigFileName);
+			}
+			settings.setProperty("broker.properties.file", propFile.getAbsolutePath());
+			settings.setProperty("broker.role", role.name());
+		}
+		Spawner spawner = new Spawner(BrokerServiceProcess.class.getName(), "execute");
+		List<String> jvmArgs = new LinkedList<String>();
+		addToJVMArgs(jvmArgs);
+		if (classDataSharing) {
+			ClassDataSharingArchive.getDefault().addToJVMArgs(jvmArgs);
+		}
+		for (String name : settings.stringPropertyNames()) {
+			jvmArgs.add("-D" + name + "=" + settings.getProperty(name));
+		}
+		spawner.setJVMArgs(jvmArgs);
+		spawner.setIdentifier(identifier);
+		BrokerServiceNode node = new BrokerServiceNode(identifier, role, properties,
+				settings, spawner, dependencies);
+		node.setJvmArgs(jvmArgs);
+		node.setStartupPhase("configuration", System.nanoTime() - start);
+		node.setStatusSlot(statusSlot);
+		node.setPlacementIndex(allocatePlacementIndex(role));
+		node.setDataDirectory(brokerDataDirectory);
+		nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * The slots of the retired brokers are reused before the unused slots of the board.
+	 * 
+	 * @return the slot of the status board of a created broker or -1 if every slot is used
+	 */
+	private synchronized int allocateStatusSlot() {
+		Integer slot = freeStatusSlots.pollFirst();
+		if (slot != null) {
+			return slot;
+		}
+		if (nextStatusSlot < statusBoard.getSlotCount()) {
+			return nextStatusSlot++;
+		}
+		return -1;
+	}
+
+	/**
+	 * The position of a retired broker is reused by the next created broker, the role of the
+	 * retired broker is kept until then so that the processors of the running brokers are
+	 * not moved.
+	 * 
+	 * @param role
+	 * @return the placement index of a created broker of the passed role
+	 */
+	private synchronized int allocatePlacementIndex(RoleEnum role) {
+		Integer index = freePlacementIndexes.pollFirst();
+		if (index == null) {
+			placementRoles.add(role);
+			return placementRoles.size() - 1;
+		}
+		placementRoles.set(index, role);
+		return index;
+	}
+
+	/**
+	 * This will move the store of the passed broker to the RAM disk when the RAM data
+	 * directory is used.  A broker that is not persistent does not use any space.
+	 * 
+	 * @param identifier
+	 * @param properties
+	 * @return the data directory of the broker within the RAM disk or null if the broker uses
+	 * 		the data directory populated by the spawner
+	 */
+	private File allocateDataDirectory(String identifier, Properties properties) {
+		if (dataDirectory == null
+				|| !Boolean.parseBoolean(properties.getProperty(PersistenceProfileEnum.PERSISTENT, "true"))) {
+			return null;
+		}
+		File directory = dataDirectory.allocate(identifier, BrokerServiceDataDirectory.getRequiredSpace(properties));
+		if (directory != null) {
+			properties.setProperty("kahadb.dir", directory.getAbsolutePath());
+		}
+		return directory;
+	}
+
+	/**
+	 * This method will start all of the brokers created by the createBrokerNode method that
+	 * have not been started yet.  The brokers are started concurrently while a broker that
+	 * depends on other brokers is only started once these brokers are ready.  It returns once
+	 * every broker has been launched.
+	 */
+	protected final void spawnBrokerNodes() {
+		List<BrokerServiceNode> pending = new LinkedList<BrokerServiceNode>();
+		for (BrokerServiceNode node : nodes) {
+			if (!node.isLaunched()) {
+				pending.add(node);
+			}
+		}
+		try {
+			new BrokerServiceScheduler(this, startupThreads).schedule(pending);
+		} catch (InterruptedException e) {
+			logger.debug("Interrupted while waiting for the brokers to be spawned", e);
+		}
+	}
+
+	/**
+	 * This will start a broker that was added to the running topology using the
+	 * createBrokerNode method.  It returns once the broker was started and is ready to be
+	 * used by the clients, its dependencies have to be running already.
+	 * 
+	 * @param node
+	 * @return the passed broker
+	 * @throws IOException if the broker was not started within the start timeout
+	 */
+	protected final BrokerServiceNode startAddedBrokerNode(BrokerServiceNode node) throws IOException {
+		synchronized (this) {
+			if (spawners != null) {
+				Spawner grown[] = new Spawner[spawners.length + 1];
+				System.arraycopy(spawners, 0, grown, 0, spawners.length);
+				grown[spawners.length] = node.getSpawner();
+				spawners = grown;
+			}
+		}
+		spawnBrokerNodes();
+		try {
+			if (startTimeout > 0) {
+				node.getStartedFuture().get(startTimeout, TimeUnit.MILLISECONDS);
+			} else {
+				node.getStartedFuture().get();
+			}
+			waitUntilReady(node);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for the broker " + node + " to be started");
+		} catch (ExecutionException e) {
+			throw new BrokerServiceStartupException("Unable to start the broker " + node + ": " + e.getCause(),
+					Collections.singletonMap(node.getIdentifier(), e.getCause()), Collections.<String>emptyList());
+		} catch (TimeoutException e) {
+			throw new BrokerServiceStartupException("The broker " + node + " was not started within "
+					+ startTimeout + " milliseconds", Collections.<String, Throwable>emptyMap(),
+					Collections.singletonList(node.getIdentifier()));
+		}
+		return node;
+	}
+
+	/**
+	 * This will stop the passed broker and remove it from the running topology.  The broker is
+	 * forcibly stopped when it does not exit within the stop timeout.
+	 * 
+	 * @param node
+	 * @return true if the broker stopped by itself
+	 * @throws IOException
+	 * @throws IllegalStateException if some running brokers depend on the passed broker
+	 */
+	public final boolean retireBroker(BrokerServiceNode node) throws IOException {
+		for (BrokerServiceNode dependent : node.getDependents()) {
+			if (nodes.contains(dependent)) {
+				throw new IllegalStateException("The broker " + node + " can not be retired before " + dependent);
+			}
+		}
+		Collection<IBrokerServiceManager> brokerManagers = node.getManager() == null
+				? Collections.<IBrokerServiceManager>emptyList()
+				: Collections.<IBrokerServiceManager>singletonList(node.getManager());
+		setBrokerState(node, StateEnum.STOPPING);
+		Collection<String> forced;
+		try {
+			forced = new BrokerServiceShutdown(stopTimeout).stop(brokerManagers, Collections.singletonList(node));
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while retiring the broker " + node);
+		}
+		setBrokerState(node, StateEnum.STOPPED);
+		nodes.remove(node);
+		managers.remove(node.getManager());
+		node.detach();
+		synchronized (this) {
+			// The status slot and placement index are reused by the next added broker
+			if (node.getStatusSlot() >= 0) {
+				freeStatusSlots.add(node.getStatusSlot());
+			}
+			freePlacementIndexes.add(node.getPlacementIndex());
+			if (spawners != null) {
+				List<Spawner> remaining = new LinkedList<Spawner>();
+				for (Spawner spawner : spawners) {
+					if (spawner != node.getSpawner()) {
+						remaining.add(spawner);
+					}
+				}
+				spawners = remaining.toArray(new Spawner[remaining.size()]);
+			}
+		}
+		if (dataDirectory != null && node.getDataDirectory() != null) {
+			dataDirectory.releaseAsync(node.getDataDirectory(),
+					BrokerServiceDataDirectory.getRequiredSpace(node.getProperties()));
+		}
+		logger.info("Retired the broker " + node + (forced.isEmpty() ? "" : " which had to be forcibly stopped"));
+		return forced.isEmpty();
+	}
+
+	/**
+	 * This method is called by the scheduler to start the passed broker.
+	 * 
+	 * @param node
+	 * @throws Exception
+	 */
+	final void launchBrokerNode(BrokerServiceNode node) throws Exception {
+		long start = System.nanoTime();
+		node.setLaunchNanos(start);
+		if (node.getState() != StateEnum.RESTARTING) {
+			setBrokerState(node, StateEnum.STARTING);
+		}
+		switch (executionMode) {
+		case EMBEDDED:
+			Properties settings = createBrokerSettings(node);
+			// The broker shares the process of the spawner
+			settings.setProperty("broker.service.embedded", "true");
+			EmbeddedBrokerService embeddedBroker = new EmbeddedBrokerService(node.getIdentifier(),
+					settings);
+			node.setEmbeddedBroker(embeddedBroker);
+			embeddedBroker.start();
+			break;
+		case POOLED:
+			BrokerServiceWorkerPool pool = this.workerPool;
+			if (pool == null) {
+				pool = BrokerServiceWorkerPool.getDefaultPool();
+			}
+			node.setWorkerSpawner(pool.execute(createBrokerSettings(node)));
+			break;
+		default:
+			List<String> jvmArgs = new LinkedList<String>();
+			applyJvmProfile(node, jvmArgs);
+			applyPlacement(node, jvmArgs);
+			if (!jvmArgs.isEmpty()) {
+				// The arguments added by the spawner come last so that they replace these ones
+				jvmArgs.addAll(node.getJvmArgs());
+				node.getSpawner().setJVMArgs(jvmArgs);
+			}
+			node.getSpawner().spawnProcess();
+			break;
+		}
+		node.setLaunched(true);
+		node.setStartupPhase("launch", System.nanoTime() - start);
+		if (!Boolean.getBoolean("notifyIfStarted")) {
+			// We will not be informed that the broker was started
+			node.getStartedFuture().set(node);
+		}
+	}
+
+	/**
+	 * This will add the jvm arguments of the profile of the passed broker.  The profile is
+	 * sized when the broker is launched so that it is divided between every broker of the
+	 * topology.
+	 * 
+	 * @param node
+	 * @param jvmArgs
+	 */
+	private void applyJvmProfile(BrokerServiceNode node, List<String> jvmArgs) {
+		if (!jvmProfiles && !roleJvmProfiles.containsKey(node.getRole())) {
+			return;
+		}
+		BrokerServiceJvmProfile profile = createJvmProfile(node.getRole());
+		jvmArgs.addAll(profile.getJVMArgs());
+		node.setJvmProfile(profile);
+		logger.info("The broker " + node + " uses the jvm profile " + profile);
+	}
+
+	/**
+	 * This will assign its processors to the passed broker.  The broker is pinned to them
+	 * once it connected since the spawner starts its process.  A broker whose processors span
+	 * several NUMA nodes uses the NUMA aware allocation of the jvm.
+	 * 
+	 * @param node
+	 * @param jvmArgs
+	 */
+	private void applyPlacement(BrokerServiceNode node, List<String> jvmArgs) {
+		if (cpuPlacement == null) {
+			return;
+		}
+		List<RoleEnum> roles;
+		synchronized (this) {
+			roles = new ArrayList<RoleEnum>(placementRoles);
+		}
+		int cpus[] = cpuPlacement.place(node.getPlacementIndex(), roles);
+		Set<Integer> numaNodes = cpuPlacement.getNumaNodes(cpus);
+		if (numaNodes.size() > 1) {
+			jvmArgs.add("-XX:+UseNUMA");
+		}
+		node.setCpus(BrokerServicePlacement.toCpuList(cpus));
+		node.setPlacement("cpus=" + node.getCpus() + " nodes=" + numaNodes);
+	}
+
+	/**
+	 * This is executed by the pinning executor since it waits for the taskset process.
+	 * 
+	 * @param node
+	 * @param manager
+	 */
+	private void pinBroker(BrokerServiceNode node, BrokerServiceManager manager) {
+		if (node.getCpus() == null || manager.getProcessId() <= 0) {
+			// A broker running within this process can not be pinned
+			return;
+		}
+		node.setPinned(ProcessSignals.setAffinity(manager.getProcessId(), node.getCpus()));
+		if (node.isPinned()) {
+			logger.info("The broker " + node + " was pinned to " + node.getPlacement());
+		} else {
+			logger.warn("Unable to pin the broker " + node + " to " + node.getPlacement());
+		}
+	}
+
+	/**
+	 * The profile is sized from the share of the host of a broker of the passed role.  It is
+	 * then replaced by the values of the broker.service.jvm system properties, of the
+	 * broker.service.jvm.&lt;role&gt; system properties and of the profile set for the role.
+	 * The memory of the stores placed on a RAM disk is not given to the brokers.
+	 * 
+	 * @param role
+	 * @return the jvm profile of a broker of the passed role
+	 * @see BrokerServiceJvmProfile#size(RoleEnum, Collection, long, int)
+	 */
+	BrokerServiceJvmProfile createJvmProfile(RoleEnum role) {
+		List<RoleEnum> roles = new LinkedList<RoleEnum>();
+		for (BrokerServiceNode node : nodes) {
+			roles.add(node.getRole());
+		}
+		long memory = BrokerServiceJvmProfile.getPhysicalMemory();
+		if (memory > 0) {
+			memory = (long) (memory * jvmMemoryFraction);
+			if (dataDirectory != null) {
+				memory -= dataDirectory.getReservedSpace() / (1024 * 1024);
+			}
+			memory = Math.max(1, memory);
+		}
+		BrokerServiceJvmProfile profile = BrokerServiceJvmProfile.size(role, roles, memory,
+				Runtime.getRuntime().availableProcessors());
+		profile = profile.merge(BrokerServiceJvmProfile.fromSystemProperties("broker.service.jvm"));
+		profile = profile.merge(BrokerServiceJvmProfile.fromSystemProperties("broker.service.jvm." + role.name().toLowerCase()));
+		BrokerServiceJvmProfile declared = roleJvmProfiles.get(role);
+		return declared == null ? profile : profile.merge(declared);
+	}
+
+	/**
+	 * @param node
+	 * @return the settings passed to the BrokerServiceProcess executeBroker method when the
+	 * 		broker is not started using its own spawner
+	 */
+	private Properties createBrokerSettings(BrokerServiceNode node) {
+		Properties settings = new Properties();
+		settings.putAll(node.getSettings());
+		settings.setProperty("broker.service.port.number", String.valueOf(controlPort));
+		settings.setProperty("notifyIfStarted", String.valueOf(Boolean.getBoolean("notifyIfStarted")));
+		settings.setProperty("notifyIfStopped", String.valueOf(Boolean.getBoolean("notifyIfStopped")));
+		return settings;
+	}
+
+	/**
+	 * This method is called once a broker that other brokers depend on has been launched.  It
+	 * returns when the readiness probe reports that the broker is ready to be used by the
+	 * brokers that depend on it.  The probe is polled using an increasing interval that starts
+	 * at 10 milliseconds and never exceeds 500 milliseconds.  A broker that exited and is
+	 * restarted by the supervisor is waited for, the readiness timeout starts once it was
+	 * launched again.
+	 * 
+	 * @param node
+	 * @throws IOException if the broker is not ready within the readiness timeout
+	 * @throws InterruptedException
+	 */
+	protected void waitUntilReady(BrokerServiceNode node) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readinessTimeout);
+		long interval = 10;
+		while (!readinessProbe.isReady(node)) {
+			if (node.isExited()) {
+				if (!isRestarting(node)) {
+					throw new IOException("The broker " + node + " exited before it was ready");
+				}
+				// The broker has not been launched again yet
+				deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readinessTimeout);
+			}
+			long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (left <= 0) {
+				throw new IOException("The broker " + node + " was not ready after "
+						+ readinessTimeout + " milliseconds");
+			}
+			Thread.sleep(Math.min(interval, left));
+			interval = Math.min(interval * 2, 500);
+		}
+	}
+
+	/**
+	 * @param node
+	 * @return true if the passed broker that exited is or will be restarted by the supervisor,
+	 * 		its crash may not have been handled yet
+	 */
+	boolean isRestarting(BrokerServiceNode node) {
+		StateEnum state = node.getState();
+		if (state == StateEnum.RESTARTING) {
+			return true;
+		}
+		BrokerServiceSupervisor supervisor = this.supervisor;
+		return supervisor != null && supervisor.canRestart(node)
+				&& state != StateEnum.STOPPING && state != StateEnum.STOPPED;
+	}
+
+	private static ReadinessProbe createReadinessProbe(String name) {
+		if ("started".equals(name)) {
+			return new StartedNotificationReadinessProbe();
+		} else if ("openwire".equals(name)) {
+			return new OpenWireReadinessProbe();
+		}
+		return new TcpConnectReadinessProbe();
+	}
+
+	/**
+	 * @return the brokers that were created by the createSpawners method
+	 */
+	public Collection<BrokerServiceNode> getBrokerNodes() {
+		return Collections.unmodifiableList(nodes);
+	}
+
+	/**
+	 * @return the status board where the brokers publish their status or null if it was not
+	 * 		enabled
+	 * @see BrokerServiceNode#getStatusSlot()
+	 */
+	public BrokerServiceStatusBoard getStatusBoard() {
+		return statusBoard;
+	}
+
+	/**
+	 * This enables the memory-mapped status board where every broker publishes its state,
+	 * heap and store usage and message counters.  The default is taken from the
+	 * broker.service.status.board system property.
+	 * 
+	 * @param statusBoardFile the file of the status board or null to disable it
+	 * @param slots the number of brokers that can publish their status
+	 */
+	public void setStatusBoard(File statusBoardFile, int slots) {
+		this.statusBoardFile = statusBoardFile;
+		this.statusBoardSlots = slots;
+	}
+
+	/**
+	 * @param role
+	 * @return the persistence profile applied to the brokers of the passed role, it is the
+	 * 		profile set for the role, the one passed using the
+	 * 		broker.service.persistence.profile.&lt;role&gt; system property or the default profile
+	 */
+	public PersistenceProfileEnum getPersistenceProfile(RoleEnum role) {
+		PersistenceProfileEnum profile = rolePersistenceProfiles.get(role);
+		if (profile == null) {
+			String name = System.getProperty("broker.service.persistence.profile." + role.name().toLowerCase());
+			profile = name == null ? persistenceProfile : PersistenceProfileEnum.fromName(name);
+		}
+		return profile;
+	}
+
+	/**
+	 * @param persistenceProfile the persistence profile applied to the brokers whose role has
+	 * 		no profile of its own
+	 */
+	public void setPersistenceProfile(PersistenceProfileEnum persistenceProfile) {
+		this.persistenceProfile = persistenceProfile;
+	}
+
+	/**
+	 * @param role
+	 * @param persistenceProfile the persistence profile applied to the brokers of the passed role
+	 */
+	public void setPersistenceProfile(RoleEnum role, PersistenceProfileEnum persistenceProfile) {
+		this.rolePersistenceProfiles.put(role, persistenceProfile);
+	}
+
+	/**
+	 * @return the directory of the RAM disk containing the stores of the brokers or null if
+	 * 		the brokers use the data directories populated by the spawner
+	 */
+	public BrokerServiceDataDirectory getDataDirectory() {
+		return dataDirectory;
+	}
+
+	/**
+	 * @param ramDataDirectory true if the stores of the brokers are placed on a RAM disk
+	 */
+	public void setRamDataDirectory(boolean ramDataDirectory) {
+		this.ramDataDirectory = ramDataDirectory;
+	}
+
+	/**
+	 * @param roots a comma separated list of the locations searched for a RAM disk
+	 * @see BrokerServiceDataDirectory#DEFAULT_ROOTS
+	 */
+	public void setRamDataDirectoryRoots(String roots) {
+		this.ramDataDirectoryRoots = roots;
+	}
+
+	/**
+	 * This enables the jvm profiles of the FORKED brokers.  A broker whose role has a profile
+	 * set using the setJvmProfile method uses a profile even if they are not enabled.  The
+	 * default is taken from the broker.service.jvm.profiles system property.
+	 * 
+	 * @param jvmProfiles true if the jvm of every broker is sized from the host resources
+	 */
+	public void setJvmProfiles(boolean jvmProfiles) {
+		this.jvmProfiles = jvmProfiles;
+	}
+
+	/**
+	 * @param jvmMemoryFraction the fraction of the physical memory of the host that is
+	 * 		divided between the brokers, the default is taken from the
+	 * 		broker.service.jvm.memory.fraction system property or 0.5
+	 */
+	public void setJvmMemoryFraction(double jvmMemoryFraction) {
+		this.jvmMemoryFraction = jvmMemoryFraction;
+	}
+
+	/**
+	 * @param role
+	 * @param jvmProfile the values of this profile replace the sized values for the brokers
+	 * 		of the passed role
+	 */
+	public void setJvmProfile(RoleEnum role, BrokerServiceJvmProfile jvmProfile) {
+		this.roleJvmProfiles.put(role, jvmProfile);
+	}
+
+	/**
+	 * This enables the placement of the FORKED brokers on their own processors.  The default
+	 * is taken from the broker.service.placement system property.
+	 * 
+	 * @param placement true if every broker is pinned to a share of the processors of the host
+	 * @see BrokerServicePlacement
+	 */
+	public void setPlacement(boolean placement) {
+		this.placement = placement;
+	}
+
+	/**
+	 * @param placementClientCpus the number of processors that are not given to the brokers,
+	 * 		the default is taken from the broker.service.placement.client.cpus system property
+	 */
+	public void setPlacementClientCpus(int placementClientCpus) {
+		this.placementClientCpus = placementClientCpus;
+	}
+
+	/**
+	 * @return the placement of the brokers or null if the placement is not used
+	 */
+	public BrokerServicePlacement getPlacement() {
+		return cpuPlacement;
+	}
+
+	/**
+	 * This enables the restart of the brokers that crashed, i.e. that exited without being
+	 * requested to stop.  The default is taken from the broker.service.restart system property.
+	 * 
+	 * @param restartBrokers true if the brokers that crashed are restarted
+	 */
+	public void setRestartBrokers(boolean restartBrokers) {
+		this.restartBrokers = restartBrokers;
+	}
+
+	/**
+	 * @param restartBudget the number of times a broker is restarted, the default is taken
+	 * 		from the broker.service.restart.budget system property
+	 */
+	public void setRestartBudget(int restartBudget) {
+		this.restartBudget = restartBudget;
+	}
+
+	/**
+	 * The restart of a broker is delayed by the initial backoff which doubles with every
+	 * restart of the broker until it reaches the maximum backoff.  The defaults are taken from
+	 * the broker.service.restart.backoff and broker.service.restart.backoff.max system
+	 * properties.
+	 * 
+	 * @param restartBackoff the delay in milliseconds of the first restart of a broker
+	 * @param restartMaxBackoff the largest delay in milliseconds of the restart of a broker
+	 */
+	public void setRestartBackoff(long restartBackoff, long restartMaxBackoff) {
+		this.restartBackoff = restartBackoff;
+		this.restartMaxBackoff = restartMaxBackoff;
+	}
+
+	/**
+	 * This enables the watchdog that sends heartbeats to the started brokers and degrades
+	 * the brokers that stop answering them.  The default is taken from the
+	 * broker.service.watchdog system property.
+	 * 
+	 * @param watchdog true if the brokers are sent heartbeats
+	 * @see BrokerServiceNode#getDiagnostics()
+	 */
+	public void setWatchdog(boolean watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	/**
+	 * The defaults are taken from the broker.service.heartbeat.interval and
+	 * broker.service.heartbeat.misses system properties.  A broker answers that it is not
+	 * healthy when the message it sends to itself is not delivered within half of the interval.
+	 * 
+	 * @param heartbeatInterval the number of milliseconds between two heartbeats
+	 * @param heartbeatMisses the number of consecutive heartbeats a broker can miss before it
+	 * 		is degraded
+	 */
+	public void setHeartbeat(long heartbeatInterval, int heartbeatMisses) {
+		this.heartbeatInterval = heartbeatInterval;
+		this.heartbeatMisses = heartbeatMisses;
+	}
+
+	/**
+	 * @param watchdogRecycle true if a degraded broker is forcibly stopped once its
+	 * 		diagnostics were captured, it is then restarted when the restart of the brokers is
+	 * 		enabled.  The default is taken from the broker.service.watchdog.recycle system
+	 * 		property.
+	 * @see #setRestartBrokers(boolean)
+	 */
+	public void setWatchdogRecycle(boolean watchdogRecycle) {
+		this.watchdogRecycle = watchdogRecycle;
+	}
+
+	/**
+	 * @param startupThreads the maximum number of brokers that are spawned concurrently
+	 */
+	public void setStartupThreads(int startupThreads) {
+		this.startupThreads = startupThreads;
+	}
+
+	/**
+	 * This sets how the brokers of this topology are executed.  The jvm arguments added by
+	 * the addToJVMArgs method and the jvm profiles are not used by EMBEDDED brokers since
+	 * these are started within the spawning process nor by POOLED brokers since these use
+	 * already started processes.  The default is taken from the
+	 * broker.service.execution.mode system property or FORKED if it was not set.
+	 * 
+	 * @param executionMode the execution mode of the brokers of this topology
+	 */
+	public void setExecutionMode(ExecutionModeEnum executionMode) {
+		this.executionMode = executionMode;
+	}
+
+	/**
+	 * This enables the use of a class data sharing archive by the spawned brokers.  The
+	 * archive is created by the first spawned broker when it does not exist yet.  The default
+	 * is taken from the broker.service.cds system property.
+	 * 
+	 * @param classDataSharing true if the spawned brokers should use a class data sharing archive
+	 * @see ClassDataSharingArchive
+	 */
+	public void setClassDataSharing(boolean classDataSharing) {
+		this.classDataSharing = classDataSharing;
+	}
+
+	/**
+	 * This enables the creation of the brokers directly from the populated properties using
+	 * the BrokerServiceFactory.  The default is taken from the broker.service.programmatic
+	 * system property.
+	 * 
+	 * @param programmaticConfiguration true if the brokers should not parse their generated
+	 * 		activemq configuration file
+	 * @see #useProgrammaticConfiguration(RoleEnum, String)
+	 */
+	public void setProgrammaticConfiguration(boolean programmaticConfiguration) {
+		this.programmaticConfiguration = programmaticConfiguration;
+	}
+
+	/**
+	 * @param workerPool the pool used to start POOLED brokers, the default pool is used when
+	 * 		none was set
+	 */
+	public void setWorkerPool(BrokerServiceWorkerPool workerPool) {
+		this.workerPool = workerPool;
+	}
+
+	/**
+	 * @param readinessProbe the probe used to determine if a broker is ready
+	 */
+	public void setReadinessProbe(ReadinessProbe readinessProbe) {
+		this.readinessProbe = readinessProbe;
+	}
+
+	/**
+	 * @param startTimeout the number of milliseconds the execute method waits for the brokers
+	 * 		to be started, zero or less waits forever.  The default is taken from the
+	 * 		broker.service.start.timeout system property.
+	 */
+	public void setStartTimeout(long startTimeout) {
+		this.startTimeout = startTimeout;
+	}
+
+	/**
+	 * @param stopTimeout the number of milliseconds the brokers of a tier are given to exit
+	 * 		once they were requested to stop before they are forcibly stopped.  The default
+	 * 		is taken from the broker.service.stop.timeout system property.
+	 */
+	public void setStopTimeout(long stopTimeout) {
+		this.stopTimeout = stopTimeout;
+	}
+
+	/**
+	 * @param readinessTimeout the number of milliseconds to wait for a broker to be ready
+	 */
+	public void setReadinessTimeout(long readinessTimeout) {
+		this.readinessTimeout = readinessTimeout;
+	}
+
+	/**
+	 * This method determines if the broker is created directly from its properties using the
+	 * BrokerServiceFactory instead of parsing the generated activemq configuration file.  The
+	 * default implementation returns the value set by the setProgrammaticConfiguration method.
+	 * It should be overridden to return false for the templates that configure more than what
+	 * the BrokerServiceFactory supports.
+	 * 
+	 * @param role The role of the broker
+	 * @param activemqTemplate The template used to generate the activemq configuration file
+	 * @return true if the broker should be created without parsing its configuration file
+	 */
+	protected boolean useProgrammaticConfiguration(RoleEnum role, String activemqTemplate) {
+		return programmaticConfiguration;
+	}
+
 	/**
 	 * This method will be called prior to the spawning the java command to allow you to add jvm arguments to the java command
 	 */
  	protected void addToJVMArgs(List<String> jvmArgs) {}
 
 	/**
+	 * This method will stop the brokers in tiers, a broker is stopped once every broker that
+	 * depends on it was stopped.  The brokers of a tier are stopped concurrently and the
+	 * brokers that did not exit within the stop timeout are forcibly stopped.
+	 * 
 	 * @throws IOException
+	 * @see #setStopTimeout(long)
 	 */
 	public final void stopBrokers() throws IOException {
-		for( IBrokerServiceManager manager : managers) {
-			manager.stopBroker();
+		if (brokerWatchdog != null) {
+			try {
+				brokerWatchdog.close();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while stopping the watchdog");
+			}
+			brokerWatchdog = null;
 		}
+		// The restarts that are in progress do not launch the brokers once they are stopping
+		for (BrokerServiceNode node : nodes) {
+			setBrokerState(node, StateEnum.STOPPING);
+		}
+		if (supervisor != null) {
+			// The brokers that crash from now on are not restarted
+			supervisor.close();
+			supervisor = null;
+		}
+		if (pinningExecutor != null) {
+			pinningExecutor.shutdownNow();
+			pinningExecutor = null;
+		}
+		Collection<String> forced;
+		try {
+			forced = new BrokerServiceShutdown(stopTimeout).stop(managers, nodes);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while stopping the brokers");
+		}
+		for (BrokerServiceNode node : nodes) {
+			setBrokerState(node, StateEnum.STOPPED);
+		}
+		if (!forced.isEmpty()) {
+			logger.warn("The brokers " + forced + " had to be forcibly stopped");
+		}
+		if (dataDirectory != null) {
+			// Every broker has exited, their stores are not used anymore
+			dataDirectory.deleteAsync();
+			dataDirectory = null;
+		}
+		unregisterStartupTimings();
+	}
+
+	/**
+	 * This will send the passed request to every connected broker using a single frame per
+	 * broker.  The requests are sent before any reply is awaited.
+	 * 
+	 * @param command
+	 * @return the future of the reply of every broker keyed by broker identifier
+	 * @throws IOException
+	 */
+	public final Map<String, BrokerServiceFuture<BrokerServiceControlFrame>> broadcast(ControlCommandEnum command) throws IOException {
+		Map<String, BrokerServiceFuture<BrokerServiceControlFrame>> replies = new LinkedHashMap<String, BrokerServiceFuture<BrokerServiceControlFrame>>();
+		for (IBrokerServiceManager manager : managers) {
+			if (manager instanceof BrokerServiceManager && !((BrokerServiceManager) manager).isClosed()) {
+				BrokerServiceManager brokerManager = (BrokerServiceManager) manager;
+				replies.put(brokerManager.getIdentifier(), brokerManager.send(command));
+			}
+		}
+		return replies;
+	}
+
+	/**
+	 * This will kill the passed broker without giving it the chance to stop, it is used to
+	 * simulate the crash of a broker.  A broker that runs within this process can not be
+	 * killed, its control connection is closed instead which causes it to stop.
+	 * 
+	 * @param node
+	 * @return true if the broker was killed
+	 */
+	public final boolean killBroker(BrokerServiceNode node) {
+		return BrokerServiceShutdown.forceStop(node, node.getManager(), node.getIdentifier());
+	}
+
+	/**
+	 * This method will stop the brokers without waiting for them to be stopped.
+	 * 
+	 * @return the future that is completed once every broker was stopped
+	 */
+	public final BrokerServiceFuture<Void> stopBrokersAsync() {
+		final BrokerServiceFuture<Void> future = new BrokerServiceFuture<Void>();
+		new Thread("BrokerServiceSpawner-stop") {
+			{ setDaemon(true); start(); }
+			
+			public void run() {
+				try {
+					stopBrokers();
+					future.set(null);
+				} catch (Throwable e) {
+					logger.debug("Received an exception while stopping the brokers", e);
+					future.fail(e);
+				}
+			}
+		};
+		return future;
 	}
 
 }
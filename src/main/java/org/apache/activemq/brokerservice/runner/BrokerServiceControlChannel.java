@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class accepts the control connections of the spawned brokers and reads the signals
+ * sent by all of them using a single selector thread.  The requests that could not be
+ * written at once because the send buffer of a connection was full are written by this
+ * thread once the connection is writable.
+ *
+ * @author Claudio Corsi
+ *
+ */
+class BrokerServiceControlChannel implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceControlChannel.class);
+
+	private final AbstractBrokerServiceSpawner owner;
+	private final BrokerServiceLifecycleListener listener;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+
+	BrokerServiceControlChannel(AbstractBrokerServiceSpawner owner,
+			BrokerServiceLifecycleListener listener) throws IOException {
+		this.owner = owner;
+		this.listener = listener;
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.socket().bind(new InetSocketAddress(0));
+		this.server.configureBlocking(false);
+		this.server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * @return the port used by the spawned brokers to connect to this channel
+	 */
+	int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * This will start the thread of this channel.
+	 */
+	void start() {
+		Thread thread = new Thread(this, "BrokerServiceControlChannel:" + getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run() {
+		try {
+			do {
+				selector.select(1000);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					if (key.isWritable()) {
+						write(key);
+					}
+					if (key.isValid() && key.isReadable()) {
+						read(key);
+					}
+				}
+				owner.checkExitedBrokers();
+			} while (hasConnections() || owner.stillActive());
+		} catch (IOException e) {
+			logger.info("The control channel received an exception", e);
+		} finally {
+			close();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			// The control frames are small and have to be delivered immediately
+			channel.socket().setTcpNoDelay(true);
+			BrokerServiceManager manager = new BrokerServiceManager(channel, listener);
+			manager.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, manager));
+		}
+	}
+
+	private void write(SelectionKey key) {
+		BrokerServiceManager manager = (BrokerServiceManager) key.attachment();
+		try {
+			manager.writePending();
+		} catch (IOException e) {
+			logger.debug("Received an exception while writing to broker " + manager.getIdentifier(), e);
+			key.cancel();
+			manager.close();
+		}
+	}
+
+	private void read(SelectionKey key) {
+		BrokerServiceManager manager = (BrokerServiceManager) key.attachment();
+		boolean open;
+		try {
+			open = manager.read();
+		} catch (IOException e) {
+			logger.debug("Received an exception while reading from broker " + manager.getIdentifier(), e);
+			open = false;
+		}
+		if (!open) {
+			key.cancel();
+			manager.close();
+		}
+	}
+
+	private boolean hasConnections() {
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid() && key.channel() != server) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void close() {
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof BrokerServiceManager) {
+				((BrokerServiceManager) attachment).close();
+			}
+		}
+		try {
+			server.close();
+			selector.close();
+		} catch (IOException e) {
+			logger.debug("Received an exception while closing the control channel", e);
+		}
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a frame of the control protocol used between the spawning process and
+ * the spawned brokers.  A frame is encoded as the length of the rest of the frame, the
+ * command, the request id and the payload.  The request id is used to match a reply with
+ * its request which allows many requests to be outstanding on the same connection.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public final class BrokerServiceControlFrame {
+
+	/**
+	 * The size of the length, command and request id of a frame.
+	 */
+	static final int HEADER_SIZE = 9;
+
+	/**
+	 * The largest frame that will be accepted.
+	 */
+	static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	private static final byte EMPTY[] = new byte[0];
+
+	private final ControlCommandEnum command;
+	private final int requestId;
+	private final byte payload[];
+
+	public BrokerServiceControlFrame(ControlCommandEnum command, int requestId, byte payload[]) {
+		this.command = command;
+		this.requestId = requestId;
+		this.payload = payload == null ? EMPTY : payload;
+	}
+
+	public BrokerServiceControlFrame(ControlCommandEnum command, int requestId) {
+		this(command, requestId, EMPTY);
+	}
+
+	/**
+	 * @return the command of this frame
+	 */
+	public ControlCommandEnum getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return the request id of this frame, zero when the frame is not a request or a reply
+	 */
+	public int getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * @return the payload of this frame
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return a stream used to read the payload of this frame
+	 */
+	public DataInputStream getPayloadInput() {
+		return new DataInputStream(new ByteArrayInputStream(payload));
+	}
+
+	/**
+	 * @return the number of bytes used to encode this frame
+	 */
+	int getSize() {
+		return HEADER_SIZE + payload.length;
+	}
+
+	/**
+	 * @param buffer the buffer the encoded frame is written to
+	 */
+	void encode(ByteBuffer buffer) {
+		buffer.putInt(getSize() - 4);
+		buffer.put(command.getCode());
+		buffer.putInt(requestId);
+		buffer.put(payload);
+	}
+
+	/**
+	 * This will decode the frame found at the position of the passed buffer.
+	 *
+	 * @param buffer
+	 * @return the decoded frame or null if the buffer does not contain a complete frame
+	 * @throws IOException if the buffer does not contain a valid frame
+	 */
+	static BrokerServiceControlFrame decode(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 4) {
+			return null;
+		}
+		int length = checkLength(buffer.getInt(buffer.position()));
+		if (buffer.remaining() < 4 + length) {
+			return null;
+		}
+		buffer.getInt();
+		ControlCommandEnum command = valueOf(buffer.get());
+		int requestId = buffer.getInt();
+		byte payload[] = new byte[length - HEADER_SIZE + 4];
+		buffer.get(payload);
+		return new BrokerServiceControlFrame(command, requestId, payload);
+	}
+
+	/**
+	 * @param in
+	 * @return the frame read from the passed stream
+	 * @throws IOException
+	 */
+	static BrokerServiceControlFrame read(DataInputStream in) throws IOException {
+		int length = checkLength(in.readInt());
+		ControlCommandEnum command = valueOf(in.readByte());
+		int requestId = in.readInt();
+		byte payload[] = new byte[length - HEADER_SIZE + 4];
+		in.readFully(payload);
+		return new BrokerServiceControlFrame(command, requestId, payload);
+	}
+
+	/**
+	 * @param out the stream this frame is written to, the stream is not flushed
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(getSize() - 4);
+		out.writeByte(command.getCode());
+		out.writeInt(requestId);
+		out.write(payload);
+	}
+
+	private static int checkLength(int length) throws IOException {
+		if (length < HEADER_SIZE - 4 || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid control frame length " + length);
+		}
+		return length;
+	}
+
+	private static ControlCommandEnum valueOf(byte code) throws IOException {
+		try {
+			return ControlCommandEnum.valueOf(code);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @param identifier the identifier of the broker
+	 * @param processId the process id of the broker or -1 if it is not known
+	 * @return the HELLO frame sent by a broker once it connected
+	 */
+	static BrokerServiceControlFrame createHello(String identifier, long processId) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeUTF(identifier);
+			dos.writeLong(processId);
+		} catch (IOException e) {
+			// This will not happen since the frame is written to memory
+			throw new IllegalStateException(e);
+		}
+		return new BrokerServiceControlFrame(ControlCommandEnum.HELLO, 0, baos.toByteArray());
+	}
+
+	/**
+	 * @param requestId
+	 * @param message
+	 * @return the ERROR frame replying to the passed request
+	 */
+	static BrokerServiceControlFrame createError(int requestId, String message) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			new DataOutputStream(baos).writeUTF(message == null ? "" : message);
+		} catch (IOException e) {
+			// This will not happen since the frame is written to memory
+			throw new IllegalStateException(e);
+		}
+		return new BrokerServiceControlFrame(ControlCommandEnum.ERROR, requestId, baos.toByteArray());
+	}
+
+	/**
+	 * @param requestId
+	 * @param statistics
+	 * @return the REPLY frame containing the passed statistics
+	 */
+	static BrokerServiceControlFrame createStatistics(int requestId, Map<String, Long> statistics) {
+		return new BrokerServiceControlFrame(ControlCommandEnum.REPLY, requestId, encodeValues(statistics));
+	}
+
+	/**
+	 * @param requestId
+	 * @param text
+	 * @return the REPLY frame containing the passed text
+	 */
+	static BrokerServiceControlFrame createText(int requestId, String text) {
+		try {
+			return new BrokerServiceControlFrame(ControlCommandEnum.REPLY, requestId, text.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			// This will not happen since every virtual machine supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param timings The duration in nanoseconds of the startup phases of the broker
+	 * @return the STARTED frame sent by a broker once it was started
+	 */
+	static BrokerServiceControlFrame createStarted(Map<String, Long> timings) {
+		return new BrokerServiceControlFrame(ControlCommandEnum.STARTED, 0, encodeValues(timings));
+	}
+
+	private static byte[] encodeValues(Map<String, Long> values) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(values.size());
+			for (Map.Entry<String, Long> entry : values.entrySet()) {
+				dos.writeUTF(entry.getKey());
+				dos.writeLong(entry.getValue());
+			}
+		} catch (IOException e) {
+			// This will not happen since the frame is written to memory
+			throw new IllegalStateException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	private Map<String, Long> decodeValues() throws IOException {
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		if (payload.length == 0) {
+			return values;
+		}
+		DataInputStream dis = getPayloadInput();
+		for (int count = dis.readInt(); count > 0; count--) {
+			String name = dis.readUTF();
+			values.put(name, dis.readLong());
+		}
+		return values;
+	}
+
+	/**
+	 * @return the statistics contained in the payload of a reply to a STATS request
+	 * @throws IOException
+	 */
+	public Map<String, Long> getStatistics() throws IOException {
+		return decodeValues();
+	}
+
+	/**
+	 * @return the duration in nanoseconds of the startup phases contained in the payload of
+	 * 		a STARTED frame
+	 * @throws IOException
+	 */
+	public Map<String, Long> getStartupTimings() throws IOException {
+		return decodeValues();
+	}
+
+	/**
+	 * @return the text contained in the payload of a reply to a DUMP request
+	 * @throws IOException
+	 */
+	public String getText() throws IOException {
+		return new String(payload, "UTF-8");
+	}
+
+	/**
+	 * @return the message contained in the payload of an ERROR frame
+	 * @throws IOException
+	 */
+	public String getErrorMessage() throws IOException {
+		return getPayloadInput().readUTF();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return command + "[" + requestId + "," + payload.length + "]";
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class places the stores of the spawned brokers on a RAM disk, i.e. /dev/shm, so that
+ * the journal syncs of the brokers do not wait for a physical disk.  Every spawner uses its
+ * own directory of the RAM disk and every broker a directory named after its identifier
+ * within it.<p/>
+ *
+ * The space required by a broker is reserved before it is spawned.  A broker whose store
+ * would not fit in the space left on the RAM disk keeps the data directory populated by its
+ * spawner, the same happens to every broker when no RAM disk exists.  The directories are
+ * deleted by a background thread once the brokers were stopped.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceDataDirectory {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceDataDirectory.class);
+
+	/**
+	 * The locations that are searched for a RAM disk when the broker.service.ram.data.dir.roots
+	 * system property is not set.
+	 */
+	public static final String DEFAULT_ROOTS = "/dev/shm,/run/shm";
+
+	private final File directory;
+	private long reserved;
+	private final List<File> allocated = new ArrayList<File>();
+
+	/**
+	 * @param directory the directory that will contain the directory of every broker
+	 */
+	public BrokerServiceDataDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param roots a comma separated list of the locations of a RAM disk
+	 * @return a new directory within the first of the passed locations that exists and is
+	 * 		writable or null if none of them can be used
+	 */
+	public static BrokerServiceDataDirectory create(String roots) {
+		for (String root : roots.split(",")) {
+			File location = new File(root.trim());
+			if (!location.isDirectory() || !location.canWrite()) {
+				continue;
+			}
+			try {
+				File directory = File.createTempFile("broker-service-", "", location);
+				if (directory.delete() && directory.mkdir()) {
+					logger.info("The brokers store their data within " + directory);
+					return new BrokerServiceDataDirectory(directory);
+				}
+			} catch (IOException e) {
+				logger.debug("Unable to create a data directory within " + location, e);
+			}
+		}
+		logger.warn("No RAM disk was found within " + roots
+				+ ", the brokers use the data directories set by their spawner");
+		return null;
+	}
+
+	/**
+	 * This will reserve the passed space for a broker.  It does not create the directory of
+	 * the broker, the store of the broker creates it once it is started.
+	 *
+	 * @param identifier the identifier of the broker
+	 * @param requiredSpace the space used by the store of the broker in bytes
+	 * @return the directory of the broker or null if the space left on the RAM disk is not
+	 * 		large enough
+	 */
+	public synchronized File allocate(String identifier, long requiredSpace) {
+		long available = directory.getUsableSpace() - reserved;
+		if (available < requiredSpace) {
+			logger.warn("Only " + available + " of the " + requiredSpace + " bytes required by broker "
+					+ identifier + " are left within " + directory + ", it uses the data directory set by its spawner");
+			return null;
+		}
+		reserved += requiredSpace;
+		File brokerDirectory = new File(directory, identifier);
+		allocated.add(brokerDirectory);
+		return brokerDirectory;
+	}
+
+	/**
+	 * @return the directory that contains the directory of every broker
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the space reserved by the brokers in bytes
+	 */
+	public synchronized long getReservedSpace() {
+		return reserved;
+	}
+
+	/**
+	 * This will release the space reserved by a broker that was retired and delete its
+	 * directory using a background thread.
+	 *
+	 * @param brokerDirectory the directory returned by the allocate method
+	 * @param requiredSpace the space reserved by the broker
+	 */
+	public void releaseAsync(final File brokerDirectory, long requiredSpace) {
+		synchronized (this) {
+			if (!allocated.remove(brokerDirectory)) {
+				return;
+			}
+			reserved -= requiredSpace;
+		}
+		new Thread("BrokerServiceDataDirectory-cleanup") {
+			{ start(); }
+
+			public void run() {
+				delete(brokerDirectory);
+			}
+		};
+	}
+
+	/**
+	 * This will delete the directories of the brokers and this directory using a background
+	 * thread.  The thread is not a daemon thread so that the directories are deleted even if
+	 * the spawning process exits right after the brokers were stopped.
+	 */
+	public void deleteAsync() {
+		final Collection<File> directories;
+		synchronized (this) {
+			directories = new ArrayList<File>(allocated);
+			allocated.clear();
+			reserved = 0;
+		}
+		new Thread("BrokerServiceDataDirectory-cleanup") {
+			{ start(); }
+
+			public void run() {
+				for (File brokerDirectory : directories) {
+					delete(brokerDirectory);
+				}
+				// Only remove the directory once every broker directory was removed
+				String children[] = directory.list();
+				if (children != null && children.length == 0) {
+					directory.delete();
+				}
+			}
+		};
+	}
+
+	/**
+	 * The store requires the journal file that is being written and the one that is created
+	 * when it is full.  The broker.service.ram.data.dir.reserve system property overrides
+	 * this value.
+	 *
+	 * @param properties the properties of a broker
+	 * @return the space in bytes used by the store of the broker
+	 */
+	public static long getRequiredSpace(Properties properties) {
+		Long reserve = Long.getLong("broker.service.ram.data.dir.reserve");
+		if (reserve != null) {
+			return reserve;
+		}
+		return 2L * Long.parseLong(properties.getProperty(PersistenceProfileEnum.JOURNAL_MAX_FILE_LENGTH,
+				String.valueOf(32 * 1024 * 1024)));
+	}
+
+	private static void delete(File file) {
+		File children[] = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			logger.debug("Unable to delete " + file);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.broker.region.policy.VMPendingSubscriberMessageStoragePolicy;
+import org.apache.activemq.network.NetworkConnector;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+
+/**
+ * This factory creates a broker directly from the properties populated by the spawners
+ * without generating and parsing a spring configuration file.  The created broker is
+ * equivalent to the one described by the role template, i.e. master-activemq.xml for a
+ * master broker:
+ *
+ * <ul>
+ * <li>The broker name is the role prefix followed by the &lt;prefix&gt;.suffix.name property</li>
+ * <li>The KahaDB directory is ${kahadb.dir}/${kahadb.prefix}/kahadb and the store is tuned
+ * using the kahadb.* properties of the persistence profile</li>
+ * <li>The broker does not use a store when the broker.persistent property is false</li>
+ * <li>The openwire transport uses the &lt;role&gt;.hostname and &lt;role&gt;.port.number
+ * properties, i.e. master.port.number, or the hostname and port.number properties if these
+ * are not set</li>
+ * <li>A networked broker connects to network.hostname:network.port.number</li>
+ * <li>A spoke connects to hub.hostname:hub.port.number</li>
+ * <li>A slave uses master.hostname:master.port.number as its master</li>
+ * </ul>
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceFactory {
+
+	/**
+	 * @param role The role of the broker
+	 * @param properties The properties populated by the spawner of the broker
+	 * @return the configured broker that has not been started
+	 * @throws Exception
+	 */
+	public BrokerService createBroker(RoleEnum role, Properties properties) throws Exception {
+		String prefix = getPrefix(role);
+		BrokerService broker = new BrokerService();
+		broker.setBrokerName(prefix + "-" + getProperty(properties, prefix + ".suffix.name"));
+
+		configurePersistence(broker, properties);
+
+		// The network.* properties of a networked broker refer to its main broker
+		String transportPrefix = role.name().toLowerCase();
+		String hostname = properties.getProperty(transportPrefix + ".hostname",
+				properties.getProperty("hostname"));
+		String port = properties.getProperty(transportPrefix + ".port.number",
+				properties.getProperty("port.number"));
+		broker.addConnector("tcp://" + hostname + ":" + port).setName("openwire");
+
+		switch (role) {
+		case NETWORKED:
+			addNetworkConnector(broker, getProperty(properties, "network.hostname"),
+					getProperty(properties, "network.port.number"));
+			break;
+		case HUB:
+			configureUsage(broker);
+			break;
+		case SPOKE:
+			broker.setUseJmx(false);
+			configureUsage(broker);
+			addNetworkConnector(broker, getProperty(properties, "hub.hostname"),
+					getProperty(properties, "hub.port.number"));
+			break;
+		case MASTER:
+			broker.setWaitForSlave(true);
+			broker.setShutdownOnSlaveFailure(true);
+			break;
+		case SLAVE:
+			broker.setUseJmx(false);
+			broker.setDeleteAllMessagesOnStartup(true);
+			broker.setMasterConnectorURI("tcp://" + getProperty(properties, "master.hostname")
+					+ ":" + getProperty(properties, "master.port.number"));
+			break;
+		default:
+			break;
+		}
+
+		if (broker.isUseJmx()) {
+			broker.getManagementContext().setConnectorPath("/" + broker.getBrokerName());
+		}
+		return broker;
+	}
+
+	/**
+	 * This configures the KahaDB store using the properties set by the persistence profile
+	 * of the broker, the KahaDB defaults are used when a property is not set.  A broker that
+	 * is not persistent does not use a store.
+	 *
+	 * @param broker
+	 * @param properties
+	 * @throws IOException
+	 */
+	private static void configurePersistence(BrokerService broker, Properties properties) throws IOException {
+		if (!Boolean.parseBoolean(properties.getProperty(PersistenceProfileEnum.PERSISTENT, "true"))) {
+			broker.setPersistent(false);
+			return;
+		}
+		KahaDBPersistenceAdapter kahaDB = new KahaDBPersistenceAdapter();
+		kahaDB.setDirectory(new File(getProperty(properties, "kahadb.dir") + File.separator
+				+ getProperty(properties, "kahadb.prefix") + File.separator + "kahadb"));
+		String value = properties.getProperty(PersistenceProfileEnum.ENABLE_JOURNAL_DISK_SYNCS);
+		if (value != null) {
+			kahaDB.setEnableJournalDiskSyncs(Boolean.parseBoolean(value));
+		}
+		value = properties.getProperty(PersistenceProfileEnum.JOURNAL_MAX_FILE_LENGTH);
+		if (value != null) {
+			kahaDB.setJournalMaxFileLength(Integer.parseInt(value));
+		}
+		value = properties.getProperty(PersistenceProfileEnum.INDEX_CACHE_SIZE);
+		if (value != null) {
+			kahaDB.setIndexCacheSize(Integer.parseInt(value));
+		}
+		value = properties.getProperty(PersistenceProfileEnum.INDEX_WRITE_BATCH_SIZE);
+		if (value != null) {
+			kahaDB.setIndexWriteBatchSize(Integer.parseInt(value));
+		}
+		value = properties.getProperty(PersistenceProfileEnum.CONCURRENT_STORE_AND_DISPATCH_QUEUES);
+		if (value != null) {
+			kahaDB.setConcurrentStoreAndDispatchQueues(Boolean.parseBoolean(value));
+		}
+		value = properties.getProperty(PersistenceProfileEnum.CONCURRENT_STORE_AND_DISPATCH_TOPICS);
+		if (value != null) {
+			kahaDB.setConcurrentStoreAndDispatchTopics(Boolean.parseBoolean(value));
+		}
+		broker.setPersistenceAdapter(kahaDB);
+	}
+
+	private static void addNetworkConnector(BrokerService broker, String hostname, String port)
+			throws Exception {
+		NetworkConnector connector = broker.addNetworkConnector("static:(tcp://" + hostname + ":" + port + ")");
+		connector.setDuplex(true);
+	}
+
+	/**
+	 * This configures the destination policies and usage limits used by the hub and spoke
+	 * templates.
+	 *
+	 * @param broker
+	 */
+	private static void configureUsage(BrokerService broker) {
+		PolicyEntry topics = new PolicyEntry();
+		topics.setTopic(">");
+		topics.setProducerFlowControl(true);
+		topics.setMemoryLimit(1024 * 1024);
+		topics.setPendingSubscriberPolicy(new VMPendingSubscriberMessageStoragePolicy());
+		PolicyEntry queues = new PolicyEntry();
+		queues.setQueue(">");
+		queues.setProducerFlowControl(true);
+		queues.setMemoryLimit(1024 * 1024);
+		List<PolicyEntry> entries = new LinkedList<PolicyEntry>();
+		entries.add(topics);
+		entries.add(queues);
+		PolicyMap policyMap = new PolicyMap();
+		policyMap.setPolicyEntries(entries);
+		broker.setDestinationPolicy(policyMap);
+
+		broker.getSystemUsage().getMemoryUsage().setLimit(20L * 1024 * 1024);
+		broker.getSystemUsage().getStoreUsage().setLimit(1024L * 1024 * 1024);
+		broker.getSystemUsage().getTempUsage().setLimit(100L * 1024 * 1024);
+	}
+
+	private static String getProperty(Properties properties, String name) {
+		String value = properties.getProperty(name);
+		if (value == null) {
+			throw new IllegalArgumentException("The " + name + " property was not set");
+		}
+		return value;
+	}
+
+	/**
+	 * @param role
+	 * @return the prefix used by the properties and the broker name of the passed role
+	 */
+	static String getPrefix(RoleEnum role) {
+		switch (role) {
+		case BROKER:
+			return "activemq";
+		case NETWORKED:
+			return "network";
+		default:
+			return role.name().toLowerCase();
+		}
+	}
+}
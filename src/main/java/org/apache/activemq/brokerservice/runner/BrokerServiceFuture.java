@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This future is completed by the spawner once the broker operation it represents has
+ * completed or failed.  Only the first completion is used, the following ones are ignored.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceFuture<T> implements Future<T> {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final List<Runnable> listeners = new LinkedList<Runnable>();
+	private T value;
+	private Throwable failure;
+	private boolean cancelled;
+
+	/**
+	 * @param value
+	 * @return true if this call completed the future
+	 */
+	public boolean set(T value) {
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+			this.value = value;
+			done.countDown();
+		}
+		fireCompleted();
+		return true;
+	}
+
+	/**
+	 * @param failure
+	 * @return true if this call completed the future
+	 */
+	public boolean fail(Throwable failure) {
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+			this.failure = failure;
+			done.countDown();
+		}
+		fireCompleted();
+		return true;
+	}
+
+	/**
+	 * The passed listener is called once this future is completed, it is called immediately
+	 * when this future is already completed.
+	 *
+	 * @param listener
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (!isDone()) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	/**
+	 * @return the failure of this future or null if it is not completed or it succeeded
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+			cancelled = true;
+			done.countDown();
+		}
+		fireCompleted();
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get()
+	 */
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getValue();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+	 */
+	public T get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("The operation did not complete within " + unit.toMillis(timeout) + " milliseconds");
+		}
+		return getValue();
+	}
+
+	private synchronized T getValue() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return value;
+	}
+
+	private void fireCompleted() {
+		List<Runnable> completed;
+		synchronized (this) {
+			completed = new LinkedList<Runnable>(listeners);
+			listeners.clear();
+		}
+		for (Runnable listener : completed) {
+			listener.run();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.advisory.AdvisorySupport;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.broker.region.DestinationStatistics;
+import org.apache.activemq.broker.region.RegionBroker;
+import org.apache.activemq.command.ActiveMQTopic;
+
+/**
+ * This class checks that a broker still delivers messages when the spawning process sends it
+ * a HEARTBEAT request.  A message is sent to a topic of the broker using the vm transport and
+ * received back, this way a broker whose transports or dispatch are stalled does not answer
+ * its heartbeats even though it is started.  The message is not persistent and the topic is
+ * an advisory topic named after the broker, the broker does not publish advisories for it,
+ * the network connectors do not forward it and its messages are not counted by the message
+ * statistics of the broker.<p/>
+ *
+ * The connection is only opened by the first heartbeat.  The round trip is executed by its
+ * own thread and the heartbeat is answered once it completed or once the timeout expired.  A
+ * round trip that did not complete is waited for by the following heartbeats instead of
+ * starting a new one.
+ *
+ * @author Claudio Corsi
+ *
+ */
+final class BrokerServiceHeartbeat {
+
+	private static final String TOPIC_PREFIX = AdvisorySupport.ADVISORY_TOPIC_PREFIX + "BrokerService.Heartbeat.";
+
+	private final BrokerService broker;
+	private final long timeout;
+	// The timeouts are executed while a stalled round trip blocks the other thread
+	private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BrokerServiceHeartbeat");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private BrokerServiceFuture<Object> roundTrip;
+	private Connection connection;
+	private MessageProducer producer;
+	private MessageConsumer consumer;
+	private Session session;
+	private int sequence;
+
+	/**
+	 * @param broker
+	 * @param timeout the number of milliseconds the broker is given to deliver the message
+	 */
+	BrokerServiceHeartbeat(BrokerService broker, long timeout) {
+		this.broker = broker;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * This will start a round trip unless the previous one has not completed yet.
+	 *
+	 * @return the future completed with the reason why the broker is not healthy or with null
+	 * 		if it delivered the message within the timeout
+	 */
+	BrokerServiceFuture<String> check() {
+		final BrokerServiceFuture<String> result = new BrokerServiceFuture<String>();
+		final BrokerServiceFuture<Object> current;
+		try {
+			synchronized (this) {
+				if (roundTrip == null || roundTrip.isDone()) {
+					roundTrip = submit();
+				}
+				current = roundTrip;
+			}
+			executor.schedule(new Runnable() {
+				public void run() {
+					result.set("The broker did not deliver a message within " + timeout + " milliseconds");
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The broker is being stopped
+			result.set("The heartbeat of the broker was closed");
+			return result;
+		}
+		current.addListener(new Runnable() {
+			public void run() {
+				Throwable failure = current.getFailure();
+				result.set(failure == null ? null : "The broker was unable to deliver a message: " + failure);
+			}
+		});
+		return result;
+	}
+
+	private BrokerServiceFuture<Object> submit() {
+		final BrokerServiceFuture<Object> future = new BrokerServiceFuture<Object>();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					sendAndReceive();
+					future.set(null);
+				} catch (Exception e) {
+					future.fail(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	private void sendAndReceive() throws JMSException, IOException {
+		try {
+			if (connection == null) {
+				open();
+			}
+			int expected = ++sequence;
+			Message message = session.createMessage();
+			message.setIntProperty("sequence", expected);
+			producer.send(message);
+			while (true) {
+				// The messages of the round trips that timed out are skipped, the following
+				// heartbeats report the broker as stalled until the message is delivered
+				Message received = consumer.receive();
+				if (received == null) {
+					throw new IOException("The heartbeat was closed before the message " + expected + " was received");
+				}
+				if (received.getIntProperty("sequence") == expected) {
+					return;
+				}
+			}
+		} catch (JMSException e) {
+			closeConnection();
+			throw e;
+		}
+	}
+
+	private void open() throws JMSException {
+		ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://" + broker.getBrokerName()
+				+ "?create=false");
+		factory.setWatchTopicAdvisories(false);
+		connection = factory.createConnection();
+		connection.start();
+		session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		ActiveMQTopic topic = getTopic(broker);
+		consumer = session.createConsumer(topic);
+		producer = session.createProducer(topic);
+		producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+	}
+
+	private void closeConnection() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (JMSException e) {
+				// Nothing to do, the connection is being discarded anyways
+			}
+			connection = null;
+		}
+	}
+
+	/**
+	 * This will stop the round trips, it is called before the broker is stopped.
+	 */
+	void close() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeConnection();
+	}
+
+	private static ActiveMQTopic getTopic(BrokerService broker) {
+		return new ActiveMQTopic(TOPIC_PREFIX + broker.getBrokerName());
+	}
+
+	/**
+	 * @param broker
+	 * @return the enqueues, dequeues, inflight and messages counters of the passed broker
+	 * 		without the messages of the heartbeats
+	 */
+	static Map<String, Long> getMessageCounters(RegionBroker broker) {
+		DestinationStatistics statistics = broker.getDestinationStatistics();
+		long enqueues = statistics.getEnqueues().getCount();
+		long dequeues = statistics.getDequeues().getCount();
+		long inflight = statistics.getInflight().getCount();
+		long messages = statistics.getMessages().getCount();
+		Destination heartbeat = broker.getDestinationMap().get(getTopic(broker.getBrokerService()));
+		if (heartbeat != null) {
+			DestinationStatistics excluded = heartbeat.getDestinationStatistics();
+			enqueues -= excluded.getEnqueues().getCount();
+			dequeues -= excluded.getDequeues().getCount();
+			inflight -= excluded.getInflight().getCount();
+			messages -= excluded.getMessages().getCount();
+		}
+		Map<String, Long> counters = new LinkedHashMap<String, Long>();
+		counters.put("enqueues", enqueues);
+		counters.put("dequeues", dequeues);
+		counters.put("inflight", inflight);
+		counters.put("messages", messages);
+		return counters;
+	}
+}
@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * This describes the resources of the virtual machine of a forked broker.  A profile is
+ * either declared, using the setters or the broker.service.jvm.* system properties, or sized
+ * from the resources of the host.  The values that are not set use the defaults of the
+ * virtual machine.<p/>
+ *
+ * A sized profile divides a fraction of the physical memory and the processors of the host
+ * between the brokers of the topology using the weight of their role.  The hubs, main,
+ * master and slave brokers carry the messages of several brokers and have twice the weight of
+ * the other brokers.  The share of memory of a broker is split between its heap, half of the
+ * share, its direct memory, a quarter of the share, and the native memory used by the
+ * virtual machine itself.  A broker that is given less than two processors uses the serial
+ * collector.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceJvmProfile {
+
+	private static final long MIN_HEAP_SIZE = 64;
+	// The largest heap that still uses compressed object pointers
+	private static final long MAX_HEAP_SIZE = 31 * 1024;
+	private static final long MIN_DIRECT_MEMORY_SIZE = 32;
+
+	private long heapSize;
+	private long maxDirectMemorySize;
+	private long threadStackSize;
+	private String garbageCollector;
+	private int gcThreads;
+	private final List<String> arguments = new LinkedList<String>();
+
+	/**
+	 * @return the jvm arguments applying this profile
+	 */
+	public List<String> getJVMArgs() {
+		List<String> jvmArgs = new LinkedList<String>();
+		if (heapSize > 0) {
+			// The heap is not resized while the broker is measured
+			jvmArgs.add("-Xms" + heapSize + "m");
+			jvmArgs.add("-Xmx" + heapSize + "m");
+		}
+		if (maxDirectMemorySize > 0) {
+			jvmArgs.add("-XX:MaxDirectMemorySize=" + maxDirectMemorySize + "m");
+		}
+		if (threadStackSize > 0) {
+			jvmArgs.add("-Xss" + threadStackSize + "k");
+		}
+		if (garbageCollector != null) {
+			jvmArgs.add("-XX:+Use" + garbageCollector);
+		}
+		if (gcThreads > 0) {
+			jvmArgs.add("-XX:ParallelGCThreads=" + gcThreads);
+			if ("G1GC".equals(garbageCollector)) {
+				jvmArgs.add("-XX:ConcGCThreads=" + Math.max(1, (gcThreads + 3) / 4));
+			}
+		}
+		jvmArgs.addAll(arguments);
+		return jvmArgs;
+	}
+
+	/**
+	 * @param declared
+	 * @return a copy of this profile where the values set by the passed profile replace the
+	 * 		values of this profile
+	 */
+	public BrokerServiceJvmProfile merge(BrokerServiceJvmProfile declared) {
+		BrokerServiceJvmProfile profile = new BrokerServiceJvmProfile();
+		profile.heapSize = declared.heapSize > 0 ? declared.heapSize : heapSize;
+		profile.maxDirectMemorySize = declared.maxDirectMemorySize > 0 ? declared.maxDirectMemorySize : maxDirectMemorySize;
+		profile.threadStackSize = declared.threadStackSize > 0 ? declared.threadStackSize : threadStackSize;
+		profile.garbageCollector = declared.garbageCollector != null ? declared.garbageCollector : garbageCollector;
+		profile.gcThreads = declared.gcThreads > 0 ? declared.gcThreads : gcThreads;
+		profile.arguments.addAll(arguments);
+		profile.arguments.addAll(declared.arguments);
+		return profile;
+	}
+
+	/**
+	 * This reads the profile declared using the &lt;prefix&gt;.heap, &lt;prefix&gt;.direct.memory
+	 * (both in megabytes), &lt;prefix&gt;.stack.size (in kilobytes), &lt;prefix&gt;.gc, i.e.
+	 * G1GC, &lt;prefix&gt;.gc.threads and &lt;prefix&gt;.args (space separated) system
+	 * properties.
+	 *
+	 * @param prefix i.e. broker.service.jvm or broker.service.jvm.hub
+	 * @return the declared profile, its values are not set when no property was set
+	 */
+	public static BrokerServiceJvmProfile fromSystemProperties(String prefix) {
+		BrokerServiceJvmProfile profile = new BrokerServiceJvmProfile();
+		profile.heapSize = Long.getLong(prefix + ".heap", 0);
+		profile.maxDirectMemorySize = Long.getLong(prefix + ".direct.memory", 0);
+		profile.threadStackSize = Long.getLong(prefix + ".stack.size", 0);
+		profile.garbageCollector = System.getProperty(prefix + ".gc");
+		profile.gcThreads = Integer.getInteger(prefix + ".gc.threads", 0);
+		String args = System.getProperty(prefix + ".args");
+		if (args != null) {
+			for (String arg : args.trim().split("\\s+")) {
+				if (arg.length() > 0) {
+					profile.arguments.add(arg);
+				}
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * @param role
+	 * @param roles the roles of every broker of the topology
+	 * @param memory the memory in megabytes shared by the brokers of the topology or a
+	 * 		negative value if it is not known
+	 * @param processors the processors shared by the brokers of the topology
+	 * @return the profile of a broker of the passed role
+	 */
+	public static BrokerServiceJvmProfile size(RoleEnum role, Collection<RoleEnum> roles,
+			long memory, int processors) {
+		int totalWeight = 0;
+		for (RoleEnum other : roles) {
+			totalWeight += getWeight(other);
+		}
+		int weight = getWeight(role);
+		totalWeight = Math.max(totalWeight, weight);
+		BrokerServiceJvmProfile profile = new BrokerServiceJvmProfile();
+		if (memory > 0) {
+			long share = memory * weight / totalWeight;
+			profile.heapSize = Math.min(MAX_HEAP_SIZE, Math.max(MIN_HEAP_SIZE, share / 2));
+			profile.maxDirectMemorySize = Math.max(MIN_DIRECT_MEMORY_SIZE, share / 4);
+		}
+		int cpus = Math.max(1, processors * weight / totalWeight);
+		profile.gcThreads = cpus;
+		profile.garbageCollector = cpus < 2 ? "SerialGC" : "G1GC";
+		return profile;
+	}
+
+	/**
+	 * @param role
+	 * @return the share of the host resources given to a broker of the passed role relative to
+	 * 		the other brokers
+	 */
+	static int getWeight(RoleEnum role) {
+		switch (role) {
+		case HUB:
+		case MAIN:
+		case MASTER:
+		case SLAVE:
+			// A slave has to take over the load of its master
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * @return the physical memory of the host in megabytes or -1 if it is not known
+	 */
+	public static long getPhysicalMemory() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		for (Class<?> type : os.getClass().getInterfaces()) {
+			try {
+				Method method = type.getMethod("getTotalPhysicalMemorySize");
+				method.setAccessible(true);
+				return ((Number) method.invoke(os)).longValue() / (1024 * 1024);
+			} catch (Exception e) {
+				// Try the next interface
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the heap size in megabytes
+	 */
+	public long getHeapSize() {
+		return heapSize;
+	}
+
+	/**
+	 * @param heapSize the heap size in megabytes
+	 */
+	public void setHeapSize(long heapSize) {
+		this.heapSize = heapSize;
+	}
+
+	/**
+	 * @return the maximum direct memory size in megabytes
+	 */
+	public long getMaxDirectMemorySize() {
+		return maxDirectMemorySize;
+	}
+
+	/**
+	 * @param maxDirectMemorySize the maximum direct memory size in megabytes
+	 */
+	public void setMaxDirectMemorySize(long maxDirectMemorySize) {
+		this.maxDirectMemorySize = maxDirectMemorySize;
+	}
+
+	/**
+	 * @return the thread stack size in kilobytes
+	 */
+	public long getThreadStackSize() {
+		return threadStackSize;
+	}
+
+	/**
+	 * @param threadStackSize the thread stack size in kilobytes
+	 */
+	public void setThreadStackSize(long threadStackSize) {
+		this.threadStackSize = threadStackSize;
+	}
+
+	/**
+	 * @return the garbage collector, i.e. G1GC for -XX:+UseG1GC
+	 */
+	public String getGarbageCollector() {
+		return garbageCollector;
+	}
+
+	/**
+	 * @param garbageCollector the garbage collector, i.e. G1GC for -XX:+UseG1GC
+	 */
+	public void setGarbageCollector(String garbageCollector) {
+		this.garbageCollector = garbageCollector;
+	}
+
+	/**
+	 * @return the number of parallel garbage collection threads
+	 */
+	public int getGcThreads() {
+		return gcThreads;
+	}
+
+	/**
+	 * @param gcThreads the number of parallel garbage collection threads
+	 */
+	public void setGcThreads(int gcThreads) {
+		this.gcThreads = gcThreads;
+	}
+
+	/**
+	 * @param argument a jvm argument added after the arguments of this profile
+	 */
+	public void addArgument(String argument) {
+		arguments.add(argument);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getJVMArgs().toString();
+	}
+}
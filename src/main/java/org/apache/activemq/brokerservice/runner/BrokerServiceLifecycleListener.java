@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+/**
+ * This listener is informed of the signals sent by the spawned brokers on their control
+ * connection.  The methods are called by the thread of the control channel and should not
+ * block.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public interface BrokerServiceLifecycleListener {
+
+	/**
+	 * The broker has connected to the control channel and identified itself.
+	 *
+	 * @param manager
+	 */
+	void brokerConnected(BrokerServiceManager manager);
+
+	/**
+	 * The broker has informed us that it was started.
+	 *
+	 * @param manager
+	 */
+	void brokerStarted(BrokerServiceManager manager);
+
+	/**
+	 * The broker has informed us that it was stopped.
+	 *
+	 * @param manager
+	 */
+	void brokerStopped(BrokerServiceManager manager);
+
+	/**
+	 * The control connection of the broker was closed.
+	 *
+	 * @param manager
+	 */
+	void brokerDisconnected(BrokerServiceManager manager);
+
+}
@@ -16,44 +16,366 @@
  */
 package org.apache.activemq.brokerservice.runner;
 
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * This class manages the control connection of a spawned broker.  The frames sent by the
+ * broker are read by the thread of the BrokerServiceControlChannel which updates the state
+ * of this manager and completes the outstanding requests, the methods of this class only
+ * write frames and wait for the state to change.  Any number of requests can be
+ * outstanding at the same time, the replies are matched with their request using the
+ * request id of the frames.  The requests are written without blocking, the part of a
+ * request that does not fit in the send buffer of the connection is queued and written by
+ * the thread of the control channel once the connection is writable.
+ *
  * @author Claudio Corsi
  *
  */
 public class BrokerServiceManager implements IBrokerServiceManager {
-	
-	private Socket socket;
-	
-	public BrokerServiceManager(Socket socket) {
-		this.socket = socket;
+
+	private final SocketChannel channel;
+	private final BrokerServiceLifecycleListener listener;
+	private final AtomicInteger requestIds = new AtomicInteger();
+	private final Map<Integer, BrokerServiceFuture<BrokerServiceControlFrame>> requests = new ConcurrentHashMap<Integer, BrokerServiceFuture<BrokerServiceControlFrame>>();
+	private final Queue<ByteBuffer> pending = new LinkedList<ByteBuffer>();
+	private volatile SelectionKey key;
+	private ByteBuffer buffer = ByteBuffer.allocate(1024);
+	private volatile String identifier;
+	private volatile long processId = -1;
+	private volatile long roundTripNanos = -1;
+	private volatile Map<String, Long> startupTimings = Collections.emptyMap();
+	private StateEnum state = StateEnum.INITIALIZED;
+	private boolean closed;
+
+	BrokerServiceManager(SocketChannel channel, BrokerServiceLifecycleListener listener) {
+		this.channel = channel;
+		this.listener = listener;
 	}
 
-	public boolean waitUntilStarted() throws IOException {
-		if (socket != null) {
-			socket.getInputStream().read();
-			return true;
+	public synchronized boolean waitUntilStarted() throws IOException {
+		while (state == StateEnum.INITIALIZED && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for the broker to be started");
+			}
 		}
-		return false;
+		return state != StateEnum.INITIALIZED;
 	}
-	
+
 	public void stopBroker() throws IOException {
-		if (this.socket != null) {
-			this.socket.getOutputStream().write(1);
-			if (Boolean.getBoolean("notifyIfStopped")) {
-				// TODO:  I do not like this callback mechanism.  Find a better way....
-				this.waitUntilStopped();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+		}
+		send(ControlCommandEnum.STOP);
+		if (Boolean.getBoolean("notifyIfStopped")) {
+			this.waitUntilStopped();
+		}
+		close();
+	}
+
+	private synchronized void waitUntilStopped() throws IOException {
+		while (state != StateEnum.STOPPED && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for the broker to be stopped");
 			}
-			this.socket.close();
-			this.socket = null;
 		}
 	}
 
-	private void waitUntilStopped() throws IOException {
-		if (this.socket != null) {
-			this.socket.getInputStream().read();
+	/**
+	 * This will send the passed request to the broker without waiting for its reply.
+	 *
+	 * @param command
+	 * @return the future completed with the REPLY frame of the broker, the future fails when
+	 * 		the broker replied with an ERROR frame or the connection was closed
+	 * @throws IOException
+	 */
+	public BrokerServiceFuture<BrokerServiceControlFrame> send(ControlCommandEnum command) throws IOException {
+		return sendBatch(command).get(0);
+	}
+
+	/**
+	 * This will send the passed requests to the broker using a single write.
+	 *
+	 * @param commands
+	 * @return the futures of the requests in the order of the passed commands
+	 * @throws IOException
+	 */
+	public List<BrokerServiceFuture<BrokerServiceControlFrame>> sendBatch(ControlCommandEnum... commands) throws IOException {
+		BrokerServiceControlFrame frames[] = new BrokerServiceControlFrame[commands.length];
+		List<BrokerServiceFuture<BrokerServiceControlFrame>> futures = new ArrayList<BrokerServiceFuture<BrokerServiceControlFrame>>(commands.length);
+		for (int idx = 0 ; idx < commands.length ; idx++) {
+			int requestId = nextRequestId();
+			byte payload[] = null;
+			if (commands[idx] == ControlCommandEnum.PING) {
+				payload = ByteBuffer.allocate(8).putLong(System.nanoTime()).array();
+			}
+			frames[idx] = new BrokerServiceControlFrame(commands[idx], requestId, payload);
+			BrokerServiceFuture<BrokerServiceControlFrame> future = new BrokerServiceFuture<BrokerServiceControlFrame>();
+			requests.put(requestId, future);
+			futures.add(future);
+		}
+		if (isClosed()) {
+			failRequests();
+		} else {
+			write(frames);
 		}
+		return futures;
+	}
+
+	/**
+	 * This will measure the time taken by the broker to reply to a PING request.
+	 *
+	 * @return the future completed with the round trip time in nanoseconds
+	 * @throws IOException
+	 */
+	public BrokerServiceFuture<Long> ping() throws IOException {
+		final BrokerServiceFuture<BrokerServiceControlFrame> reply = send(ControlCommandEnum.PING);
+		final BrokerServiceFuture<Long> future = new BrokerServiceFuture<Long>();
+		reply.addListener(new Runnable() {
+			public void run() {
+				try {
+					// The broker echoes the time at which the request was sent
+					long sent = reply.get().getPayloadInput().readLong();
+					roundTripNanos = System.nanoTime() - sent;
+					future.set(roundTripNanos);
+				} catch (Exception e) {
+					future.fail(e instanceof ExecutionException ? e.getCause() : e);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return the identifier of the spawned broker that is managed by this instance or null
+	 * 		if the broker has not identified itself yet
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * @return the process id of the spawned broker or -1 if it is not known or the broker is
+	 * 		running within the spawning process
+	 */
+	public long getProcessId() {
+		return processId;
+	}
+
+	/**
+	 * @return the round trip time in nanoseconds of the last PING request or -1 if no PING
+	 * 		request was answered yet
+	 */
+	public long getRoundTripNanos() {
+		return roundTripNanos;
+	}
+
+	/**
+	 * @return the duration in nanoseconds of the startup phases measured by the spawned
+	 * 		broker, it is empty until the broker was started
+	 */
+	public Map<String, Long> getStartupTimings() {
+		return startupTimings;
+	}
+
+	/**
+	 * @return true if the spawned broker has informed us that it was started
+	 */
+	public synchronized boolean isStarted() {
+		return state == StateEnum.STARTED;
+	}
+
+	/**
+	 * @return the current state of the spawned broker
+	 */
+	public synchronized StateEnum getState() {
+		return state;
+	}
+
+	/**
+	 * @return true if the control connection was closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * This is called by the control channel thread when data is available.
+	 *
+	 * @return false if the connection was closed by the spawned broker
+	 * @throws IOException
+	 */
+	boolean read() throws IOException {
+		if (channel.read(buffer) == -1) {
+			return false;
+		}
+		buffer.flip();
+		try {
+			BrokerServiceControlFrame frame;
+			while ((frame = BrokerServiceControlFrame.decode(buffer)) != null) {
+				received(frame);
+			}
+			if (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) + 4 > buffer.capacity()) {
+				// The next frame does not fit within the buffer
+				ByteBuffer larger = ByteBuffer.allocate(buffer.getInt(buffer.position()) + 4);
+				larger.put(buffer);
+				larger.flip();
+				buffer = larger;
+			}
+		} finally {
+			buffer.compact();
+		}
+		return true;
+	}
+
+	private void received(BrokerServiceControlFrame frame) throws IOException {
+		switch (frame.getCommand()) {
+		case HELLO:
+			DataInputStream dis = frame.getPayloadInput();
+			identifier = dis.readUTF();
+			processId = dis.readLong();
+			listener.brokerConnected(this);
+			break;
+		case STARTED:
+			startupTimings = frame.getStartupTimings();
+			setState(StateEnum.STARTED);
+			listener.brokerStarted(this);
+			break;
+		case STOPPED:
+			setState(StateEnum.STOPPED);
+			listener.brokerStopped(this);
+			break;
+		case REPLY:
+			BrokerServiceFuture<BrokerServiceControlFrame> future = requests.remove(frame.getRequestId());
+			if (future != null) {
+				future.set(frame);
+			}
+			break;
+		case ERROR:
+			future = requests.remove(frame.getRequestId());
+			if (future != null) {
+				future.fail(new IOException("The broker " + identifier + " replied: " + frame.getErrorMessage()));
+			}
+			break;
+		default:
+			throw new IOException("Unexpected control frame " + frame + " received from broker " + identifier);
+		}
+	}
+
+	/**
+	 * This will close the control connection, the spawned broker will stop once its control
+	 * connection is closed.
+	 */
+	void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing to do, the connection is being closed anyways
+		}
+		synchronized (pending) {
+			pending.clear();
+		}
+		failRequests();
+		listener.brokerDisconnected(this);
+	}
+
+	private void failRequests() {
+		for (Integer requestId : requests.keySet()) {
+			BrokerServiceFuture<BrokerServiceControlFrame> future = requests.remove(requestId);
+			if (future != null) {
+				future.fail(new IOException("The control connection of broker " + identifier + " was closed"));
+			}
+		}
+	}
+
+	private int nextRequestId() {
+		int requestId;
+		do {
+			// Zero is used by the frames that are not requests
+			requestId = requestIds.incrementAndGet();
+		} while (requestId == 0);
+		return requestId;
+	}
+
+	private synchronized void setState(StateEnum state) {
+		this.state = state;
+		notifyAll();
+	}
+
+	private void write(BrokerServiceControlFrame... frames) throws IOException {
+		int size = 0;
+		for (BrokerServiceControlFrame frame : frames) {
+			size += frame.getSize();
+		}
+		ByteBuffer data = ByteBuffer.allocate(size);
+		for (BrokerServiceControlFrame frame : frames) {
+			frame.encode(data);
+		}
+		data.flip();
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				channel.write(data);
+				if (!data.hasRemaining()) {
+					return;
+				}
+			}
+			// The frames are written in order once the connection is writable
+			pending.add(data);
+			SelectionKey key = this.key;
+			if (key != null && key.isValid()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				key.selector().wakeup();
+			}
+		}
+	}
+
+	/**
+	 * This is called by the control channel thread when the connection is writable.
+	 *
+	 * @throws IOException
+	 */
+	void writePending() throws IOException {
+		synchronized (pending) {
+			while (!pending.isEmpty()) {
+				ByteBuffer data = pending.peek();
+				channel.write(data);
+				if (data.hasRemaining()) {
+					// The send buffer is full again
+					return;
+				}
+				pending.poll();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	void setSelectionKey(SelectionKey key) {
+		this.key = key;
 	}
 }
@@ -0,0 +1,403 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.valhalla.tools.process.Spawner;
+
+/**
+ * This class describes a single broker of a topology.  It keeps the spawner that will
+ * start the broker together with the brokers that have to be ready before it can be
+ * started.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceNode {
+
+	private final String identifier;
+	private final RoleEnum role;
+	private final Properties properties;
+	private final Properties settings;
+	private final Spawner spawner;
+	private final List<BrokerServiceNode> dependencies = new CopyOnWriteArrayList<BrokerServiceNode>();
+	private final List<BrokerServiceNode> dependents = new CopyOnWriteArrayList<BrokerServiceNode>();
+	private volatile boolean launched;
+	private volatile BrokerServiceManager manager;
+	private volatile EmbeddedBrokerService embeddedBroker;
+	private volatile Spawner workerSpawner;
+	private final BrokerServiceFuture<BrokerServiceNode> startedFuture = new BrokerServiceFuture<BrokerServiceNode>();
+	private final Map<String, Long> startupPhases = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+	private volatile long launchNanos;
+	private int statusSlot = -1;
+	private int placementIndex = -1;
+	private File dataDirectory;
+	private List<String> jvmArgs = Collections.emptyList();
+	private volatile BrokerServiceJvmProfile jvmProfile;
+	private volatile String cpus;
+	private volatile String placement;
+	private volatile boolean pinned;
+	private volatile StateEnum state = StateEnum.INITIALIZED;
+	private volatile int restartCount;
+	private volatile int missedHeartbeats;
+	private volatile String diagnostics;
+
+	BrokerServiceNode(String identifier, RoleEnum role, Properties properties,
+			Properties settings, Spawner spawner, BrokerServiceNode... dependencies) {
+		this.identifier = identifier;
+		this.role = role;
+		this.properties = properties;
+		this.settings = settings;
+		this.spawner = spawner;
+		for (BrokerServiceNode dependency : dependencies) {
+			// A dependency can be null when its configuration could not be generated
+			if (dependency != null) {
+				this.dependencies.add(dependency);
+				dependency.dependents.add(this);
+			}
+		}
+	}
+
+	/**
+	 * @return the identifier used by the spawner of this broker
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * @return the role of this broker within its topology
+	 */
+	public RoleEnum getRole() {
+		return role;
+	}
+
+	/**
+	 * @return the properties used to generate the configuration of this broker
+	 */
+	public Properties getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @return the uri of the activemq configuration used to start this broker
+	 */
+	public String getBrokerConfigFile() {
+		return settings.getProperty("broker.config.file");
+	}
+
+	/**
+	 * @return the settings passed to the BrokerServiceProcess that will execute this broker
+	 */
+	public Properties getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return the spawner that is used to start this broker
+	 */
+	public Spawner getSpawner() {
+		return spawner;
+	}
+
+	/**
+	 * @return the brokers that have to be ready before this broker is started
+	 */
+	public Collection<BrokerServiceNode> getDependencies() {
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	/**
+	 * @return the brokers that are waiting for this broker to be ready, the returned view can
+	 * 		be iterated while brokers are added to or retired from the running topology
+	 */
+	public Collection<BrokerServiceNode> getDependents() {
+		return Collections.unmodifiableList(dependents);
+	}
+
+	/**
+	 * This removes this broker from the brokers it depends on once it was retired.
+	 */
+	void detach() {
+		for (BrokerServiceNode dependency : dependencies) {
+			dependency.dependents.remove(this);
+		}
+	}
+
+	/**
+	 * @return true if the spawner of this broker has been called
+	 */
+	public boolean isLaunched() {
+		return launched;
+	}
+
+	void setLaunched(boolean launched) {
+		this.launched = launched;
+	}
+
+	/**
+	 * @return true if this broker was launched and its process or embedded thread has exited
+	 */
+	public boolean isExited() {
+		if (!launched) {
+			return false;
+		}
+		if (embeddedBroker != null) {
+			return !embeddedBroker.isAlive();
+		}
+		return getProcessSpawner().isProcessExited();
+	}
+
+	EmbeddedBrokerService getEmbeddedBroker() {
+		return embeddedBroker;
+	}
+
+	void setEmbeddedBroker(EmbeddedBrokerService embeddedBroker) {
+		this.embeddedBroker = embeddedBroker;
+	}
+
+	void setWorkerSpawner(Spawner workerSpawner) {
+		this.workerSpawner = workerSpawner;
+	}
+
+	/**
+	 * @return the spawner of the pooled worker executing this broker or the spawner of this
+	 * 		broker if it is not pooled
+	 */
+	Spawner getProcessSpawner() {
+		if (workerSpawner != null) {
+			return workerSpawner;
+		}
+		return spawner;
+	}
+
+	/**
+	 * @return the manager of the control socket of this broker or null if the broker has not
+	 * 		connected to the spawning process yet
+	 */
+	public BrokerServiceManager getManager() {
+		return manager;
+	}
+
+	void setManager(BrokerServiceManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * This future is completed once the broker was started.  When the notifyIfStarted
+	 * system property is not set it is completed as soon as the broker was launched.  It
+	 * fails if the broker could not be launched, was not ready in time or exited before it
+	 * was started.
+	 * 
+	 * @return the future that is completed once this broker was started
+	 */
+	public BrokerServiceFuture<BrokerServiceNode> getStartedFuture() {
+		return startedFuture;
+	}
+
+	/**
+	 * The phases measured by the spawning process are the configuration generation, the
+	 * launch of the broker and the time from the launch until the broker connected and was
+	 * started.  The phases measured by the broker itself are prefixed by broker.
+	 * 
+	 * @return the duration in nanoseconds of the startup phases of this broker
+	 */
+	public Map<String, Long> getStartupPhases() {
+		synchronized (startupPhases) {
+			return new LinkedHashMap<String, Long>(startupPhases);
+		}
+	}
+
+	void setStartupPhase(String phase, long nanos) {
+		startupPhases.put(phase, nanos);
+	}
+
+	void setStartupPhases(Map<String, Long> phases) {
+		startupPhases.putAll(phases);
+	}
+
+	/**
+	 * @return the nanoTime at which this broker was launched
+	 */
+	long getLaunchNanos() {
+		return launchNanos;
+	}
+
+	void setLaunchNanos(long launchNanos) {
+		this.launchNanos = launchNanos;
+	}
+
+	/**
+	 * @return the slot of the status board where this broker publishes its status or -1 if
+	 * 		the spawner does not use a status board
+	 * @see AbstractBrokerServiceSpawner#getStatusBoard()
+	 */
+	public int getStatusSlot() {
+		return statusSlot;
+	}
+
+	void setStatusSlot(int statusSlot) {
+		this.statusSlot = statusSlot;
+	}
+
+	/**
+	 * @return the position of this broker used to compute its processors, it is reused by
+	 * 		the brokers added once this broker was retired
+	 * @see BrokerServicePlacement#place(int, List)
+	 */
+	public int getPlacementIndex() {
+		return placementIndex;
+	}
+
+	void setPlacementIndex(int placementIndex) {
+		this.placementIndex = placementIndex;
+	}
+
+	/**
+	 * @return the directory of the RAM disk containing the store of this broker or null if
+	 * 		the broker uses the data directory populated by its spawner
+	 * @see AbstractBrokerServiceSpawner#setRamDataDirectory(boolean)
+	 */
+	public File getDataDirectory() {
+		return dataDirectory;
+	}
+
+	void setDataDirectory(File dataDirectory) {
+		this.dataDirectory = dataDirectory;
+	}
+
+	/**
+	 * @return the jvm arguments added by the spawner of this broker
+	 */
+	List<String> getJvmArgs() {
+		return jvmArgs;
+	}
+
+	void setJvmArgs(List<String> jvmArgs) {
+		this.jvmArgs = jvmArgs;
+	}
+
+	/**
+	 * @return the jvm profile applied to this broker or null if it did not use a profile
+	 */
+	public BrokerServiceJvmProfile getJvmProfile() {
+		return jvmProfile;
+	}
+
+	void setJvmProfile(BrokerServiceJvmProfile jvmProfile) {
+		this.jvmProfile = jvmProfile;
+	}
+
+	/**
+	 * @return the processors and NUMA nodes assigned to this broker, i.e. cpus=0-3 nodes=[0],
+	 * 		or null if the placement is not used
+	 * @see AbstractBrokerServiceSpawner#setPlacement(boolean)
+	 */
+	public String getPlacement() {
+		return placement;
+	}
+
+	void setPlacement(String placement) {
+		this.placement = placement;
+	}
+
+	/**
+	 * @return the list of processors assigned to this broker, i.e. 0-3, or null if the
+	 * 		placement is not used
+	 */
+	public String getCpus() {
+		return cpus;
+	}
+
+	void setCpus(String cpus) {
+		this.cpus = cpus;
+	}
+
+	/**
+	 * @return true if the process of this broker was pinned to the processors of its placement
+	 */
+	public boolean isPinned() {
+		return pinned;
+	}
+
+	void setPinned(boolean pinned) {
+		this.pinned = pinned;
+	}
+
+	/**
+	 * @return the lifecycle state of this broker as seen by its spawner
+	 * @see AbstractBrokerServiceSpawner#addStateListener(BrokerServiceStateListener)
+	 */
+	public StateEnum getState() {
+		return state;
+	}
+
+	void setState(StateEnum state) {
+		this.state = state;
+	}
+
+	/**
+	 * @return the number of times this broker was restarted after it crashed
+	 */
+	public int getRestartCount() {
+		return restartCount;
+	}
+
+	void setRestartCount(int restartCount) {
+		this.restartCount = restartCount;
+	}
+
+	/**
+	 * @return the number of consecutive heartbeats this broker did not answer
+	 * @see AbstractBrokerServiceSpawner#setWatchdog(boolean)
+	 */
+	public int getMissedHeartbeats() {
+		return missedHeartbeats;
+	}
+
+	void setMissedHeartbeats(int missedHeartbeats) {
+		this.missedHeartbeats = missedHeartbeats;
+	}
+
+	/**
+	 * @return the thread dump and garbage collection summary captured the last time this
+	 * 		broker was degraded or null if it never was
+	 */
+	public String getDiagnostics() {
+		return diagnostics;
+	}
+
+	void setDiagnostics(String diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return identifier + "[" + role + "]";
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class partitions the processors of the host between the spawned brokers.  The
+ * processors are read from /sys/devices/system/node, every NUMA node with its own list of
+ * processors, or from /sys/devices/system/cpu/online when the host does not expose its NUMA
+ * nodes.<p/>
+ *
+ * The processors are ordered by NUMA node and every broker is given a contiguous range of
+ * them whose length depends on the weight of its role, the brokers therefore only span
+ * several NUMA nodes when they are given more processors than a node contains.  The
+ * processors reserved for the clients, i.e. the load drivers, are taken from the end of
+ * the last NUMA node and are never given to a broker.  When there are more brokers than
+ * processors the brokers share the processors.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServicePlacement {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServicePlacement.class);
+
+	private final List<int[]> numaNodes;
+	private final int brokerCpus[];
+	private final int clientCpus[];
+
+	/**
+	 * @param numaNodes the processors of every NUMA node of the host
+	 * @param clientCpus the number of processors reserved for the clients
+	 */
+	public BrokerServicePlacement(List<int[]> numaNodes, int clientCpus) {
+		this.numaNodes = numaNodes;
+		List<Integer> cpus = new ArrayList<Integer>();
+		for (int node[] : numaNodes) {
+			for (int cpu : node) {
+				cpus.add(cpu);
+			}
+		}
+		// Always leave a processor to the brokers
+		clientCpus = Math.max(0, Math.min(clientCpus, cpus.size() - 1));
+		this.brokerCpus = toArray(cpus.subList(0, cpus.size() - clientCpus));
+		this.clientCpus = toArray(cpus.subList(cpus.size() - clientCpus, cpus.size()));
+	}
+
+	/**
+	 * @param clientCpus the number of processors reserved for the clients
+	 * @return the placement using the processors of this host
+	 */
+	public static BrokerServicePlacement fromHost(int clientCpus) {
+		BrokerServicePlacement placement = new BrokerServicePlacement(
+				readNumaNodes(new File("/sys/devices/system")), clientCpus);
+		logger.info("The brokers use the processors " + toCpuList(placement.brokerCpus)
+				+ " and the clients the processors " + toCpuList(placement.clientCpus));
+		return placement;
+	}
+
+	/**
+	 * @param system the /sys/devices/system directory
+	 * @return the processors of every NUMA node or a single node containing the processors
+	 * 		available to this process when they can not be read
+	 */
+	static List<int[]> readNumaNodes(File system) {
+		List<int[]> nodes = new ArrayList<int[]>();
+		File children[] = new File(system, "node").listFiles();
+		if (children != null) {
+			Arrays.sort(children, new Comparator<File>() {
+				public int compare(File first, File second) {
+					return getNodeNumber(first) - getNodeNumber(second);
+				}
+			});
+			for (File child : children) {
+				if (getNodeNumber(child) >= 0) {
+					int cpus[] = parseCpuList(read(new File(child, "cpulist")));
+					if (cpus.length > 0) {
+						nodes.add(cpus);
+					}
+				}
+			}
+		}
+		if (nodes.isEmpty()) {
+			int cpus[] = parseCpuList(read(new File(system, "cpu/online")));
+			if (cpus.length == 0) {
+				cpus = new int[Runtime.getRuntime().availableProcessors()];
+				for (int idx = 0 ; idx < cpus.length ; idx++) {
+					cpus[idx] = idx;
+				}
+			}
+			nodes.add(cpus);
+		}
+		return nodes;
+	}
+
+	private static int getNodeNumber(File file) {
+		String name = file.getName();
+		if (name.startsWith("node")) {
+			try {
+				return Integer.parseInt(name.substring(4));
+			} catch (NumberFormatException e) {
+				// This is not the directory of a NUMA node
+			}
+		}
+		return -1;
+	}
+
+	private static String read(File file) {
+		try {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				StringBuilder content = new StringBuilder();
+				byte buffer[] = new byte[256];
+				int read;
+				while ((read = fis.read(buffer)) != -1) {
+					content.append(new String(buffer, 0, read, "US-ASCII"));
+				}
+				return content.toString();
+			} finally {
+				fis.close();
+			}
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * This computes the processors of a broker using the position of the broker within its
+	 * topology.  The same processors are returned as long as the topology does not change.
+	 *
+	 * @param index the position of the broker within the passed roles
+	 * @param roles the roles of every broker of the topology
+	 * @return the processors of the broker
+	 */
+	public int[] place(int index, List<RoleEnum> roles) {
+		int total = 0, before = 0;
+		for (int idx = 0 ; idx < roles.size() ; idx++) {
+			int weight = BrokerServiceJvmProfile.getWeight(roles.get(idx));
+			if (idx < index) {
+				before += weight;
+			}
+			total += weight;
+		}
+		int start = (int) ((long) before * brokerCpus.length / total);
+		int end = (int) ((long) (before + BrokerServiceJvmProfile.getWeight(roles.get(index))) * brokerCpus.length / total);
+		if (end <= start) {
+			// There are more brokers than processors
+			return new int[] { brokerCpus[start % brokerCpus.length] };
+		}
+		return Arrays.copyOfRange(brokerCpus, start, end);
+	}
+
+	/**
+	 * @param cpus
+	 * @return the position, in the order of their number, of the NUMA nodes containing the
+	 * 		passed processors
+	 */
+	public Set<Integer> getNumaNodes(int cpus[]) {
+		Set<Integer> nodes = new LinkedHashSet<Integer>();
+		for (int cpu : cpus) {
+			for (int idx = 0 ; idx < numaNodes.size() ; idx++) {
+				if (Arrays.binarySearch(numaNodes.get(idx), cpu) >= 0) {
+					nodes.add(idx);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the processors that are given to the brokers
+	 */
+	public int[] getBrokerCpus() {
+		return brokerCpus.clone();
+	}
+
+	/**
+	 * @return the processors reserved for the clients
+	 */
+	public int[] getClientCpus() {
+		return clientCpus.clone();
+	}
+
+	/**
+	 * This will pin every thread of this process to the passed processors, it is used to pin
+	 * the clients.  The processes forked by this process afterwards start with the same
+	 * processors until they are pinned themselves.
+	 *
+	 * @param cpus a list of processors, i.e. 0-3,8
+	 * @return true if this process was pinned
+	 */
+	public static boolean pinCurrentProcess(String cpus) {
+		return ProcessSignals.setAffinity(BrokerServiceProcess.getProcessId(), cpus);
+	}
+
+	/**
+	 * @param cpuList a list of processors like 0-3,8,10-11
+	 * @return the sorted processors of the list
+	 */
+	public static int[] parseCpuList(String cpuList) {
+		Set<Integer> cpus = new TreeSet<Integer>();
+		for (String range : cpuList.trim().split(",")) {
+			range = range.trim();
+			if (range.length() == 0) {
+				continue;
+			}
+			int idx = range.indexOf('-');
+			if (idx > 0) {
+				int last = Integer.parseInt(range.substring(idx + 1));
+				for (int cpu = Integer.parseInt(range.substring(0, idx)) ; cpu <= last ; cpu++) {
+					cpus.add(cpu);
+				}
+			} else {
+				cpus.add(Integer.parseInt(range));
+			}
+		}
+		return toArray(cpus);
+	}
+
+	/**
+	 * @param cpus sorted processors
+	 * @return the list of processors used by taskset, i.e. 0-3,8
+	 */
+	public static String toCpuList(int cpus[]) {
+		StringBuilder list = new StringBuilder();
+		for (int idx = 0 ; idx < cpus.length ; idx++) {
+			int last = idx;
+			while (last + 1 < cpus.length && cpus[last + 1] == cpus[last] + 1) {
+				last++;
+			}
+			if (list.length() > 0) {
+				list.append(',');
+			}
+			list.append(cpus[idx]);
+			if (last > idx) {
+				list.append('-').append(cpus[last]);
+			}
+			idx = last;
+		}
+		return list.toString();
+	}
+
+	private static int[] toArray(Iterable<Integer> values) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (Integer value : values) {
+			list.add(value);
+		}
+		int array[] = new int[list.size()];
+		for (int idx = 0 ; idx < array.length ; idx++) {
+			array[idx] = list.get(idx);
+		}
+		return array;
+	}
+}
@@ -16,11 +16,30 @@
  */
 package org.apache.activemq.brokerservice.runner;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.net.Socket;
 import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.activemq.broker.BrokerFactory;
 import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.RegionBroker;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
 
 /**
  * @author Claudio Corsi
@@ -28,47 +47,354 @@ import org.apache.activemq.broker.BrokerService;
  */
 public class BrokerServiceProcess {
 
+	private DataOutputStream out;
+	
+	private final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+	
+	private BrokerServiceStatusReporter reporter;
+	
+	private BrokerServiceHeartbeat heartbeat;
+	
+	private long heartbeatTimeout = -1;
+
 	public void execute() throws Exception {
+		// The time spent forking the virtual machine and loading the classes of this process
+		timings.put("broker.jvm", TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime()));
+		executeBroker(System.getProperties());
+	}
+
+	/**
+	 * This method will start the broker using the passed settings instead of the system
+	 * properties.  It is used to start a broker within the spawning process.
+	 * 
+	 * @param settings
+	 * @throws Exception
+	 */
+	public void executeBroker(Properties settings) throws Exception {
 		// This is the main method that will be used to start the embedded brokers.
 		// It will expect to find the broker.config.file property to be set.
-		String brokerConfigFile = System.getProperty("broker.config.file");
+		String brokerConfigFile = settings.getProperty("broker.config.file");
 		if (brokerConfigFile == null) {
 			// Raise an exception since no activemq configuration file was passed.
 			throw new RuntimeException("No activemq configuration file was passed");
 		}
 		
-		String port = System.getProperty("broker.service.port.number");
+		String port = settings.getProperty("broker.service.port.number");
 		if (port == null) {
 			// Raise an exception since no port was passed by the spawned process to be
 			// able to stop the started broker.
 			throw new RuntimeException("No port number was passed by the spawning process");
 		}
 		
+		long phase = System.nanoTime();
 		Socket socket = new Socket("localhost", Integer.parseInt(port));
+		try {
+			executeBroker(settings, socket, phase);
+		} finally {
+			// The spawning process is informed that this broker exited even if it runs within
+			// the spawning process
+			socket.close();
+		}
+	}
+
+	/**
+	 * @param settings
+	 * @param socket the control connection to the spawning process
+	 * @param phase the time at which the connection to the spawning process was started
+	 * @throws Exception
+	 */
+	private void executeBroker(Properties settings, Socket socket, long phase) throws Exception {
+		String brokerConfigFile = settings.getProperty("broker.config.file");
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		// Identify ourself to the spawning process
+		long processId = -1;
+		if (!Boolean.parseBoolean(settings.getProperty("broker.service.embedded"))) {
+			processId = getProcessId();
+		}
+		send(BrokerServiceControlFrame.createHello(settings.getProperty("broker.service.identifier", ""), processId), true);
+		startStatusReporter(settings, processId);
+		if (reporter != null) {
+			reporter.setBrokerState(StateEnum.STARTING);
+		}
+		phase = endPhase("broker.connect", phase);
 		
-		System.out.println("STARTING BROKER USING " + brokerConfigFile + " configuration file.");
-		// Load and start the broker using the passed activemq configuration file.
-		BrokerService broker = BrokerFactory.createBroker(new URI(brokerConfigFile), true);
+		BrokerService broker;
+		String propertiesFile = settings.getProperty("broker.properties.file");
+		if (propertiesFile != null) {
+			System.out.println("STARTING BROKER USING " + propertiesFile + " properties file.");
+			// Create and start the broker directly from the properties used by the configuration file.
+			Properties properties = new Properties();
+			FileInputStream fis = new FileInputStream(propertiesFile);
+			try {
+				properties.load(fis);
+			} finally {
+				fis.close();
+			}
+			broker = new BrokerServiceFactory().createBroker(
+					RoleEnum.valueOf(settings.getProperty("broker.role")), properties);
+			phase = endPhase("broker.create", phase);
+			// This includes the recovery of the store and the binding of the transports
+			broker.start();
+			phase = endPhase("broker.start", phase);
+		} else {
+			System.out.println("STARTING BROKER USING " + brokerConfigFile + " configuration file.");
+			// Load the broker using the passed activemq configuration file.  A broker whose
+			// configuration does not set start="false" is started while it is loaded
+			broker = BrokerFactory.createBroker(new URI(brokerConfigFile), false);
+			phase = endPhase("broker.create", phase);
+			if (!broker.isStarted()) {
+				if (!broker.isPersistent()) {
+					// The store declared by the template is not used by a broker that is not persistent
+					broker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+				}
+				broker.start();
+				phase = endPhase("broker.start", phase);
+			}
+		}
 		broker.waitUntilStarted();
+		endPhase("broker.waitUntilStarted", phase);
 		
-		if (Boolean.getBoolean("notifyIfStarted")) {
-			// FIXME: Provide a better mechanism to inform parent process that we've started.
-			socket.getOutputStream().write(2);
+		// The spawning process only waits for this frame when notifyIfStarted is set but
+		// it always records the startup timings
+		send(BrokerServiceControlFrame.createStarted(timings), true);
+		if (reporter != null) {
+			reporter.setBroker(broker);
+			reporter.setBrokerState(StateEnum.STARTED);
+		}
+		// The timeout is only passed when the spawning process sends heartbeats
+		String timeout = settings.getProperty("broker.service.heartbeat.timeout");
+		if (timeout != null) {
+			heartbeatTimeout = Long.parseLong(timeout);
 		}
 		
 		try {
 			System.out.println("WAITING FOR CALLING PROCESS TO STOP THE BROKER");
-			// FIXME: Provide a better mechanism to receive stop command from parent process.
-			System.out.println("RECEIVED THE FOLLOWING INTEGER VALUE: " + socket.getInputStream().read());
+			processRequests(in, broker);
 		} finally {
 			System.out.println("STOPPING BROKER");
+			if (reporter != null) {
+				reporter.setBrokerState(StateEnum.STOPPING);
+			}
+			if (heartbeat != null) {
+				heartbeat.close();
+			}
 			// Wait until the broker needs to be stopped.
 			broker.stop();
-			if (Boolean.getBoolean("notifyIfStopped")) {
+			if (Boolean.parseBoolean(settings.getProperty("notifyIfStopped"))) {
 				broker.waitUntilStopped();
-				// FIXME: Provide a better mechanism to inform parent process that we've stopped
-				socket.getOutputStream().write(3);
+				send(new BrokerServiceControlFrame(ControlCommandEnum.STOPPED, 0), true);
 			}
+			if (reporter != null) {
+				reporter.close();
+				reporter.setBrokerState(StateEnum.STOPPED);
+			}
+		}
+	}
+
+	/**
+	 * This will start publishing the status of the broker when the spawning process has
+	 * assigned a slot of its status board to this broker.
+	 * 
+	 * @param settings
+	 * @param processId
+	 * @throws IOException
+	 */
+	private void startStatusReporter(Properties settings, long processId) throws IOException {
+		String board = settings.getProperty("broker.service.status.board");
+		String slot = settings.getProperty("broker.service.status.slot");
+		if (board != null && slot != null) {
+			reporter = new BrokerServiceStatusReporter(BrokerServiceStatusBoard.open(new File(board), true),
+					Integer.parseInt(slot), settings.getProperty("broker.service.identifier", ""), processId,
+					Long.parseLong(settings.getProperty("broker.service.status.interval", "100")));
+			reporter.start();
+		}
+	}
+
+	/**
+	 * This will answer the requests sent by the spawning process until it requests the
+	 * broker to be stopped or closes the control connection.  The replies are only flushed
+	 * once every pipelined request has been answered.
+	 * 
+	 * @param in
+	 * @param broker
+	 * @throws IOException
+	 */
+	private void processRequests(DataInputStream in, BrokerService broker) throws IOException {
+		while (true) {
+			BrokerServiceControlFrame request;
+			try {
+				request = BrokerServiceControlFrame.read(in);
+			} catch (EOFException e) {
+				System.out.println("THE CONTROL CONNECTION WAS CLOSED");
+				return;
+			}
+			int requestId = request.getRequestId();
+			switch (request.getCommand()) {
+			case STOP:
+				System.out.println("RECEIVED THE STOP REQUEST " + requestId);
+				send(new BrokerServiceControlFrame(ControlCommandEnum.REPLY, requestId), true);
+				return;
+			case PING:
+				send(new BrokerServiceControlFrame(ControlCommandEnum.REPLY, requestId, request.getPayload()), in.available() == 0);
+				break;
+			case STATS:
+				send(BrokerServiceControlFrame.createStatistics(requestId, collectStatistics(broker)), in.available() == 0);
+				break;
+			case GC:
+				System.gc();
+				send(new BrokerServiceControlFrame(ControlCommandEnum.REPLY, requestId), in.available() == 0);
+				break;
+			case HEARTBEAT:
+				String problem = checkHealth(broker);
+				if (problem == null && heartbeatTimeout > 0) {
+					// The heartbeat is answered by the heartbeat thread once the message was delivered
+					answerHeartbeat(requestId, broker);
+					break;
+				}
+				send(problem == null ? new BrokerServiceControlFrame(ControlCommandEnum.REPLY, requestId)
+						: BrokerServiceControlFrame.createError(requestId, problem), in.available() == 0);
+				break;
+			case DUMP:
+				send(BrokerServiceControlFrame.createText(requestId, getDiagnostics()), in.available() == 0);
+				break;
+			default:
+				send(BrokerServiceControlFrame.createError(requestId, "Unsupported request " + request.getCommand()), in.available() == 0);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 * @param start
+	 * @return the time at which the passed phase ended
+	 */
+	private long endPhase(String name, long start) {
+		long end = System.nanoTime();
+		timings.put(name, end - start);
+		return end;
+	}
+
+	/**
+	 * @param broker
+	 * @return the statistics of the passed broker and of this process
+	 */
+	protected Map<String, Long> collectStatistics(BrokerService broker) {
+		Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		statistics.put("heap.used", heap.getUsed());
+		statistics.put("heap.max", heap.getMax());
+		statistics.put("threads", (long) ManagementFactory.getThreadMXBean().getThreadCount());
+		statistics.put("uptime", ManagementFactory.getRuntimeMXBean().getUptime());
+		statistics.put("cpu.time", BrokerServiceStatusReporter.getProcessCpuTime());
+		if (broker.getRegionBroker() instanceof RegionBroker) {
+			statistics.putAll(BrokerServiceHeartbeat.getMessageCounters((RegionBroker) broker.getRegionBroker()));
+		}
+		statistics.put("memory.usage", (long) broker.getSystemUsage().getMemoryUsage().getPercentUsage());
+		statistics.put("store.usage", (long) broker.getSystemUsage().getStoreUsage().getPercentUsage());
+		return statistics;
+	}
+
+	/**
+	 * This will answer the passed heartbeat request once the broker delivered a message or the
+	 * heartbeat timeout expired, the heartbeat is created by the first request.
+	 * 
+	 * @param requestId
+	 * @param broker
+	 */
+	private void answerHeartbeat(final int requestId, BrokerService broker) {
+		if (heartbeat == null) {
+			heartbeat = new BrokerServiceHeartbeat(broker, heartbeatTimeout);
+		}
+		final BrokerServiceFuture<String> problem = heartbeat.check();
+		problem.addListener(new Runnable() {
+			public void run() {
+				try {
+					String reason = problem.get();
+					send(reason == null ? new BrokerServiceControlFrame(ControlCommandEnum.REPLY, requestId)
+							: BrokerServiceControlFrame.createError(requestId, reason), true);
+				} catch (Exception e) {
+					// The control connection is being closed
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param broker
+	 * @return the reason why the passed broker is not healthy or null if it is healthy
+	 */
+	private static String checkHealth(BrokerService broker) {
+		if (!broker.isStarted()) {
+			return "The broker is not started";
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long deadlocked[] = threads.findDeadlockedThreads();
+		if (deadlocked != null) {
+			StringBuilder names = new StringBuilder();
+			for (ThreadInfo info : threads.getThreadInfo(deadlocked)) {
+				if (info != null) {
+					names.append(names.length() == 0 ? "" : ", ").append(info.getThreadName());
+				}
+			}
+			return "The threads " + names + " are deadlocked";
+		}
+		return null;
+	}
+
+	/**
+	 * @return the summary of the garbage collections and memory usage followed by the stack
+	 * 		of every thread of this process
+	 */
+	static String getDiagnostics() {
+		StringBuilder diagnostics = new StringBuilder();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			diagnostics.append("gc ").append(collector.getName()).append(" count=")
+					.append(collector.getCollectionCount()).append(" time=")
+					.append(collector.getCollectionTime()).append("ms\n");
+		}
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		diagnostics.append("heap used=").append(heap.getUsed() / (1024 * 1024)).append("MB max=")
+				.append(heap.getMax() / (1024 * 1024)).append("MB uptime=")
+				.append(ManagementFactory.getRuntimeMXBean().getUptime()).append("ms\n");
+		for (ThreadInfo info : ManagementFactory.getThreadMXBean().dumpAllThreads(true, true)) {
+			diagnostics.append("\n\"").append(info.getThreadName()).append("\" id=")
+					.append(info.getThreadId()).append(' ').append(info.getThreadState());
+			if (info.getLockName() != null) {
+				diagnostics.append(" on ").append(info.getLockName());
+			}
+			if (info.getLockOwnerName() != null) {
+				diagnostics.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+			}
+			diagnostics.append('\n');
+			// The ThreadInfo toString method only prints the first frames of the stack
+			for (StackTraceElement element : info.getStackTrace()) {
+				diagnostics.append("\tat ").append(element).append('\n');
+			}
+		}
+		return diagnostics.toString();
+	}
+
+	private synchronized void send(BrokerServiceControlFrame frame, boolean flush) throws IOException {
+		frame.write(out);
+		if (flush) {
+			out.flush();
+		}
+	}
+
+	/**
+	 * @return the process id of this process or -1 if it could not be determined
+	 */
+	static long getProcessId() {
+		// The name of the runtime bean is pid@hostname on the known virtual machines
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int idx = name.indexOf('@');
+		try {
+			return Long.parseLong(idx > 0 ? name.substring(0, idx) : name);
+		} catch (NumberFormatException e) {
+			return -1;
 		}
 	}
 }
@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This thread grows and shrinks the brokers that depend on a running broker, i.e. the spokes
+ * of a hub or the networked brokers of a main broker, using the statistics requested through
+ * the control channel.  The backlog is the number of messages stored by the broker and its
+ * dependents and the cpu usage is the largest cpu usage of their processes.  A broker is
+ * added when the backlog or the cpu usage exceeds its scale out threshold and the last added
+ * broker is retired when both are below their scale in threshold.  No broker is added or
+ * retired during the cool down period that follows a change of the topology.<p/>
+ *
+ * The thresholds are taken from the broker.service.scaling system properties.  The cpu
+ * usage is a percentage of all of the processors of the host, it is the one of the spawning
+ * process when the brokers are embedded.  No broker is retired until the cpu usage is known,
+ * i.e. before the second sample of the statistics.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceScalingPolicy extends Thread {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceScalingPolicy.class);
+
+	private final IElasticBrokerServiceSpawner spawner;
+	private final BrokerServiceNode parent;
+	private long interval = Long.getLong("broker.service.scaling.interval", 1000);
+	private long cooldown = Long.getLong("broker.service.scaling.cooldown", 10000);
+	private long scaleOutBacklog = Long.getLong("broker.service.scaling.backlog.out", 10000);
+	private long scaleInBacklog = Long.getLong("broker.service.scaling.backlog.in", 100);
+	private int scaleOutCpu = Integer.getInteger("broker.service.scaling.cpu.out", 80);
+	private int scaleInCpu = Integer.getInteger("broker.service.scaling.cpu.in", 20);
+	private int minBrokers = Integer.getInteger("broker.service.scaling.min", 1);
+	private int maxBrokers = Integer.getInteger("broker.service.scaling.max", 16);
+	private final Map<String, long[]> cpuTimes = new HashMap<String, long[]>();
+	private final List<String> events = new ArrayList<String>();
+	private final long started = System.nanoTime();
+	private long lastChange = started - TimeUnit.DAYS.toNanos(1);
+	private volatile boolean running = true;
+
+	/**
+	 * @param spawner the spawner of the running topology
+	 * @param parent the broker whose dependents are added and retired
+	 */
+	public BrokerServiceScalingPolicy(IElasticBrokerServiceSpawner spawner, BrokerServiceNode parent) {
+		super("BrokerServiceScalingPolicy-" + parent.getIdentifier());
+		this.spawner = spawner;
+		this.parent = parent;
+		setDaemon(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Thread#run()
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				evaluate();
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				break;
+			} catch (Exception e) {
+				// A broker could have been stopped or could not be started
+				logger.info("Unable to scale the dependents of " + parent, e);
+			}
+		}
+	}
+
+	/**
+	 * This will sample the statistics of the broker and its dependents and add or retire a
+	 * broker when required.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void evaluate() throws IOException, InterruptedException {
+		List<BrokerServiceNode> dependents = new ArrayList<BrokerServiceNode>(parent.getDependents());
+		List<String> group = new ArrayList<String>();
+		group.add(parent.getIdentifier());
+		for (BrokerServiceNode dependent : dependents) {
+			group.add(dependent.getIdentifier());
+		}
+		long backlog = 0;
+		int cpu = -1;
+		Map<String, BrokerServiceFuture<BrokerServiceControlFrame>> replies = spawner.broadcast(ControlCommandEnum.STATS);
+		for (String identifier : group) {
+			BrokerServiceFuture<BrokerServiceControlFrame> reply = replies.get(identifier);
+			if (reply == null) {
+				continue;
+			}
+			Map<String, Long> statistics;
+			try {
+				statistics = reply.get(interval + 5000, TimeUnit.MILLISECONDS).getStatistics();
+			} catch (Exception e) {
+				continue;
+			}
+			Long messages = statistics.get("messages");
+			if (messages != null) {
+				backlog += messages;
+			}
+			Long cpuTime = statistics.get("cpu.time");
+			if (cpuTime != null && cpuTime >= 0) {
+				cpu = Math.max(cpu, getCpuUsage(identifier, cpuTime, System.nanoTime(),
+						Runtime.getRuntime().availableProcessors()));
+			}
+		}
+		long now = System.nanoTime();
+		switch (decide(backlog, cpu, dependents.size(), now)) {
+		case 1:
+			BrokerServiceNode added = spawner.addBroker(parent);
+			lastChange = System.nanoTime();
+			record("added " + added, backlog, cpu);
+			brokerAdded(added);
+			break;
+		case -1:
+			BrokerServiceNode retired = dependents.get(dependents.size() - 1);
+			brokerRetiring(retired);
+			spawner.retireBroker(retired);
+			lastChange = System.nanoTime();
+			record("retired " + retired, backlog, cpu);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @param backlog
+	 * @param cpu the cpu usage in percent or -1 if it is not known
+	 * @param brokers the number of dependents
+	 * @param now
+	 * @return 1 if a broker has to be added, -1 if a broker has to be retired and 0 otherwise
+	 */
+	int decide(long backlog, int cpu, int brokers, long now) {
+		if (now - lastChange < TimeUnit.MILLISECONDS.toNanos(cooldown)) {
+			return 0;
+		}
+		int change = 0;
+		if ((backlog >= scaleOutBacklog || cpu >= scaleOutCpu) && brokers < maxBrokers) {
+			change = 1;
+		} else if (backlog <= scaleInBacklog && cpu >= 0 && cpu <= scaleInCpu && brokers > minBrokers) {
+			change = -1;
+		}
+		if (change != 0) {
+			// The cool down period starts with the change
+			lastChange = now;
+		}
+		return change;
+	}
+
+	/**
+	 * @param identifier
+	 * @param cpuTime the cpu time used by the process of the broker
+	 * @param now
+	 * @param processors the number of processors of the host
+	 * @return the cpu usage in percent of the processors of the host since the previous sample
+	 * 		or -1 for the first sample
+	 */
+	int getCpuUsage(String identifier, long cpuTime, long now, int processors) {
+		long previous[] = cpuTimes.put(identifier, new long[] { cpuTime, now });
+		if (previous == null || now <= previous[1]) {
+			return -1;
+		}
+		return (int) ((cpuTime - previous[0]) * 100 / ((now - previous[1]) * processors));
+	}
+
+	private synchronized void record(String action, long backlog, int cpu) {
+		String event = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms " + action
+				+ " backlog=" + backlog + " cpu=" + cpu + "%";
+		events.add(event);
+		logger.info(event);
+	}
+
+	/**
+	 * This is called once a broker was added, i.e. to connect clients to it.
+	 *
+	 * @param node
+	 */
+	protected void brokerAdded(BrokerServiceNode node) {
+	}
+
+	/**
+	 * This is called before a broker is retired, i.e. to disconnect its clients.
+	 *
+	 * @param node
+	 */
+	protected void brokerRetiring(BrokerServiceNode node) {
+	}
+
+	/**
+	 * @return the brokers added and retired by this policy with the time since this policy was
+	 * 		created and the backlog and cpu usage that caused the change
+	 */
+	public synchronized List<String> getEvents() {
+		return new ArrayList<String>(events);
+	}
+
+	/**
+	 * This will stop this policy, the added brokers keep running.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		running = false;
+		interrupt();
+		join();
+	}
+
+	/**
+	 * @param interval the number of milliseconds between two evaluations
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * @param cooldown the number of milliseconds following a change during which the topology
+	 * 		is not changed
+	 */
+	public void setCooldown(long cooldown) {
+		this.cooldown = cooldown;
+	}
+
+	/**
+	 * @param scaleOutBacklog the backlog above which a broker is added
+	 * @param scaleInBacklog the backlog below which a broker can be retired
+	 */
+	public void setBacklogThresholds(long scaleOutBacklog, long scaleInBacklog) {
+		this.scaleOutBacklog = scaleOutBacklog;
+		this.scaleInBacklog = scaleInBacklog;
+	}
+
+	/**
+	 * @param scaleOutCpu the cpu usage in percent above which a broker is added
+	 * @param scaleInCpu the cpu usage in percent below which a broker can be retired
+	 */
+	public void setCpuThresholds(int scaleOutCpu, int scaleInCpu) {
+		this.scaleOutCpu = scaleOutCpu;
+		this.scaleInCpu = scaleInCpu;
+	}
+
+	/**
+	 * @param minBrokers the number of dependents that are never retired
+	 * @param maxBrokers the largest number of dependents
+	 */
+	public void setBrokerLimits(int minBrokers, int maxBrokers) {
+		this.minBrokers = minBrokers;
+		this.maxBrokers = maxBrokers;
+	}
+}
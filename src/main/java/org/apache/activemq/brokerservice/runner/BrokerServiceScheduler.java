@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class will start the brokers of a topology using a bounded pool of threads.  The
+ * brokers that do not depend on any other broker are started concurrently while the
+ * brokers that depend on other brokers are started as soon as all of the brokers they
+ * depend on are ready.  The brokers that depend on a broker that could not be started are
+ * failed without being started.
+ *
+ * @author Claudio Corsi
+ *
+ */
+class BrokerServiceScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceScheduler.class);
+
+	private final AbstractBrokerServiceSpawner owner;
+	private final ExecutorService executor;
+	private final Map<BrokerServiceNode, Integer> remaining = new HashMap<BrokerServiceNode, Integer>();
+	private CountDownLatch completed;
+
+	BrokerServiceScheduler(AbstractBrokerServiceSpawner owner, int threads) {
+		this.owner = owner;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "BrokerServiceScheduler-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * This method will start the passed brokers and return once all of them have been
+	 * launched.  A dependency that is not part of the passed brokers is considered to be
+	 * ready.
+	 *
+	 * @param nodes The brokers to start
+	 * @throws InterruptedException
+	 */
+	void schedule(Collection<BrokerServiceNode> nodes) throws InterruptedException {
+		completed = new CountDownLatch(nodes.size());
+		synchronized (this) {
+			for (BrokerServiceNode node : nodes) {
+				int count = 0;
+				for (BrokerServiceNode dependency : node.getDependencies()) {
+					if (nodes.contains(dependency)) {
+						count++;
+					}
+				}
+				remaining.put(node, count);
+			}
+			for (BrokerServiceNode node : nodes) {
+				if (remaining.get(node) == 0) {
+					submit(node);
+				}
+			}
+		}
+		try {
+			completed.await();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * This is called while holding the lock of this scheduler.  The broker is no longer
+	 * remaining once it is dispatched.
+	 */
+	private void submit(final BrokerServiceNode node) {
+		remaining.remove(node);
+		executor.execute(new Runnable() {
+			public void run() {
+				boolean ready = false;
+				try {
+					owner.launchBrokerNode(node);
+					if (!node.getDependents().isEmpty()) {
+						owner.waitUntilReady(node);
+					}
+					ready = true;
+				} catch (Exception e) {
+					logger.warn("Unable to start the broker " + node, e);
+					node.getStartedFuture().fail(e);
+				} finally {
+					if (ready) {
+						release(node);
+					} else {
+						// The dependents would only wait for a broker that is not running
+						failDependents(node);
+					}
+					completed.countDown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * This will fail the brokers that depend on the passed broker that failed to start,
+	 * including the brokers that depend on them.
+	 *
+	 * @param node
+	 */
+	private synchronized void failDependents(BrokerServiceNode node) {
+		for (BrokerServiceNode dependent : node.getDependents()) {
+			if (remaining.remove(dependent) != null) {
+				dependent.getStartedFuture().fail(new IOException("The broker " + dependent
+						+ " was not started since the broker " + node + " failed to start"));
+				logger.warn("The broker " + dependent + " was not started since the broker " + node + " failed to start");
+				failDependents(dependent);
+				completed.countDown();
+			}
+		}
+	}
+
+	private synchronized void release(BrokerServiceNode node) {
+		for (BrokerServiceNode dependent : node.getDependents()) {
+			Integer count = remaining.get(dependent);
+			if (count != null) {
+				remaining.put(dependent, --count);
+				if (count == 0) {
+					submit(dependent);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class will stop the brokers of a topology.  The brokers are stopped in tiers, a
+ * broker is only stopped once every broker that depends on it was stopped, this way the
+ * spokes are stopped before their hub, the slaves before their master and the networked
+ * brokers before their main broker.  The brokers of a tier are stopped concurrently and the
+ * brokers that are not stopped within the tier timeout are forcibly stopped.
+ *
+ * @author Claudio Corsi
+ *
+ */
+class BrokerServiceShutdown {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceShutdown.class);
+
+	private final long tierTimeout;
+	private final ExecutorService executor;
+	private final Map<BrokerServiceNode, Integer> tiers = new HashMap<BrokerServiceNode, Integer>();
+
+	BrokerServiceShutdown(long tierTimeout) {
+		this.tierTimeout = tierTimeout;
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "BrokerServiceShutdown-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * This method will stop the passed brokers and return once all of them were stopped or
+	 * forcibly stopped.
+	 *
+	 * @param managers The control connections of the brokers
+	 * @param nodes The brokers created by the spawner, these are used to order the brokers
+	 * @return the identifiers of the brokers that had to be forcibly stopped
+	 * @throws InterruptedException
+	 */
+	Collection<String> stop(Collection<IBrokerServiceManager> managers, Collection<BrokerServiceNode> nodes)
+			throws InterruptedException {
+		// The brokers that do not belong to a node are stopped within the first tier
+		TreeMap<Integer, List<Stoppable>> ordered = new TreeMap<Integer, List<Stoppable>>();
+		List<IBrokerServiceManager> remaining = new ArrayList<IBrokerServiceManager>(managers);
+		for (BrokerServiceNode node : nodes) {
+			remaining.remove(node.getManager());
+			if (node.isLaunched() && !node.isExited()) {
+				add(ordered, getTier(node), new Stoppable(node, node.getManager()));
+			}
+		}
+		for (IBrokerServiceManager manager : remaining) {
+			add(ordered, 0, new Stoppable(null, manager));
+		}
+		List<String> forced = new ArrayList<String>();
+		try {
+			for (Map.Entry<Integer, List<Stoppable>> tier : ordered.entrySet()) {
+				logger.debug("Stopping the " + tier.getValue().size() + " brokers of tier " + tier.getKey());
+				forced.addAll(stopTier(tier.getValue()));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return forced;
+	}
+
+	private static void add(Map<Integer, List<Stoppable>> ordered, int tier, Stoppable stoppable) {
+		List<Stoppable> stoppables = ordered.get(tier);
+		if (stoppables == null) {
+			stoppables = new ArrayList<Stoppable>();
+			ordered.put(tier, stoppables);
+		}
+		stoppables.add(stoppable);
+	}
+
+	/**
+	 * @param node
+	 * @return zero if no broker depends on the passed broker otherwise one more than the
+	 * 		highest tier of the brokers that depend on it
+	 */
+	private int getTier(BrokerServiceNode node) {
+		Integer tier = tiers.get(node);
+		if (tier == null) {
+			tier = 0;
+			for (BrokerServiceNode dependent : node.getDependents()) {
+				tier = Math.max(tier, getTier(dependent) + 1);
+			}
+			tiers.put(node, tier);
+		}
+		return tier;
+	}
+
+	private List<String> stopTier(List<Stoppable> stoppables) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(tierTimeout);
+		Map<Stoppable, Future<Object>> futures = new LinkedHashMap<Stoppable, Future<Object>>();
+		for (Stoppable stoppable : stoppables) {
+			stoppable.deadline = deadline;
+			futures.put(stoppable, executor.submit(stoppable));
+		}
+		List<String> forced = new ArrayList<String>();
+		for (Map.Entry<Stoppable, Future<Object>> entry : futures.entrySet()) {
+			Stoppable stoppable = entry.getKey();
+			try {
+				entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				continue;
+			} catch (ExecutionException e) {
+				logger.info("Unable to stop the broker " + stoppable, e.getCause());
+			} catch (TimeoutException e) {
+				logger.info("The broker " + stoppable + " was not stopped within " + tierTimeout + " milliseconds");
+			}
+			entry.getValue().cancel(true);
+			stoppable.forceStop();
+			forced.add(stoppable.toString());
+		}
+		return forced;
+	}
+
+	/**
+	 * This will kill the process of the passed broker or close the control connection of an
+	 * embedded broker which causes it to stop.  The process of a forked broker that never
+	 * connected is destroyed by its spawner.
+	 *
+	 * @param node the broker or null if it is only known by its manager
+	 * @param manager the manager of the broker or null if it never connected
+	 * @param name the name of the broker used when logging
+	 * @return true if the broker was killed or asked to stop
+	 */
+	static boolean forceStop(BrokerServiceNode node, IBrokerServiceManager manager, String name) {
+		boolean stopped = false;
+		BrokerServiceManager brokerManager = null;
+		if (manager instanceof BrokerServiceManager) {
+			brokerManager = (BrokerServiceManager) manager;
+		}
+		if (brokerManager != null && brokerManager.getProcessId() > 0) {
+			stopped = ProcessSignals.kill(brokerManager.getProcessId());
+			if (stopped) {
+				logger.info("Killed the broker " + name + " using process id " + brokerManager.getProcessId());
+			}
+		} else if (node != null && node.getEmbeddedBroker() != null) {
+			node.getEmbeddedBroker().interrupt();
+			stopped = true;
+		} else if (node != null && node.isLaunched() && node.getProcessSpawner() != null) {
+			// The forked broker never sent its HELLO, only its spawner knows its process
+			node.getProcessSpawner().stopProcess();
+			stopped = true;
+			logger.info("Destroyed the process of the broker " + name + " using its spawner");
+		} else {
+			logger.warn("Unable to forcibly stop the broker " + name + " since its process is not known");
+		}
+		if (brokerManager != null) {
+			brokerManager.close();
+		}
+		return stopped;
+	}
+
+	/**
+	 * This stops a single broker and waits for its process or thread to exit.
+	 */
+	private static class Stoppable implements Callable<Object> {
+
+		private final BrokerServiceNode node;
+		private final IBrokerServiceManager manager;
+		private volatile long deadline;
+
+		Stoppable(BrokerServiceNode node, IBrokerServiceManager manager) {
+			this.node = node;
+			this.manager = manager;
+		}
+
+		public Object call() throws Exception {
+			if (manager == null) {
+				// The broker never connected to the control channel and can not be asked to stop
+				throw new IOException("The broker " + this + " is not connected to the control channel");
+			}
+			manager.stopBroker();
+			if (node != null) {
+				long interval = 10;
+				while (!node.isExited()) {
+					if (System.nanoTime() - deadline >= 0) {
+						throw new IOException("The broker " + this + " did not exit");
+					}
+					Thread.sleep(interval);
+					interval = Math.min(interval * 2, 100);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * This will kill the process of the broker or close the control connection of an
+		 * embedded broker which causes it to stop.
+		 */
+		void forceStop() {
+			BrokerServiceShutdown.forceStop(node, manager, toString());
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			if (node != null) {
+				return node.getIdentifier();
+			}
+			if (manager instanceof BrokerServiceManager) {
+				return ((BrokerServiceManager) manager).getIdentifier();
+			}
+			return String.valueOf(manager);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This exception is raised when some of the brokers of a topology could not be started.
+ * It reports the failure of every broker that failed and the brokers that were still
+ * starting.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceStartupException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, Throwable> failures;
+	private final Collection<String> pendingBrokers;
+
+	/**
+	 * @param message
+	 * @param failures The failure of every broker that failed, keyed by broker identifier
+	 * @param pendingBrokers The identifiers of the brokers that were still starting
+	 */
+	public BrokerServiceStartupException(String message, Map<String, Throwable> failures,
+			Collection<String> pendingBrokers) {
+		super(message + ", failed brokers: " + failures.keySet() + ", pending brokers: " + pendingBrokers,
+				failures.isEmpty() ? null : failures.values().iterator().next());
+		this.failures = Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(failures));
+		this.pendingBrokers = Collections.unmodifiableList(new ArrayList<String>(pendingBrokers));
+	}
+
+	/**
+	 * @return the failure of every broker that failed, keyed by broker identifier
+	 */
+	public Map<String, Throwable> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return the identifiers of the brokers that were still starting
+	 */
+	public Collection<String> getPendingBrokers() {
+		return pendingBrokers;
+	}
+}
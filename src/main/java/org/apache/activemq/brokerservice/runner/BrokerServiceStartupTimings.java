@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class computes the startup timings exposed by the BrokerServiceStartupTimingsMBean
+ * from the brokers of a spawner.  The timings are read from the brokers every time they are
+ * requested.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceStartupTimings implements BrokerServiceStartupTimingsMBean {
+
+	private final Collection<BrokerServiceNode> nodes;
+
+	/**
+	 * @param nodes The brokers of the spawner, the collection is read every time
+	 */
+	public BrokerServiceStartupTimings(Collection<BrokerServiceNode> nodes) {
+		this.nodes = nodes;
+	}
+
+	public String[] getBrokers() {
+		List<String> brokers = new ArrayList<String>();
+		for (BrokerServiceNode node : nodes) {
+			brokers.add(node.getIdentifier());
+		}
+		return brokers.toArray(new String[brokers.size()]);
+	}
+
+	public String[] getPhases() {
+		Set<String> phases = new LinkedHashSet<String>();
+		for (BrokerServiceNode node : nodes) {
+			phases.addAll(node.getStartupPhases().keySet());
+		}
+		return phases.toArray(new String[phases.size()]);
+	}
+
+	public String[] getSummary() {
+		String phases[] = getPhases();
+		String summary[] = new String[phases.length];
+		for (int idx = 0 ; idx < phases.length ; idx++) {
+			long durations[] = getDurations(phases[idx]);
+			summary[idx] = phases[idx] + ": count=" + durations.length
+					+ " p50=" + toMillis(percentile(durations, 50))
+					+ " p99=" + toMillis(percentile(durations, 99))
+					+ " max=" + toMillis(percentile(durations, 100));
+		}
+		return summary;
+	}
+
+	public double getBrokerPhaseMillis(String broker, String phase) {
+		for (BrokerServiceNode node : nodes) {
+			if (node.getIdentifier().equals(broker)) {
+				Long duration = node.getStartupPhases().get(phase);
+				return duration == null ? -1 : toMillis(duration);
+			}
+		}
+		return -1;
+	}
+
+	public String getBrokerJvmProfile(String broker) {
+		for (BrokerServiceNode node : nodes) {
+			if (node.getIdentifier().equals(broker)) {
+				BrokerServiceJvmProfile profile = node.getJvmProfile();
+				return profile == null ? null : profile.toString();
+			}
+		}
+		return null;
+	}
+
+	public String getBrokerPlacement(String broker) {
+		for (BrokerServiceNode node : nodes) {
+			if (node.getIdentifier().equals(broker)) {
+				return node.getPlacement();
+			}
+		}
+		return null;
+	}
+
+	public String getBrokerState(String broker) {
+		for (BrokerServiceNode node : nodes) {
+			if (node.getIdentifier().equals(broker)) {
+				return node.getState() + " restarts=" + node.getRestartCount();
+			}
+		}
+		return null;
+	}
+
+	public double getP50Millis(String phase) {
+		return toMillis(percentile(getDurations(phase), 50));
+	}
+
+	public double getP99Millis(String phase) {
+		return toMillis(percentile(getDurations(phase), 99));
+	}
+
+	public double getMaxMillis(String phase) {
+		return toMillis(percentile(getDurations(phase), 100));
+	}
+
+	/**
+	 * @param phase
+	 * @return the sorted durations of the passed phase in nanoseconds
+	 */
+	private long[] getDurations(String phase) {
+		List<Long> durations = new ArrayList<Long>();
+		for (BrokerServiceNode node : nodes) {
+			Long duration = node.getStartupPhases().get(phase);
+			if (duration != null) {
+				durations.add(duration);
+			}
+		}
+		long sorted[] = new long[durations.size()];
+		for (int idx = 0 ; idx < sorted.length ; idx++) {
+			sorted[idx] = durations.get(idx);
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * @param sorted
+	 * @param percentile
+	 * @return the value of the passed percentile using the nearest rank or -1 if there are
+	 * 		no values
+	 */
+	static long percentile(long sorted[], int percentile) {
+		if (sorted.length == 0) {
+			return -1;
+		}
+		int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+
+	private static double toMillis(long nanos) {
+		if (nanos < 0) {
+			return -1;
+		}
+		return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
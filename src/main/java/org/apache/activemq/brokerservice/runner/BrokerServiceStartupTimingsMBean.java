@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+/**
+ * This MBean exposes the duration of the startup phases of the brokers of a spawner.  The
+ * durations are reported in milliseconds and are -1 when the phase was not measured.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public interface BrokerServiceStartupTimingsMBean {
+
+	/**
+	 * @return the identifiers of the brokers of the spawner
+	 */
+	String[] getBrokers();
+
+	/**
+	 * @return the names of the phases measured for any of the brokers
+	 */
+	String[] getPhases();
+
+	/**
+	 * @return a line per phase with its count, median, 99th percentile and maximum duration
+	 */
+	String[] getSummary();
+
+	/**
+	 * @param broker
+	 * @param phase
+	 * @return the duration of the phase of the passed broker
+	 */
+	double getBrokerPhaseMillis(String broker, String phase);
+
+	/**
+	 * @param broker
+	 * @return the jvm arguments of the profile applied to the passed broker or null if it did
+	 * 		not use a profile
+	 */
+	String getBrokerJvmProfile(String broker);
+
+	/**
+	 * @param broker
+	 * @return the processors and NUMA nodes assigned to the passed broker or null if the
+	 * 		placement is not used
+	 */
+	String getBrokerPlacement(String broker);
+
+	/**
+	 * @param broker
+	 * @return the lifecycle state of the passed broker and the number of times it was
+	 * 		restarted, i.e. STARTED restarts=1
+	 */
+	String getBrokerState(String broker);
+
+	/**
+	 * @param phase
+	 * @return the median duration of the phase over every broker
+	 */
+	double getP50Millis(String phase);
+
+	/**
+	 * @param phase
+	 * @return the 99th percentile of the duration of the phase over every broker
+	 */
+	double getP99Millis(String phase);
+
+	/**
+	 * @param phase
+	 * @return the maximum duration of the phase over every broker
+	 */
+	double getMaxMillis(String phase);
+
+}
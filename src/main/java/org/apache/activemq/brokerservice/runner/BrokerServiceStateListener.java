@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+/**
+ * This listener is informed of the changes of the lifecycle state of the brokers of a
+ * spawner.  The methods are called by the thread that caused the change, i.e. the thread
+ * of the control channel, and should not block.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public interface BrokerServiceStateListener {
+
+	/**
+	 * The state of the passed broker has changed.
+	 *
+	 * @param node
+	 * @param previous the state of the broker before the change
+	 * @param state the new state of the broker
+	 */
+	void brokerStateChanged(BrokerServiceNode node, StateEnum previous, StateEnum state);
+
+}
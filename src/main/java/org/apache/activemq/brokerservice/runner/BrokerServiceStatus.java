@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+/**
+ * This class holds the status of a broker that is published on the BrokerServiceStatusBoard.
+ * The same instance can be used to read many slots to avoid creating garbage when the board
+ * is read at a high frequency.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceStatus {
+
+	private StateEnum state = StateEnum.INITIALIZED;
+	private long updateTime;
+	private long processId = -1;
+	private long heapUsed;
+	private long heapMax;
+	private int memoryUsage;
+	private int storeUsage;
+	private long enqueues;
+	private long dequeues;
+	private long inflight;
+	private long messages;
+	private long cpuTime = -1;
+
+	public StateEnum getState() {
+		return state;
+	}
+
+	public void setState(StateEnum state) {
+		this.state = state;
+	}
+
+	/**
+	 * @return the time in milliseconds at which the broker updated its slot
+	 */
+	public long getUpdateTime() {
+		return updateTime;
+	}
+
+	public void setUpdateTime(long updateTime) {
+		this.updateTime = updateTime;
+	}
+
+	public long getProcessId() {
+		return processId;
+	}
+
+	public void setProcessId(long processId) {
+		this.processId = processId;
+	}
+
+	public long getHeapUsed() {
+		return heapUsed;
+	}
+
+	public void setHeapUsed(long heapUsed) {
+		this.heapUsed = heapUsed;
+	}
+
+	public long getHeapMax() {
+		return heapMax;
+	}
+
+	public void setHeapMax(long heapMax) {
+		this.heapMax = heapMax;
+	}
+
+	/**
+	 * @return the percentage of the broker memory limit that is used
+	 */
+	public int getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public void setMemoryUsage(int memoryUsage) {
+		this.memoryUsage = memoryUsage;
+	}
+
+	/**
+	 * @return the percentage of the broker store limit that is used
+	 */
+	public int getStoreUsage() {
+		return storeUsage;
+	}
+
+	public void setStoreUsage(int storeUsage) {
+		this.storeUsage = storeUsage;
+	}
+
+	public long getEnqueues() {
+		return enqueues;
+	}
+
+	public void setEnqueues(long enqueues) {
+		this.enqueues = enqueues;
+	}
+
+	public long getDequeues() {
+		return dequeues;
+	}
+
+	public void setDequeues(long dequeues) {
+		this.dequeues = dequeues;
+	}
+
+	public long getInflight() {
+		return inflight;
+	}
+
+	public void setInflight(long inflight) {
+		this.inflight = inflight;
+	}
+
+	public long getMessages() {
+		return messages;
+	}
+
+	public void setMessages(long messages) {
+		this.messages = messages;
+	}
+
+	/**
+	 * @return the cpu time in nanoseconds used by the process of the broker or -1 if it is
+	 * 		not known
+	 */
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	public void setCpuTime(long cpuTime) {
+		this.cpuTime = cpuTime;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[state=" + state + ", heap=" + heapUsed + "/" + heapMax
+				+ ", memory=" + memoryUsage + "%, store=" + storeUsage + "%, enqueues=" + enqueues
+				+ ", dequeues=" + dequeues + ", inflight=" + inflight + "]";
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class is a memory-mapped file where every spawned broker publishes its status within
+ * its own slot.  The spawning process creates the board and reads the slots using plain
+ * memory reads while every broker updates its slot periodically.
+ * <p>
+ * The file starts with a header of 64 bytes containing the magic number 0x42535342, the
+ * layout version, the header size, the slot size and the number of slots as big endian
+ * ints.  Each slot of 128 bytes contains the following big endian fields:
+ * <pre>
+ *   0 long sequence, odd while the slot is being written and zero if it was never written
+ *   8 long update time in milliseconds
+ *  16 int  state, the ordinal of the StateEnum
+ *  20 int  memory usage percentage
+ *  24 int  store usage percentage
+ *  28 int  reserved
+ *  32 long process id
+ *  40 long heap used
+ *  48 long heap max
+ *  56 long enqueue count
+ *  64 long dequeue count
+ *  72 long inflight count
+ *  80 long message count
+ *  88 long process cpu time in nanoseconds
+ *  96 byte identifier length followed by up to 31 bytes of the UTF-8 identifier
+ * </pre>
+ * A reader reads the sequence before and after reading the fields and retries when the
+ * sequence changed or was odd.  A slot has a single writer.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceStatusBoard {
+
+	public static final int MAGIC = 0x42535342;
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 64;
+
+	public static final int SLOT_SIZE = 128;
+
+	private static final int IDENTIFIER_OFFSET = 96;
+
+	private static final int IDENTIFIER_SIZE = SLOT_SIZE - IDENTIFIER_OFFSET - 1;
+
+	private static final int READ_ATTEMPTS = 100;
+
+	/**
+	 * The accesses to this field order the accesses to the slot fields with the accesses to
+	 * the slot sequence.
+	 */
+	private static volatile int fence;
+
+	private final MappedByteBuffer buffer;
+	private final int headerSize;
+	private final int slotSize;
+	private final int slotCount;
+
+	private BrokerServiceStatusBoard(MappedByteBuffer buffer) throws IOException {
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("The file is not a broker service status board");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported status board version " + buffer.getInt(4));
+		}
+		this.buffer = buffer;
+		this.headerSize = buffer.getInt(8);
+		this.slotSize = buffer.getInt(12);
+		this.slotCount = buffer.getInt(16);
+		if (slotSize < SLOT_SIZE || buffer.capacity() < headerSize + (long) slotSize * slotCount) {
+			throw new IOException("The status board is truncated or uses an invalid layout");
+		}
+	}
+
+	/**
+	 * This will create a new board, an existing file is overwritten.
+	 *
+	 * @param file
+	 * @param slotCount The number of brokers that can publish their status
+	 * @return the created board
+	 * @throws IOException
+	 */
+	public static BrokerServiceStatusBoard create(File file, int slotCount) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// Clear the slots of a previous board
+			raf.setLength(0);
+			raf.setLength(HEADER_SIZE + (long) SLOT_SIZE * slotCount);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, HEADER_SIZE);
+			buffer.putInt(12, SLOT_SIZE);
+			buffer.putInt(16, slotCount);
+			// The magic number is written last so that a partially created board is not used
+			buffer.putInt(0, MAGIC);
+			return new BrokerServiceStatusBoard(buffer);
+		} finally {
+			// The mapping stays valid once the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @param writable true if the status of a broker will be written to the board
+	 * @return the board that was created by the spawning process
+	 * @throws IOException
+	 */
+	public static BrokerServiceStatusBoard open(File file, boolean writable) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		try {
+			return new BrokerServiceStatusBoard(raf.getChannel().map(
+					writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the number of slots of this board
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * This will publish the status of a broker, it should only be called by the broker
+	 * owning the slot.
+	 *
+	 * @param slot
+	 * @param status
+	 */
+	public void write(int slot, BrokerServiceStatus status) {
+		int base = getOffset(slot);
+		long sequence = buffer.getLong(base);
+		buffer.putLong(base, sequence + 1);
+		fence = slot;
+		buffer.putLong(base + 8, status.getUpdateTime());
+		buffer.putInt(base + 16, status.getState().ordinal());
+		buffer.putInt(base + 20, status.getMemoryUsage());
+		buffer.putInt(base + 24, status.getStoreUsage());
+		buffer.putLong(base + 32, status.getProcessId());
+		buffer.putLong(base + 40, status.getHeapUsed());
+		buffer.putLong(base + 48, status.getHeapMax());
+		buffer.putLong(base + 56, status.getEnqueues());
+		buffer.putLong(base + 64, status.getDequeues());
+		buffer.putLong(base + 72, status.getInflight());
+		buffer.putLong(base + 80, status.getMessages());
+		buffer.putLong(base + 88, status.getCpuTime());
+		fence = slot;
+		buffer.putLong(base, sequence + 2);
+	}
+
+	/**
+	 * This will read the status published within the passed slot.
+	 *
+	 * @param slot
+	 * @param status The instance that is updated with the status of the slot
+	 * @return false if the slot was never written or a consistent status could not be read
+	 */
+	public boolean read(int slot, BrokerServiceStatus status) {
+		int base = getOffset(slot);
+		StateEnum states[] = StateEnum.values();
+		for (int attempt = 0 ; attempt < READ_ATTEMPTS ; attempt++) {
+			long sequence = buffer.getLong(base);
+			if (sequence == 0) {
+				return false;
+			}
+			if ((sequence & 1) != 0) {
+				// The broker is updating its slot
+				Thread.yield();
+				continue;
+			}
+			readFence();
+			status.setUpdateTime(buffer.getLong(base + 8));
+			int state = buffer.getInt(base + 16);
+			status.setState(state >= 0 && state < states.length ? states[state] : StateEnum.INITIALIZED);
+			status.setMemoryUsage(buffer.getInt(base + 20));
+			status.setStoreUsage(buffer.getInt(base + 24));
+			status.setProcessId(buffer.getLong(base + 32));
+			status.setHeapUsed(buffer.getLong(base + 40));
+			status.setHeapMax(buffer.getLong(base + 48));
+			status.setEnqueues(buffer.getLong(base + 56));
+			status.setDequeues(buffer.getLong(base + 64));
+			status.setInflight(buffer.getLong(base + 72));
+			status.setMessages(buffer.getLong(base + 80));
+			status.setCpuTime(buffer.getLong(base + 88));
+			readFence();
+			if (buffer.getLong(base) == sequence) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * This is called once by the broker owning the slot before its status is written.
+	 *
+	 * @param slot
+	 * @param identifier
+	 */
+	public void writeIdentifier(int slot, String identifier) {
+		int base = getOffset(slot) + IDENTIFIER_OFFSET;
+		byte data[];
+		try {
+			data = identifier.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		int length = Math.min(data.length, IDENTIFIER_SIZE);
+		for (int idx = 0 ; idx < length ; idx++) {
+			buffer.put(base + 1 + idx, data[idx]);
+		}
+		buffer.put(base, (byte) length);
+	}
+
+	/**
+	 * @param slot
+	 * @return the identifier of the broker owning the slot, it is truncated to 31 bytes
+	 */
+	public String readIdentifier(int slot) {
+		int base = getOffset(slot) + IDENTIFIER_OFFSET;
+		int length = Math.min(buffer.get(base) & 0xff, IDENTIFIER_SIZE);
+		byte data[] = new byte[length];
+		for (int idx = 0 ; idx < length ; idx++) {
+			data[idx] = buffer.get(base + 1 + idx);
+		}
+		try {
+			return new String(data, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int readFence() {
+		return fence;
+	}
+
+	private int getOffset(int slot) {
+		if (slot < 0 || slot >= slotCount) {
+			throw new IndexOutOfBoundsException("Invalid status board slot " + slot);
+		}
+		return headerSize + slot * slotSize;
+	}
+}
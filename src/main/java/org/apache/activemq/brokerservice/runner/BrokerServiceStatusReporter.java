@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.RegionBroker;
+
+/**
+ * This thread is used by a spawned broker to periodically publish its status within its
+ * slot of the BrokerServiceStatusBoard created by the spawning process.
+ *
+ * @author Claudio Corsi
+ *
+ */
+class BrokerServiceStatusReporter extends Thread {
+
+	private final BrokerServiceStatusBoard board;
+	private final int slot;
+	private final long interval;
+	private final BrokerServiceStatus status = new BrokerServiceStatus();
+	private static final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+	private static final Method processCpuTime = getProcessCpuTimeMethod(os);
+	private volatile BrokerService broker;
+	private volatile boolean running = true;
+
+	BrokerServiceStatusReporter(BrokerServiceStatusBoard board, int slot, String identifier,
+			long processId, long interval) {
+		super("BrokerServiceStatusReporter:" + identifier);
+		setDaemon(true);
+		this.board = board;
+		this.slot = slot;
+		this.interval = interval;
+		status.setProcessId(processId);
+		board.writeIdentifier(slot, identifier);
+		publish();
+	}
+
+	/**
+	 * @param broker the broker whose counters are published
+	 */
+	void setBroker(BrokerService broker) {
+		this.broker = broker;
+	}
+
+	/**
+	 * This will publish the passed state immediately.
+	 *
+	 * @param state
+	 */
+	void setBrokerState(StateEnum state) {
+		synchronized (status) {
+			status.setState(state);
+		}
+		publish();
+	}
+
+	/**
+	 * This will stop the periodic updates of the slot.
+	 */
+	void close() {
+		running = false;
+		interrupt();
+	}
+
+	public void run() {
+		while (running) {
+			publish();
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				// We are being closed
+			}
+		}
+	}
+
+	private void publish() {
+		synchronized (status) {
+			status.setUpdateTime(System.currentTimeMillis());
+			MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+			status.setHeapUsed(heap.getUsed());
+			status.setHeapMax(heap.getMax());
+			status.setCpuTime(getProcessCpuTime());
+			BrokerService broker = this.broker;
+			if (broker != null) {
+				if (broker.getRegionBroker() instanceof RegionBroker) {
+					// The messages of the heartbeats are not counted
+					Map<String, Long> counters = BrokerServiceHeartbeat.getMessageCounters((RegionBroker) broker.getRegionBroker());
+					status.setEnqueues(counters.get("enqueues"));
+					status.setDequeues(counters.get("dequeues"));
+					status.setInflight(counters.get("inflight"));
+					status.setMessages(counters.get("messages"));
+				}
+				status.setMemoryUsage(broker.getSystemUsage().getMemoryUsage().getPercentUsage());
+				status.setStoreUsage(broker.getSystemUsage().getStoreUsage().getPercentUsage());
+			}
+			board.write(slot, status);
+		}
+	}
+
+	/**
+	 * @return the cpu time used by this process in nanoseconds or -1 if it is not known
+	 */
+	static long getProcessCpuTime() {
+		if (processCpuTime != null) {
+			try {
+				return ((Number) processCpuTime.invoke(os)).longValue();
+			} catch (Exception e) {
+				// Report the cpu time as unknown
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param os
+	 * @return the getProcessCpuTime method provided by some virtual machines or null if it
+	 * 		is not available
+	 */
+	private static Method getProcessCpuTimeMethod(OperatingSystemMXBean os) {
+		for (Class<?> type : os.getClass().getInterfaces()) {
+			try {
+				Method method = type.getMethod("getProcessCpuTime");
+				method.setAccessible(true);
+				return method;
+			} catch (Exception e) {
+				// Try the next interface
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class restarts the brokers of a spawner that crashed.  The restart of a broker is
+ * delayed by a backoff that starts at the initial backoff and doubles with every restart
+ * of the broker up to the maximum backoff.  A broker is not restarted anymore once it used
+ * its restart budget.
+ *
+ * @author Claudio Corsi
+ *
+ */
+final class BrokerServiceSupervisor {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceSupervisor.class);
+
+	private final AbstractBrokerServiceSpawner spawner;
+	private final int budget;
+	private final long backoff;
+	private final long maxBackoff;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BrokerServiceSupervisor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @param spawner
+	 * @param budget the number of times a broker can be restarted
+	 * @param backoff the delay in milliseconds of the first restart of a broker
+	 * @param maxBackoff the largest delay in milliseconds of the restart of a broker
+	 */
+	BrokerServiceSupervisor(AbstractBrokerServiceSpawner spawner, int budget, long backoff, long maxBackoff) {
+		this.spawner = spawner;
+		this.budget = budget;
+		this.backoff = backoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * @param node
+	 * @return false if the passed broker used its restart budget or this supervisor was closed
+	 */
+	boolean canRestart(BrokerServiceNode node) {
+		return node.getRestartCount() < budget && !executor.isShutdown();
+	}
+
+	/**
+	 * This will schedule the restart of the passed broker which crashed.
+	 *
+	 * @param node
+	 */
+	void restart(final BrokerServiceNode node) {
+		int attempt = node.getRestartCount();
+		node.setRestartCount(attempt + 1);
+		long delay = getBackoff(backoff, maxBackoff, attempt);
+		logger.info("The broker " + node + " will be restarted in " + delay + " milliseconds, restart "
+				+ (attempt + 1) + " of " + budget);
+		try {
+			executor.schedule(new Runnable() {
+				public void run() {
+					spawner.restartBrokerNode(node);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The brokers are being stopped
+			logger.debug("The broker " + node + " will not be restarted since the supervisor was closed");
+		}
+	}
+
+	/**
+	 * This will cancel the restarts that have not been executed yet.
+	 */
+	void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param backoff the delay of the first restart
+	 * @param maxBackoff the largest delay
+	 * @param attempt the number of previous restarts
+	 * @return the delay of the restart
+	 */
+	static long getBackoff(long backoff, long maxBackoff, int attempt) {
+		long delay = backoff;
+		for (int idx = 0 ; idx < attempt && delay < maxBackoff ; idx++) {
+			delay *= 2;
+		}
+		return Math.min(delay, maxBackoff);
+	}
+}
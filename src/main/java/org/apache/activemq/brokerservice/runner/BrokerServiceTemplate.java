@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class is the compiled form of an activemq configuration template.  The template is
+ * split once into its literal text and its ${...} placeholders so that the configuration of
+ * every broker is rendered by inlining the broker properties without parsing the template
+ * again.  The placeholders that are not defined by the broker properties are kept as is and
+ * are resolved by spring when the broker is started.
+ *
+ * The templates are loaded from the class path and cached using their name.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceTemplate {
+
+	/**
+	 * The marker replaced by the location of the properties file used by spring.
+	 */
+	public static final String PROPERTIES_FILE_MARKER = "@@PROPERTIESFILE@@";
+
+	/**
+	 * The properties file used by spring when every placeholder has been inlined.
+	 */
+	public static final String INLINED_PROPERTIES_FILE = "classpath:org/apache/activemq/brokerservice/runner/inlined.properties";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final ConcurrentMap<String, BrokerServiceTemplate> templates = new ConcurrentHashMap<String, BrokerServiceTemplate>();
+
+	// The template is literals[0] keys[0] literals[1] keys[1] ... literals[n] where a null
+	// key stands for the properties file marker
+	private final String literals[];
+	private final String keys[];
+	private final int length;
+
+	/**
+	 * @param content The content of the template
+	 */
+	public BrokerServiceTemplate(String content) {
+		List<String> literals = new LinkedList<String>();
+		List<String> keys = new LinkedList<String>();
+		int start = 0;
+		int idx = 0;
+		while (idx < content.length()) {
+			if (content.startsWith("${", idx)) {
+				int end = content.indexOf('}', idx + 2);
+				if (end == -1) {
+					break;
+				}
+				literals.add(content.substring(start, idx));
+				keys.add(content.substring(idx + 2, end));
+				start = idx = end + 1;
+			} else if (content.startsWith(PROPERTIES_FILE_MARKER, idx)) {
+				literals.add(content.substring(start, idx));
+				keys.add(null);
+				start = idx = idx + PROPERTIES_FILE_MARKER.length();
+			} else {
+				idx++;
+			}
+		}
+		literals.add(content.substring(start));
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.keys = keys.toArray(new String[keys.size()]);
+		this.length = content.length();
+	}
+
+	/**
+	 * @param name The name of the template resource
+	 * @return the compiled template
+	 * @throws IOException
+	 */
+	public static BrokerServiceTemplate getTemplate(String name) throws IOException {
+		BrokerServiceTemplate template = templates.get(name);
+		if (template == null) {
+			InputStream is = ClassLoader.getSystemResourceAsStream(name);
+			if (is == null) {
+				throw new FileNotFoundException("Unable to find the " + name + " template");
+			}
+			try {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				byte buffer[] = new byte[8192];
+				int read;
+				while ((read = is.read(buffer)) != -1) {
+					baos.write(buffer, 0, read);
+				}
+				template = new BrokerServiceTemplate(new String(baos.toByteArray(), UTF8));
+			} finally {
+				is.close();
+			}
+			BrokerServiceTemplate previous = templates.putIfAbsent(name, template);
+			if (previous != null) {
+				template = previous;
+			}
+		}
+		return template;
+	}
+
+	/**
+	 * @param properties
+	 * @return true if all of the placeholders of this template are defined by the passed
+	 * 		properties
+	 */
+	public boolean isResolvedBy(Properties properties) {
+		for (String key : keys) {
+			if (key != null && properties.getProperty(key) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param properties The properties inlined within the rendered configuration
+	 * @param propertiesFile The location of the properties file used by spring
+	 * @return the rendered configuration
+	 */
+	public String render(Properties properties, String propertiesFile) {
+		StringBuilder sb = new StringBuilder(length + 64 * keys.length);
+		for (int idx = 0; idx < keys.length; idx++) {
+			sb.append(literals[idx]);
+			String key = keys[idx];
+			if (key == null) {
+				sb.append(propertiesFile);
+			} else {
+				String value = properties.getProperty(key);
+				if (value == null) {
+					sb.append("${").append(key).append('}');
+				} else {
+					escape(sb, value);
+				}
+			}
+		}
+		sb.append(literals[keys.length]);
+		return sb.toString();
+	}
+
+	/**
+	 * @param properties
+	 * @param propertiesFile
+	 * @return the rendered configuration encoded using UTF-8
+	 */
+	public byte[] renderBytes(Properties properties, String propertiesFile) {
+		return render(properties, propertiesFile).getBytes(UTF8);
+	}
+
+	private static void escape(StringBuilder sb, String value) {
+		for (int idx = 0; idx < value.length(); idx++) {
+			char c = value.charAt(idx);
+			switch (c) {
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			case '\'':
+				sb.append("&apos;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+}
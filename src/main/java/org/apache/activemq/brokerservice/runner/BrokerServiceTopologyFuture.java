@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This future is completed once every broker of a topology was started.  It fails as soon
+ * as one of the brokers failed to start, the failure is a BrokerServiceStartupException
+ * that reports every broker that failed.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceTopologyFuture extends BrokerServiceFuture<Collection<BrokerServiceNode>> {
+
+	private volatile Collection<BrokerServiceNode> nodes = Collections.emptyList();
+
+	BrokerServiceTopologyFuture() {
+	}
+
+	/**
+	 * This is called once the brokers of the topology have been created.
+	 *
+	 * @param nodes
+	 */
+	void setBrokerNodes(Collection<BrokerServiceNode> nodes) {
+		this.nodes = Collections.unmodifiableList(new LinkedList<BrokerServiceNode>(nodes));
+		Runnable listener = new Runnable() {
+			public void run() {
+				update();
+			}
+		};
+		for (BrokerServiceNode node : this.nodes) {
+			node.getStartedFuture().addListener(listener);
+		}
+		update();
+	}
+
+	private void update() {
+		if (!getFailures().isEmpty()) {
+			// Fail fast, there is no need to wait for the other brokers
+			fail(new BrokerServiceStartupException("Unable to start the topology", getFailures(),
+					getPendingBrokers()));
+		} else if (getPendingBrokers().isEmpty()) {
+			set(nodes);
+		}
+	}
+
+	/**
+	 * @return the future of every broker of the topology keyed by broker identifier, it is
+	 * 		empty until the brokers have been created
+	 */
+	public Map<String, BrokerServiceFuture<BrokerServiceNode>> getBrokerFutures() {
+		Map<String, BrokerServiceFuture<BrokerServiceNode>> futures = new LinkedHashMap<String, BrokerServiceFuture<BrokerServiceNode>>();
+		for (BrokerServiceNode node : nodes) {
+			futures.put(node.getIdentifier(), node.getStartedFuture());
+		}
+		return futures;
+	}
+
+	/**
+	 * @return the failure of every broker that failed to start keyed by broker identifier
+	 */
+	public Map<String, Throwable> getFailures() {
+		Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+		for (BrokerServiceNode node : nodes) {
+			Throwable failure = node.getStartedFuture().getFailure();
+			if (failure != null) {
+				failures.put(node.getIdentifier(), failure);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * @return the identifiers of the brokers that are still starting
+	 */
+	public Collection<String> getPendingBrokers() {
+		List<String> pending = new LinkedList<String>();
+		for (BrokerServiceNode node : nodes) {
+			if (!node.getStartedFuture().isDone()) {
+				pending.add(node.getIdentifier());
+			}
+		}
+		return pending;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.BrokerServiceFuture#get(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public Collection<BrokerServiceNode> get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		try {
+			return super.get(timeout, unit);
+		} catch (TimeoutException e) {
+			TimeoutException exception = new TimeoutException("The brokers " + getPendingBrokers()
+					+ " were not started within " + unit.toMillis(timeout) + " milliseconds");
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This thread sends a HEARTBEAT request to every started broker of a spawner at a regular
+ * interval.  A heartbeat is missed when the broker did not answer the previous heartbeat
+ * within the interval, i.e. during a long garbage collection, or when it answered that it
+ * is not healthy, i.e. some of its threads are deadlocked or it did not deliver a message
+ * sent to itself within half of the interval.  A broker that missed the
+ * allowed number of consecutive heartbeats is DEGRADED, its thread dump and garbage
+ * collection summary are captured and it is optionally recycled.  A degraded broker that
+ * answers a heartbeat is STARTED again.<p/>
+ *
+ * The thread dump is requested on the control connection.  When the broker does not answer
+ * it the broker is sent the QUIT signal which prints its thread dump on its standard
+ * output, the thread dump of the spawning process is captured for an embedded broker.
+ *
+ * @author Claudio Corsi
+ *
+ */
+final class BrokerServiceWatchdog extends Thread {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceWatchdog.class);
+
+	private final AbstractBrokerServiceSpawner spawner;
+	private final long interval;
+	private final int misses;
+	private final boolean recycle;
+	private final Map<BrokerServiceNode, Heartbeat> heartbeats = new HashMap<BrokerServiceNode, Heartbeat>();
+	private volatile boolean running = true;
+
+	/**
+	 * @param spawner
+	 * @param interval the number of milliseconds between two heartbeats
+	 * @param misses the number of consecutive heartbeats a broker can miss before it is degraded
+	 * @param recycle true if a degraded broker is forcibly stopped once its thread dump was
+	 * 		captured so that it is restarted by the supervisor
+	 */
+	BrokerServiceWatchdog(AbstractBrokerServiceSpawner spawner, long interval, int misses, boolean recycle) {
+		super("BrokerServiceWatchdog");
+		this.spawner = spawner;
+		this.interval = interval;
+		this.misses = misses;
+		this.recycle = recycle;
+		setDaemon(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Thread#run()
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				check();
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * This will check the answer of the previous heartbeat of every started broker and send
+	 * it the next one.
+	 */
+	void check() {
+		for (Iterator<BrokerServiceNode> nodes = heartbeats.keySet().iterator() ; nodes.hasNext() ; ) {
+			BrokerServiceNode node = nodes.next();
+			if (!spawner.getBrokerNodes().contains(node)) {
+				// The broker was retired
+				nodes.remove();
+			}
+		}
+		for (BrokerServiceNode node : spawner.getBrokerNodes()) {
+			StateEnum state = node.getState();
+			BrokerServiceManager manager = node.getManager();
+			if ((state != StateEnum.STARTED && state != StateEnum.DEGRADED) || manager == null || manager.isClosed()) {
+				heartbeats.remove(node);
+				continue;
+			}
+			Heartbeat heartbeat = heartbeats.get(node);
+			if (heartbeat == null || heartbeat.manager != manager) {
+				// The broker was started or restarted
+				heartbeat = new Heartbeat(manager);
+				heartbeats.put(node, heartbeat);
+			}
+			if (heartbeat.reply != null) {
+				if (!heartbeat.reply.isDone()) {
+					missed(node, heartbeat, "did not answer its heartbeat within " + interval + " milliseconds");
+				} else if (heartbeat.reply.getFailure() != null) {
+					missed(node, heartbeat, heartbeat.reply.getFailure().getMessage());
+				} else {
+					answered(node, heartbeat);
+				}
+			}
+			if (heartbeat.reply == null || heartbeat.reply.isDone()) {
+				try {
+					heartbeat.reply = manager.send(ControlCommandEnum.HEARTBEAT);
+				} catch (Exception e) {
+					// The control connection is being closed, the broker is handled by the supervisor
+					logger.debug("Unable to send a heartbeat to the broker " + node, e);
+				}
+			}
+		}
+	}
+
+	private void answered(BrokerServiceNode node, Heartbeat heartbeat) {
+		heartbeat.misses = 0;
+		node.setMissedHeartbeats(0);
+		if (node.getState() == StateEnum.DEGRADED) {
+			logger.info("The broker " + node + " answers its heartbeats again");
+			spawner.setBrokerState(node, StateEnum.STARTED);
+		}
+	}
+
+	private void missed(final BrokerServiceNode node, final Heartbeat heartbeat, String reason) {
+		heartbeat.misses++;
+		node.setMissedHeartbeats(heartbeat.misses);
+		logger.debug("The broker " + node + " " + reason);
+		if (heartbeat.misses != misses) {
+			return;
+		}
+		logger.warn("The broker " + node + " missed " + misses + " heartbeats, the last one " + reason);
+		spawner.setBrokerState(node, StateEnum.DEGRADED);
+		// The broker could take some time to answer, the other brokers are still checked
+		new Thread("BrokerServiceWatchdog-" + node.getIdentifier()) {
+			{ setDaemon(true); start(); }
+
+			public void run() {
+				String diagnostics = captureDiagnostics(node, heartbeat.manager);
+				node.setDiagnostics(diagnostics);
+				logger.warn("The diagnostics of the degraded broker " + node + ":\n" + diagnostics);
+				if (recycle && running && node.getState() == StateEnum.DEGRADED) {
+					logger.warn("Recycling the degraded broker " + node);
+					if (heartbeat.manager.getProcessId() > 0) {
+						spawner.killBroker(node);
+					} else {
+						// An embedded broker stops once its control connection is closed, it is
+						// forcibly stopped before it is restarted if it does not exit
+						heartbeat.manager.close();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param node
+	 * @param manager
+	 * @return the thread dump and garbage collection summary of the passed broker
+	 */
+	private String captureDiagnostics(BrokerServiceNode node, BrokerServiceManager manager) {
+		try {
+			// The broker is given as much time as it was given to answer its heartbeats
+			return manager.send(ControlCommandEnum.DUMP).get(interval * misses, TimeUnit.MILLISECONDS).getText();
+		} catch (Exception e) {
+			logger.debug("The broker " + node + " did not answer the thread dump request", e);
+		}
+		long processId = manager.getProcessId();
+		if (processId > 0) {
+			if (ProcessSignals.signal(processId, "QUIT")) {
+				return "The thread dump was printed on the standard output of the process " + processId;
+			}
+			return "Unable to capture the thread dump of the process " + processId;
+		}
+		// The broker runs within this process
+		return BrokerServiceProcess.getDiagnostics();
+	}
+
+	/**
+	 * This will stop sending heartbeats.
+	 *
+	 * @throws InterruptedException
+	 */
+	void close() throws InterruptedException {
+		running = false;
+		interrupt();
+		join();
+	}
+
+	/**
+	 * The heartbeats sent to a single broker.
+	 */
+	private static class Heartbeat {
+
+		private final BrokerServiceManager manager;
+		private BrokerServiceFuture<BrokerServiceControlFrame> reply;
+		private int misses;
+
+		Heartbeat(BrokerServiceManager manager) {
+			this.manager = manager;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.valhalla.tools.process.Spawner;
+
+/**
+ * This class keeps a pool of spawned java processes that have already loaded and warmed up
+ * the broker classes.  A POOLED broker is started by handing its settings to one of the idle
+ * workers instead of spawning a new java process.  The pool is refilled in the background
+ * every time a worker is handed a broker, this way the pool can be shared by consecutive
+ * topologies without ever waiting for a cold java process.
+ *
+ * The jvm arguments of the workers are the ones passed to the pool, the arguments added by
+ * the addToJVMArgs method of a spawner are not used by the pooled workers.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceWorkerPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrokerServiceWorkerPool.class);
+
+	private static BrokerServiceWorkerPool defaultPool;
+
+	private final int size;
+	private final List<String> jvmArgs;
+	private final ServerSocket server;
+	private final BlockingQueue<Socket> idle = new LinkedBlockingQueue<Socket>();
+	private final Map<String, Spawner> spawners = new ConcurrentHashMap<String, Spawner>();
+	private final Map<Socket, Spawner> workers = new ConcurrentHashMap<Socket, Spawner>();
+	private final AtomicInteger workerCount = new AtomicInteger();
+	private final ExecutorService refiller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BrokerServiceWorkerPool-refill");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private long acquireTimeout = Long.getLong("broker.service.pool.acquire.timeout", 60000);
+	private volatile boolean active = true;
+
+	/**
+	 * @param size The number of idle workers that the pool will keep
+	 * @param jvmArgs The jvm arguments used to spawn the workers
+	 * @throws IOException
+	 */
+	public BrokerServiceWorkerPool(int size, List<String> jvmArgs) throws IOException {
+		this.size = size;
+		this.jvmArgs = new LinkedList<String>(jvmArgs);
+		this.server = new ServerSocket(0);
+		new Thread(new Runnable() {
+			public void run() {
+				while (active) {
+					try {
+						Socket socket = server.accept();
+						// The worker identifies itself once it has been warmed up
+						String identifier = new DataInputStream(socket.getInputStream()).readUTF();
+						Spawner spawner = spawners.remove(identifier);
+						if (spawner != null) {
+							workers.put(socket, spawner);
+							idle.add(socket);
+						} else {
+							socket.close();
+						}
+					} catch (IOException e) {
+						if (active) {
+							logger.debug("Received an exception while accepting a pooled worker", e);
+						}
+					}
+				}
+			}
+		}, "BrokerServiceWorkerPool-accept") {
+			{
+				setDaemon(true);
+				start();
+			}
+		};
+		for (int idx = 0; idx < size; idx++) {
+			refill();
+		}
+	}
+
+	/**
+	 * @return the pool shared by the spawners that did not set their own pool.  It contains
+	 * 		broker.service.pool.size workers, 4 by default.  Its idle workers are stopped when
+	 * 		the spawning process exits.
+	 * @throws IOException
+	 */
+	public static synchronized BrokerServiceWorkerPool getDefaultPool() throws IOException {
+		if (defaultPool == null) {
+			final BrokerServiceWorkerPool pool = new BrokerServiceWorkerPool(
+					Integer.getInteger("broker.service.pool.size", 4), new LinkedList<String>());
+			// The default pool outlives the spawners that use it, it is only released on exit
+			Runtime.getRuntime().addShutdownHook(new Thread("BrokerServiceWorkerPool-shutdown") {
+				@Override
+				public void run() {
+					pool.shutdown();
+				}
+			});
+			defaultPool = pool;
+		}
+		return defaultPool;
+	}
+
+	/**
+	 * This method will hand the passed broker settings to an idle worker and return the
+	 * spawner of the worker that is now executing the broker.
+	 *
+	 * @param settings The settings passed to the BrokerServiceProcess executeBroker method
+	 * @return the spawner of the worker executing the broker
+	 * @throws IOException if no worker was available within the acquire timeout
+	 * @throws InterruptedException
+	 */
+	public Spawner execute(Properties settings) throws IOException, InterruptedException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		settings.store(baos, null);
+		byte data[] = baos.toByteArray();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+		while (active) {
+			Socket socket = idle.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			if (socket == null) {
+				break;
+			}
+			Spawner spawner = workers.remove(socket);
+			// Replace the worker that we are about to use
+			refill();
+			try {
+				DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+				dos.writeInt(data.length);
+				dos.write(data);
+				dos.flush();
+				return spawner;
+			} catch (IOException e) {
+				// The idle worker has exited, try the next one.
+				logger.debug("Unable to hand the broker settings to a pooled worker", e);
+			} finally {
+				socket.close();
+			}
+		}
+		throw new IOException("No pooled worker was available after " + acquireTimeout + " milliseconds");
+	}
+
+	/**
+	 * This will stop all of the idle workers.  The workers that are executing a broker are
+	 * not affected.
+	 */
+	public void shutdown() {
+		active = false;
+		refiller.shutdownNow();
+		try {
+			server.close();
+		} catch (IOException e) {
+			logger.debug("Received an exception while closing the pooled worker server socket", e);
+		}
+		Socket socket;
+		while ((socket = idle.poll()) != null) {
+			try {
+				// The worker exits once its connection is closed
+				socket.close();
+			} catch (IOException e) {
+				logger.debug("Received an exception while closing a pooled worker", e);
+			}
+		}
+	}
+
+	/**
+	 * @param acquireTimeout the number of milliseconds to wait for an idle worker
+	 */
+	public void setAcquireTimeout(long acquireTimeout) {
+		this.acquireTimeout = acquireTimeout;
+	}
+
+	/**
+	 * @return the number of idle workers kept by this pool
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	private void refill() {
+		if (!active) {
+			return;
+		}
+		refiller.execute(new Runnable() {
+			public void run() {
+				if (!active) {
+					return;
+				}
+				String identifier = "BrokerServiceWorker" + workerCount.incrementAndGet();
+				Spawner spawner = new Spawner(BrokerServiceWorkerProcess.class.getName(), "execute");
+				List<String> args = new LinkedList<String>(jvmArgs);
+				if (Boolean.getBoolean("broker.service.cds")) {
+					ClassDataSharingArchive.getDefault().addToJVMArgs(args);
+				}
+				args.add("-Dbroker.service.worker.port=" + server.getLocalPort());
+				args.add("-Dbroker.service.worker.identifier=" + identifier);
+				spawner.setJVMArgs(args);
+				spawner.setIdentifier(identifier);
+				spawners.put(identifier, spawner);
+				try {
+					spawner.spawnProcess();
+				} catch (Exception e) {
+					spawners.remove(identifier);
+					logger.info("An exception was generated when spawning a pooled worker", e);
+				}
+			}
+		});
+	}
+}
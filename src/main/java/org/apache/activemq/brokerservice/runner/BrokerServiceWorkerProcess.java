@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.Socket;
+import java.util.Properties;
+
+import org.apache.activemq.broker.BrokerService;
+
+/**
+ * This is the process spawned by the BrokerServiceWorkerPool.  It will load and warm up the
+ * broker classes, inform the pool that it is ready and wait for the settings of the broker
+ * that it will execute.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceWorkerProcess {
+
+	private static final String WARMUP_CLASSES[] = {
+		"org.apache.activemq.broker.BrokerFactory",
+		"org.apache.activemq.xbean.XBeanBrokerFactory",
+		"org.apache.activemq.xbean.XBeanBrokerService",
+		"org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter",
+		"org.apache.activemq.store.kahadb.KahaDBStore",
+		"org.apache.activemq.transport.tcp.TcpTransportFactory",
+		"org.apache.activemq.openwire.OpenWireFormatFactory",
+		"org.apache.activemq.network.DiscoveryNetworkConnector",
+		"org.apache.activemq.network.DemandForwardingBridge",
+		"org.apache.xbean.spring.context.ResourceXmlApplicationContext",
+		"org.springframework.beans.factory.config.PropertyPlaceholderConfigurer",
+	};
+
+	public void execute() throws Exception {
+		String port = System.getProperty("broker.service.worker.port");
+		if (port == null) {
+			throw new RuntimeException("No port number was passed by the worker pool");
+		}
+
+		warmup();
+
+		Socket socket = new Socket("localhost", Integer.parseInt(port));
+		DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+		dos.writeUTF(System.getProperty("broker.service.worker.identifier", ""));
+		dos.flush();
+
+		System.out.println("WAITING FOR THE WORKER POOL TO HAND US A BROKER");
+		Properties settings = new Properties();
+		try {
+			DataInputStream dis = new DataInputStream(socket.getInputStream());
+			byte data[] = new byte[dis.readInt()];
+			dis.readFully(data);
+			settings.load(new ByteArrayInputStream(data));
+		} catch (EOFException e) {
+			// The pool was shutdown before we were used.
+			System.out.println("THE WORKER POOL WAS SHUTDOWN");
+			return;
+		} finally {
+			socket.close();
+		}
+
+		new BrokerServiceProcess().executeBroker(settings);
+	}
+
+	/**
+	 * This will load the classes used to start a broker and start and stop a non persistent
+	 * broker so that the code used by the broker has been executed at least once.
+	 */
+	private void warmup() {
+		for (String className : WARMUP_CLASSES) {
+			try {
+				Class.forName(className);
+			} catch (Throwable e) {
+				System.out.println("UNABLE TO LOAD " + className + ": " + e);
+			}
+		}
+		if (Boolean.parseBoolean(System.getProperty("broker.service.worker.warmup", "true"))) {
+			try {
+				BrokerService broker = new BrokerService();
+				broker.setBrokerName("warmup");
+				broker.setPersistent(false);
+				broker.setUseJmx(false);
+				broker.start();
+				broker.waitUntilStarted();
+				broker.stop();
+				broker.waitUntilStopped();
+			} catch (Exception e) {
+				System.out.println("UNABLE TO WARM UP THE BROKER: " + e);
+			}
+		}
+	}
+}
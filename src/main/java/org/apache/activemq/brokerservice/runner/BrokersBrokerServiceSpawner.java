@@ -17,8 +17,6 @@
 package org.apache.activemq.brokerservice.runner;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Properties;
 
 import org.slf4j.Logger;
@@ -113,21 +111,15 @@ public abstract class BrokersBrokerServiceSpawner extends AbstractBrokerServiceS
 			// Start the master broker for the given id
 			try {
 				String configFileName = prefix + "-" + brokerId + ".xml";
-				generateBrokerServiceConfigurationFiles(
-						properties, prefix + "-" + brokerId + ".properties",
+				BrokerServiceNode node = createBrokerNode("ActiveMQBroker" + brokerId,
+						RoleEnum.BROKER, properties, prefix + "-" + brokerId + ".properties",
 						prefix + ".xml", configFileName);
-				spawners[brokerId] = new Spawner(
-						BrokerServiceProcess.class.getName(), "execute");
-				List<String> jvmArgs = new LinkedList<String>();
-                                addToJVMArgs(jvmArgs);
-				jvmArgs.add("-Dbroker.config.file=xbean:" + configFileName);
-				spawners[brokerId].setJVMArgs(jvmArgs);
-				spawners[brokerId].setIdentifier("ActiveMQBroker" + brokerId);
-				spawners[brokerId].spawnProcess();
+				spawners[brokerId] = node.getSpawner();
 			} catch (Exception e) {
 				logger.debug("An exception was generated when spawning the embedded broker",e);
 			}
 		}
+		spawnBrokerNodes();
 	}
 
 	/**
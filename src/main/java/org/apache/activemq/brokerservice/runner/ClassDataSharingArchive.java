@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class manages the class data sharing archive used by the spawned brokers.  The
+ * archive is keyed by a hash of the java runtime and of the class path of the spawning
+ * process, including the size and modification time of every class path entry.
+ *
+ * When no archive exists for the current key the first spawned broker is started with the
+ * -XX:ArchiveClassesAtExit option, the archive is then written when this training broker
+ * exits.  The following brokers, including the ones of later runs, are started with the
+ * -XX:SharedArchiveFile option.  The directory can be shared by spawning processes using
+ * different class paths, the archives created for another key are only removed once they
+ * were not used during the retention period.
+ *
+ * The archive is only used when the java runtime supports dynamic archives, i.e. java 13
+ * or later.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class ClassDataSharingArchive {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClassDataSharingArchive.class);
+
+	private static final String PREFIX = "broker-";
+	private static final String SUFFIX = ".jsa";
+	private static final long STALE_TRAINING_PERIOD = 60 * 60 * 1000;
+
+	private static ClassDataSharingArchive defaultArchive;
+
+	private final File directory;
+	private final String key;
+	private long retentionPeriod = Long.getLong("broker.service.cds.retention", 7L * 24 * 60 * 60 * 1000);
+	private boolean training;
+	private boolean used;
+
+	/**
+	 * @param directory The directory that contains the archives
+	 * @param classPath The class path used by the spawned brokers
+	 */
+	public ClassDataSharingArchive(File directory, String classPath) {
+		this.directory = directory;
+		this.key = computeKey(classPath);
+	}
+
+	/**
+	 * @return the archive of the class path of this process that is stored in the
+	 * 		broker.service.cds.dir directory
+	 */
+	public static synchronized ClassDataSharingArchive getDefault() {
+		if (defaultArchive == null) {
+			File directory = new File(System.getProperty("broker.service.cds.dir",
+					new File(System.getProperty("java.io.tmpdir"), "broker-service-runner-cds").getPath()));
+			defaultArchive = new ClassDataSharingArchive(directory, System.getProperty("java.class.path"));
+		}
+		return defaultArchive;
+	}
+
+	/**
+	 * This method will add the class data sharing options to the passed jvm arguments.
+	 *
+	 * @param jvmArgs
+	 */
+	public synchronized void addToJVMArgs(List<String> jvmArgs) {
+		if (!isSupported()) {
+			return;
+		}
+		File archive = getArchiveFile();
+		if (archive.length() > 0) {
+			if (!used) {
+				// The modification time tells the other spawning processes that the archive is used
+				used = archive.setLastModified(System.currentTimeMillis());
+			}
+			jvmArgs.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+			jvmArgs.add("-Xshare:auto");
+		} else if (!training) {
+			try {
+				if (startTraining()) {
+					training = true;
+					logger.info("Creating the class data sharing archive " + archive);
+					jvmArgs.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+				}
+			} catch (IOException e) {
+				logger.info("Unable to create the class data sharing archive " + archive, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the archive file used with the current class path
+	 */
+	public File getArchiveFile() {
+		return new File(directory, PREFIX + key + SUFFIX);
+	}
+
+	/**
+	 * @param retentionPeriod the number of milliseconds after which an archive created for
+	 * 		another class path that was not used is removed, the default is taken from the
+	 * 		broker.service.cds.retention system property or 7 days
+	 */
+	public void setRetentionPeriod(long retentionPeriod) {
+		this.retentionPeriod = retentionPeriod;
+	}
+
+	/**
+	 * @return true if the java runtime supports dynamic class data sharing archives
+	 */
+	public static boolean isSupported() {
+		String version = System.getProperty("java.specification.version", "1");
+		if (version.startsWith("1.")) {
+			return false;
+		}
+		try {
+			return Integer.parseInt(version) >= 13;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private boolean startTraining() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create the " + directory + " directory");
+		}
+		// Remove the archives created using another class path that are not used anymore, the
+		// lock of another key is only removed once its training is stale
+		long now = System.currentTimeMillis();
+		File files[] = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(PREFIX) && !file.getName().startsWith(PREFIX + key)) {
+					long age = now - file.lastModified();
+					if (age > (file.getName().endsWith(".lock") ? STALE_TRAINING_PERIOD : retentionPeriod)) {
+						file.delete();
+					}
+				}
+			}
+		}
+		// Only a single process should train the archive
+		File lock = new File(directory, PREFIX + key + ".lock");
+		if (lock.exists() && System.currentTimeMillis() - lock.lastModified() > STALE_TRAINING_PERIOD) {
+			// The training broker did not create the archive
+			lock.delete();
+		}
+		return lock.createNewFile();
+	}
+
+	private static String computeKey(String classPath) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			update(digest, System.getProperty("java.home"));
+			update(digest, System.getProperty("java.vm.version"));
+			for (String entry : classPath.split(File.pathSeparator)) {
+				File file = new File(entry);
+				update(digest, file.getAbsolutePath());
+				update(digest, String.valueOf(file.length()));
+				update(digest, String.valueOf(file.lastModified()));
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte value : digest.digest()) {
+				sb.append(Character.forDigit((value >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(value & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Unable to compute the class data sharing archive key", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("Unable to compute the class data sharing archive key", e);
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+		digest.update(String.valueOf(value).getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+/**
+ * The commands of the frames exchanged on the control connection between the spawning
+ * process and a spawned broker.  The HELLO, STARTED and STOPPED frames are sent by the
+ * broker with a request id of zero, the other commands are requests sent by the spawning
+ * process that are answered by a REPLY or an ERROR frame using the same request id.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public enum ControlCommandEnum {
+	HELLO(1), STARTED(2), STOPPED(3), STOP(4), PING(5), STATS(6), GC(7), REPLY(8), ERROR(9),
+	HEARTBEAT(10), DUMP(11);
+
+	private final byte code;
+
+	private ControlCommandEnum(int code) {
+		this.code = (byte) code;
+	}
+
+	/**
+	 * @return the value used to encode this command
+	 */
+	public byte getCode() {
+		return code;
+	}
+
+	/**
+	 * @param code
+	 * @return the command encoded by the passed value
+	 * @throws IllegalArgumentException if the value does not encode a command
+	 */
+	public static ControlCommandEnum valueOf(byte code) {
+		for (ControlCommandEnum command : values()) {
+			if (command.code == code) {
+				return command;
+			}
+		}
+		throw new IllegalArgumentException("Unknown control command " + code);
+	}
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class will execute a BrokerServiceProcess within the spawning process instead of a
+ * spawned java process.  Each broker is loaded by its own class loader that is created from
+ * the class path of the spawning process, this way the brokers do not share any static state
+ * like the vm transport registry or the broker registry.  The broker still connects to the
+ * control socket of the spawning process which can manage it like any spawned broker.
+ *
+ * @author Claudio Corsi
+ *
+ */
+class EmbeddedBrokerService {
+
+	private static final Logger logger = LoggerFactory.getLogger(EmbeddedBrokerService.class);
+
+	private final String identifier;
+	private final Properties settings;
+	private Thread thread;
+
+	EmbeddedBrokerService(String identifier, Properties settings) {
+		this.identifier = identifier;
+		this.settings = settings;
+	}
+
+	/**
+	 * This will start the broker within its own thread and class loader.  The class loader is
+	 * closed once the thread completes so that the jar files it opened are released.
+	 *
+	 * @throws MalformedURLException
+	 */
+	synchronized void start() throws MalformedURLException {
+		final ClassLoader classLoader = new URLClassLoader(getClassPath(),
+				ClassLoader.getSystemClassLoader().getParent());
+		thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Class<?> clazz = classLoader.loadClass(BrokerServiceProcess.class.getName());
+					Method method = clazz.getMethod("executeBroker", Properties.class);
+					method.invoke(clazz.getDeclaredConstructor().newInstance(), settings);
+				} catch (InvocationTargetException e) {
+					logger.info("The embedded broker " + identifier + " raised an exception", e.getCause());
+				} catch (Exception e) {
+					logger.info("Unable to execute the embedded broker " + identifier, e);
+				} finally {
+					close(classLoader);
+				}
+			}
+		}, "EmbeddedBroker:" + identifier);
+		thread.setContextClassLoader(classLoader);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return true if the broker thread has not completed
+	 */
+	synchronized boolean isAlive() {
+		return thread != null && thread.isAlive();
+	}
+
+	/**
+	 * This will interrupt the broker thread, it is used when the broker did not stop once it
+	 * was requested to.
+	 */
+	synchronized void interrupt() {
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * The URLClassLoader is only Closeable as of Java 7, it is left to the garbage collector
+	 * on older java versions.
+	 */
+	private void close(ClassLoader classLoader) {
+		if (classLoader instanceof Closeable) {
+			try {
+				((Closeable) classLoader).close();
+			} catch (IOException e) {
+				logger.debug("Unable to close the class loader of the embedded broker " + identifier, e);
+			}
+		}
+	}
+
+	private static URL[] getClassPath() throws MalformedURLException {
+		List<URL> urls = new LinkedList<URL>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (entry.length() > 0) {
+				urls.add(new File(entry).toURI().toURL());
+			}
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+}
@@ -16,8 +16,9 @@
  */
 package org.apache.activemq.brokerservice.runner;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.valhalla.tools.process.Spawner;
@@ -26,7 +27,8 @@ import org.valhalla.tools.process.Spawner;
  * @author Claudio Corsi
  *
  */
-public abstract class HubSpokeBrokerServiceSpawner extends AbstractBrokerServiceSpawner {
+public abstract class HubSpokeBrokerServiceSpawner extends AbstractBrokerServiceSpawner
+		implements IElasticBrokerServiceSpawner {
 
 	private static final int defaultNumberOfHubs = 1;
 	private static final int defaultNumberofSpokesPerHub = 5;
@@ -36,6 +38,10 @@ public abstract class HubSpokeBrokerServiceSpawner extends AbstractBrokerService
 
 	private int amqPort = 61616;
 	
+	private final Map<BrokerServiceNode, Integer> hubIds = new HashMap<BrokerServiceNode, Integer>();
+	
+	private final Map<BrokerServiceNode, Integer> spokeCounts = new HashMap<BrokerServiceNode, Integer>();
+	
 	public enum TYPE { HUB, SPOKE }
 	
 	/**
@@ -85,57 +91,30 @@ public abstract class HubSpokeBrokerServiceSpawner extends AbstractBrokerService
 		int spawnIdx = 0;
 		Properties properties;
 		for(int id = 0 ; id < numberOfHubs ; id++) {
+			BrokerServiceNode hub = null;
 			// Start the hub broker for the given id
 			try {
 				properties = new Properties();
-				populateProperties(TYPE.HUB, properties, id);
+				populateProperties(TYPE.HUB, properties, id, null);
 				String hubTemplatePrefix = getHubTemplatePrefix();
 				String hubPropertyFileName = hubTemplatePrefix + "-" + id + ".properties";
 				String hubTemplateFileName = hubTemplatePrefix + ".xml";
 				String hubConfigFileName = hubTemplatePrefix + "-" + id + ".xml";
-				generateBrokerServiceConfigurationFiles(
-						properties, hubPropertyFileName,
-						hubTemplateFileName, hubConfigFileName);
-				spawners[spawnIdx] = new Spawner(BrokerServiceProcess.class.getName(), "execute");
-				List<String> jvmArgs = new LinkedList<String>();
-                                addToJVMArgs(jvmArgs);
-				jvmArgs.add("-Dbroker.config.file=xbean:" + hubConfigFileName);
-				spawners[spawnIdx].setJVMArgs(jvmArgs);
-				spawners[spawnIdx].setIdentifier("Hub:" + id);
-				spawners[spawnIdx].spawnProcess();
+				hub = createBrokerNode("Hub:" + id, RoleEnum.HUB, properties,
+						hubPropertyFileName, hubTemplateFileName, hubConfigFileName);
+				spawners[spawnIdx] = hub.getSpawner();
+				hubIds.put(hub, id);
+				spokeCounts.put(hub, numberOfSpokesPerHub);
 			} catch (Exception e) {
 				System.err.println("An exception was generated when spawning the embedded broker");
 				e.printStackTrace();
 			}
-			
-			try {
-				// sleep for 5 seconds to allow the spawner hub broker to startup properly....
-				Thread.sleep(5000); 
-			} catch (InterruptedException e) {
-			}
 			spawnIdx++;
 			for (int spoke = 0; spoke < numberOfSpokesPerHub; spoke++) {
-				// Start the spoke broker for the given id
+				// Start the spoke broker for the given id once its hub is ready
 				try {
-					properties = new Properties();
-					populateProperties(TYPE.SPOKE, properties, spoke);
-					String spokeTemplatePrefix = getSpokeTemplatePrefix();
-					String spokePropertyFileName = spokeTemplatePrefix + "-" + id + "-" + spoke
-							+ ".properties";
-					String spokeTemplateFileName = spokeTemplatePrefix
-							+ ".xml";
-					String spokeConfigFileName = spokeTemplatePrefix + "-" + id
-							+ "-" + spoke + ".xml";
-					generateBrokerServiceConfigurationFiles(properties,
-							spokePropertyFileName, spokeTemplateFileName, spokeConfigFileName);
-					spawners[spawnIdx] = new Spawner(
-							BrokerServiceProcess.class.getName(), "execute");
-					List<String> jvmArgs = new LinkedList<String>();
-                                        addToJVMArgs(jvmArgs);
-					jvmArgs.add("-Dbroker.config.file=xbean:" + spokeConfigFileName);
-					spawners[spawnIdx].setJVMArgs(jvmArgs);
-					spawners[spawnIdx].setIdentifier("Spoke:" + id + ":" + spoke);
-					spawners[spawnIdx].spawnProcess();
+					BrokerServiceNode node = createSpokeNode(hub, id, spoke);
+					spawners[spawnIdx] = node.getSpawner();
 				} catch (Exception e) {
 					System.err
 							.println("An exception was generated when spawning the embedded broker");
@@ -144,6 +123,53 @@ public abstract class HubSpokeBrokerServiceSpawner extends AbstractBrokerService
 				spawnIdx++;
 			}
 		}
+		spawnBrokerNodes();
+	}
+
+	private BrokerServiceNode createSpokeNode(BrokerServiceNode hub, int id, int spoke) throws IOException {
+		Properties properties = new Properties();
+		populateProperties(TYPE.SPOKE, properties, spoke, hub);
+		String spokeTemplatePrefix = getSpokeTemplatePrefix();
+		String spokePropertyFileName = spokeTemplatePrefix + "-" + id + "-" + spoke
+				+ ".properties";
+		String spokeTemplateFileName = spokeTemplatePrefix
+				+ ".xml";
+		String spokeConfigFileName = spokeTemplatePrefix + "-" + id
+				+ "-" + spoke + ".xml";
+		return createBrokerNode("Spoke:" + id + ":" + spoke,
+				RoleEnum.SPOKE, properties, spokePropertyFileName,
+				spokeTemplateFileName, spokeConfigFileName, hub);
+	}
+
+	/**
+	 * This will add a spoke to the passed running hub.  The configuration of the spoke is
+	 * generated the same way as the configuration of the spokes started with the hub and it
+	 * returns once the spoke was started.
+	 * 
+	 * @param hub
+	 * @return the added spoke
+	 * @throws IOException
+	 */
+	public BrokerServiceNode addSpoke(BrokerServiceNode hub) throws IOException {
+		int spoke;
+		Integer id;
+		synchronized (this) {
+			id = hubIds.get(hub);
+			if (id == null) {
+				throw new IllegalArgumentException("The broker " + hub + " is not a hub of this topology");
+			}
+			// The indexes of the retired spokes are not reused
+			spoke = spokeCounts.get(hub);
+			spokeCounts.put(hub, spoke + 1);
+		}
+		return startAddedBrokerNode(createSpokeNode(hub, id, spoke));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.IElasticBrokerServiceSpawner#addBroker(org.apache.activemq.brokerservice.runner.BrokerServiceNode)
+	 */
+	public BrokerServiceNode addBroker(BrokerServiceNode parent) throws IOException {
+		return addSpoke(parent);
 	}
 
 	/**
@@ -156,6 +182,21 @@ public abstract class HubSpokeBrokerServiceSpawner extends AbstractBrokerService
 	 */
 	protected abstract void populateProperties(TYPE type, Properties properties, int idx);
 
+	/**
+	 * This method is called instead of the populateProperties(TYPE, Properties, int) method
+	 * when the hub of a spoke is known, it is always the case for the spokes that are added
+	 * to a running hub.  It calls the populateProperties(TYPE, Properties, int) method by
+	 * default.
+	 * 
+	 * @param type
+	 * @param properties
+	 * @param idx
+	 * @param hub the hub of the spoke or null for a hub
+	 */
+	protected void populateProperties(TYPE type, Properties properties, int idx, BrokerServiceNode hub) {
+		populateProperties(type, properties, idx);
+	}
+
 	/**
 	 * This method will return the prefixed name of the hub template without the .xml suffix.
 	 * It is assumed that the template is a file with the .xml extension.
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * This is implemented by the spawners whose running topology can grow and shrink, i.e. the
+ * hub and spoke and the network of brokers topologies.
+ *
+ * @author Claudio Corsi
+ *
+ * @see BrokerServiceScalingPolicy
+ */
+public interface IElasticBrokerServiceSpawner {
+
+	/**
+	 * This will add a broker to the running topology that depends on the passed broker, i.e. a
+	 * spoke to a hub.  It returns once the added broker was started.
+	 * 
+	 * @param parent
+	 * @return the added broker
+	 * @throws IOException
+	 */
+	BrokerServiceNode addBroker(BrokerServiceNode parent) throws IOException;
+
+	/**
+	 * @param node
+	 * @return true if the broker stopped by itself
+	 * @throws IOException
+	 * @see AbstractBrokerServiceSpawner#retireBroker(BrokerServiceNode)
+	 */
+	boolean retireBroker(BrokerServiceNode node) throws IOException;
+
+	/**
+	 * @param command
+	 * @return the future of the reply of every broker keyed by broker identifier
+	 * @throws IOException
+	 * @see AbstractBrokerServiceSpawner#broadcast(ControlCommandEnum)
+	 */
+	Map<String, BrokerServiceFuture<BrokerServiceControlFrame>> broadcast(ControlCommandEnum command) throws IOException;
+
+}
@@ -17,8 +17,6 @@
 package org.apache.activemq.brokerservice.runner;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Properties;
 
 import org.valhalla.tools.process.Spawner;
@@ -135,27 +133,22 @@ public abstract class MasterSlaveBrokerServiceSpawner extends AbstractBrokerServ
 		
 		spawners = new Spawner[2 * numberOfMasterSlavesPairs];
 		for(int id = 0 ; id < numberOfMasterSlavesPairs ; id++) {
+			BrokerServiceNode master = null;
 			// Start the master broker for the given id
 			try {
 				properties = new Properties();
 				populateProperties(TYPE.MASTER, properties, id);
 				String templatePrefix = this.getMasterTemplatePrefix();
 				String configFileName = templatePrefix + "-" + id + ".xml";
-				generateBrokerServiceConfigurationFiles(
-						properties, templatePrefix + "-" + id + ".properties",
+				master = createBrokerNode("Master" + id, RoleEnum.MASTER, properties,
+						templatePrefix + "-" + id + ".properties",
 						templatePrefix + ".xml", configFileName);
-				spawners[2 * id] = new Spawner(BrokerServiceProcess.class.getName(), "execute");
-				List<String> jvmArgs = new LinkedList<String>();
-                                addToJVMArgs(jvmArgs);
-				jvmArgs.add("-Dbroker.config.file=xbean:" + configFileName);
-				spawners[2 * id].setJVMArgs(jvmArgs);
-				spawners[2 * id].setIdentifier("Master" + id);
-				spawners[2 * id].spawnProcess();
+				spawners[2 * id] = master.getSpawner();
 			} catch (Exception e) {
 				System.err.println("An exception was generated when spawning the embedded broker");
 				e.printStackTrace();
 			}
-			// Start the slave broker for the given id
+			// Start the slave broker for the given id once its master is ready
 			try {
 				/*
 				 * Properties:
@@ -167,26 +160,20 @@ public abstract class MasterSlaveBrokerServiceSpawner extends AbstractBrokerServ
 				 * 	- slave.hostname
 				 * 	- slave.port.number
 				 */
-				Thread.sleep(5000); // sleep for 5 seconds to allow the spawner master broker to startup properly....
 				String templatePrefix = this.getSlaveTemplatePrefix();
 				String configFileName = templatePrefix + "-" + id + ".xml";
 				properties = new Properties();
 				populateProperties(TYPE.SLAVE, properties, id);
-				generateBrokerServiceConfigurationFiles(
-						properties, templatePrefix + "-" + id + ".properties",
-						templatePrefix + ".xml", configFileName);
-				spawners[2 * id + 1] = new Spawner(BrokerServiceProcess.class.getName(), "execute");
-				List<String> jvmArgs = new LinkedList<String>();
-                                addToJVMArgs(jvmArgs);
-				jvmArgs.add("-Dbroker.config.file=xbean:" + configFileName);
-				spawners[2 * id + 1].setJVMArgs(jvmArgs);
-				spawners[2 * id + 1].setIdentifier("Slave" + id);
-				spawners[2 * id + 1].spawnProcess();
+				BrokerServiceNode slave = createBrokerNode("Slave" + id, RoleEnum.SLAVE, properties,
+						templatePrefix + "-" + id + ".properties",
+						templatePrefix + ".xml", configFileName, master);
+				spawners[2 * id + 1] = slave.getSpawner();
 			} catch(Exception e) {
 				System.err.println("An exception was generated when spawning the embedded broker");
 				e.printStackTrace();
 			}
 		}
+		spawnBrokerNodes();
 	}
 
 	protected Properties generateProperties(int id, String amqType,
@@ -17,8 +17,8 @@
 package org.apache.activemq.brokerservice.runner;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.slf4j.Logger;
@@ -29,7 +29,8 @@ import org.valhalla.tools.process.Spawner;
  * @author Claudio Corsi
  *
  */
-public abstract class NetworkBrokersBrokerServiceSpawner extends AbstractBrokerServiceSpawner {
+public abstract class NetworkBrokersBrokerServiceSpawner extends AbstractBrokerServiceSpawner
+		implements IElasticBrokerServiceSpawner {
 
 	private static final Logger logger = LoggerFactory.getLogger(NetworkBrokersBrokerServiceSpawner.class);
 	
@@ -38,6 +39,10 @@ public abstract class NetworkBrokersBrokerServiceSpawner extends AbstractBrokerS
 
 	private int amqPort = 61616;
 	
+	private final Map<BrokerServiceNode, Integer> mainIds = new HashMap<BrokerServiceNode, Integer>();
+	
+	private final Map<BrokerServiceNode, Integer> networkedCounts = new HashMap<BrokerServiceNode, Integer>();
+	
 	/**
 	 * @author Claudio Corsi
 	 *
@@ -143,6 +148,21 @@ public abstract class NetworkBrokersBrokerServiceSpawner extends AbstractBrokerS
 	protected abstract String getNetworkedTemplatePrefix();
 	
 	protected abstract void populateProperties(TYPE type, Properties props, int id);
+
+	/**
+	 * This method is called instead of the populateProperties(TYPE, Properties, int) method
+	 * when the main broker of a networked broker is known, it is always the case for the
+	 * brokers that are added to a running network.  It calls the
+	 * populateProperties(TYPE, Properties, int) method by default.
+	 * 
+	 * @param type
+	 * @param props
+	 * @param id
+	 * @param main the main broker of the networked broker or null for a main broker
+	 */
+	protected void populateProperties(TYPE type, Properties props, int id, BrokerServiceNode main) {
+		populateProperties(type, props, id);
+	}
 	
 	/**
 	 * 
@@ -154,23 +174,19 @@ public abstract class NetworkBrokersBrokerServiceSpawner extends AbstractBrokerS
 		spawners = new Spawner[numberOfNetworkBrokers * numberOfNetworks];
 		int idx = 0;
 		for(int net = 0 ; net < numberOfNetworks ; net++) {
+			BrokerServiceNode main = null;
 			properties = new Properties();
-			populateProperties(TYPE.MAIN, properties, net);
+			populateProperties(TYPE.MAIN, properties, net, null);
 			// Start the master broker for the given id
 			try {
 				String mainTemplatePrefix = getMainTemplatePrefix();
 				String mainConfigFileName = "main-activemq-" + net + "-0" + ".xml";
-				generateBrokerServiceConfigurationFiles(
-						properties, mainTemplatePrefix + "-" + net + "-0" + ".properties",
+				main = createBrokerNode("MainBroker" + net + "-0", RoleEnum.MAIN, properties,
+						mainTemplatePrefix + "-" + net + "-0" + ".properties",
 						mainTemplatePrefix + ".xml", mainConfigFileName );
-				spawners[idx] = new Spawner(
-						BrokerServiceProcess.class.getName(), "execute");
-				List<String> jvmArgs = new LinkedList<String>();
-                                addToJVMArgs(jvmArgs);
-				jvmArgs.add("-Dbroker.config.file=xbean:" + mainConfigFileName);
-				spawners[idx].setJVMArgs(jvmArgs);
-				spawners[idx].setIdentifier("MainBroker" + net + "-0");
-				spawners[idx].spawnProcess();
+				spawners[idx] = main.getSpawner();
+				mainIds.put(main, net);
+				networkedCounts.put(main, numberOfNetworkBrokers);
 			} catch (Exception e) {
 				System.err
 						.println("An exception was generated when spawning the embedded broker");
@@ -178,22 +194,10 @@ public abstract class NetworkBrokersBrokerServiceSpawner extends AbstractBrokerS
 			}
 			idx++;
 			for(int id = 1 ; id < numberOfNetworkBrokers ; id++) {
-				properties = new Properties();
-				this.populateProperties(TYPE.NETWORKED, properties, id);
-				// Start the master broker for the given id
+				// Start the networked broker for the given id once its main broker is ready
 				try {
-					String networkedTemplatePrefix = getNetworkedTemplatePrefix();
-					String networkedConfigFileName = "network-activemq-" + net + "-" + id + ".xml";
-					generateBrokerServiceConfigurationFiles(properties, networkedTemplatePrefix + "-"
-							+ net + "-" + id + ".properties", networkedTemplatePrefix + ".xml",
-							networkedConfigFileName);
-					spawners[idx] = new Spawner(BrokerServiceProcess.class.getName(), "execute");
-					List<String> jvmArgs = new LinkedList<String>();
-                                        addToJVMArgs(jvmArgs);
-					jvmArgs.add("-Dbroker.config.file=xbean:" + networkedConfigFileName);
-					spawners[idx].setJVMArgs(jvmArgs);
-					spawners[idx].setIdentifier("NetworkBroker" + net + "-" + id);
-					spawners[idx].spawnProcess();
+					BrokerServiceNode node = createNetworkedNode(main, net, id);
+					spawners[idx] = node.getSpawner();
 				} catch (Exception e) {
 					System.err.println("An exception was generated when spawning the embedded broker");
 					e.printStackTrace();
@@ -201,6 +205,50 @@ public abstract class NetworkBrokersBrokerServiceSpawner extends AbstractBrokerS
 				idx++;
 			}
 		}
+		spawnBrokerNodes();
+	}
+
+	private BrokerServiceNode createNetworkedNode(BrokerServiceNode main, int net, int id) throws IOException {
+		Properties properties = new Properties();
+		this.populateProperties(TYPE.NETWORKED, properties, id, main);
+		String networkedTemplatePrefix = getNetworkedTemplatePrefix();
+		String networkedConfigFileName = "network-activemq-" + net + "-" + id + ".xml";
+		return createBrokerNode("NetworkBroker" + net + "-" + id,
+				RoleEnum.NETWORKED, properties, networkedTemplatePrefix + "-"
+				+ net + "-" + id + ".properties", networkedTemplatePrefix + ".xml",
+				networkedConfigFileName, main);
+	}
+
+	/**
+	 * This will add a networked broker to the network of the passed running main broker.  The
+	 * configuration of the broker is generated the same way as the configuration of the
+	 * networked brokers started with the main broker and it returns once the broker was
+	 * started.
+	 * 
+	 * @param main
+	 * @return the added networked broker
+	 * @throws IOException
+	 */
+	public BrokerServiceNode addNetworkedBroker(BrokerServiceNode main) throws IOException {
+		int id;
+		Integer net;
+		synchronized (this) {
+			net = mainIds.get(main);
+			if (net == null) {
+				throw new IllegalArgumentException("The broker " + main + " is not a main broker of this topology");
+			}
+			// The ids of the retired brokers are not reused
+			id = networkedCounts.get(main);
+			networkedCounts.put(main, id + 1);
+		}
+		return startAddedBrokerNode(createNetworkedNode(main, net, id));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.IElasticBrokerServiceSpawner#addBroker(org.apache.activemq.brokerservice.runner.BrokerServiceNode)
+	 */
+	public BrokerServiceNode addBroker(BrokerServiceNode parent) throws IOException {
+		return addNetworkedBroker(parent);
 	}
 
 	/**
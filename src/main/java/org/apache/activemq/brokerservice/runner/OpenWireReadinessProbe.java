@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * This probe considers a broker ready once its openwire transport accepts a connection and
+ * sends the WireFormatInfo command that starts the openwire handshake.  The command is not
+ * unmarshalled, the probe only looks for the ActiveMQ magic within the first bytes sent by
+ * the broker.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class OpenWireReadinessProbe extends TcpConnectReadinessProbe {
+
+	private static final byte MAGIC[] = { 'A', 'c', 't', 'i', 'v', 'e', 'M', 'Q' };
+
+	private int readTimeout = 1000;
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.TcpConnectReadinessProbe#isReady(java.net.Socket)
+	 */
+	@Override
+	protected boolean isReady(Socket socket) throws IOException {
+		socket.setSoTimeout(readTimeout);
+		InputStream is = socket.getInputStream();
+		byte buffer[] = new byte[64];
+		int length = 0;
+		try {
+			int read;
+			while (length < buffer.length
+					&& (read = is.read(buffer, length, buffer.length - length)) != -1) {
+				length += read;
+				if (contains(buffer, length, MAGIC)) {
+					return true;
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			// The broker did not start the handshake in time
+		}
+		return false;
+	}
+
+	private static boolean contains(byte buffer[], int length, byte pattern[]) {
+		for (int start = 0; start + pattern.length <= length; start++) {
+			int idx = 0;
+			while (idx < pattern.length && buffer[start + idx] == pattern[idx]) {
+				idx++;
+			}
+			if (idx == pattern.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param readTimeout the number of milliseconds to wait for the WireFormatInfo command
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.util.Properties;
+
+/**
+ * The persistence profiles that the spawners apply to the properties of a broker.  A profile
+ * sets the broker.persistent property and the kahadb.* properties used by the templates and
+ * by the BrokerServiceFactory to tune the KahaDB store:
+ *
+ * <ul>
+ * <li>DEFAULT uses the KahaDB defaults</li>
+ * <li>DURABLE_FSYNC syncs the journal and only dispatches a queue message once it is stored</li>
+ * <li>ASYNC_JOURNAL does not sync the journal and uses larger journal files and index batches</li>
+ * <li>LARGE_INDEX_CACHE keeps ten times more index pages in memory</li>
+ * <li>IN_MEMORY does not store the messages at all</li>
+ * </ul>
+ *
+ * @author Claudio Corsi
+ *
+ */
+public enum PersistenceProfileEnum {
+	DEFAULT(true, true, 32 * 1024 * 1024, 10000, 1000, true, false),
+	DURABLE_FSYNC(true, true, 32 * 1024 * 1024, 10000, 1000, false, false),
+	ASYNC_JOURNAL(true, false, 64 * 1024 * 1024, 10000, 10000, true, true),
+	LARGE_INDEX_CACHE(true, true, 32 * 1024 * 1024, 100000, 10000, true, false),
+	IN_MEMORY(false, false, 32 * 1024 * 1024, 10000, 1000, true, false);
+
+	public static final String PERSISTENT = "broker.persistent";
+	public static final String ENABLE_JOURNAL_DISK_SYNCS = "kahadb.enable.journal.disk.syncs";
+	public static final String JOURNAL_MAX_FILE_LENGTH = "kahadb.journal.max.file.length";
+	public static final String INDEX_CACHE_SIZE = "kahadb.index.cache.size";
+	public static final String INDEX_WRITE_BATCH_SIZE = "kahadb.index.write.batch.size";
+	public static final String CONCURRENT_STORE_AND_DISPATCH_QUEUES = "kahadb.concurrent.store.and.dispatch.queues";
+	public static final String CONCURRENT_STORE_AND_DISPATCH_TOPICS = "kahadb.concurrent.store.and.dispatch.topics";
+
+	private final Properties properties = new Properties();
+
+	private PersistenceProfileEnum(boolean persistent, boolean enableJournalDiskSyncs,
+			int journalMaxFileLength, int indexCacheSize, int indexWriteBatchSize,
+			boolean concurrentStoreAndDispatchQueues, boolean concurrentStoreAndDispatchTopics) {
+		properties.setProperty(PERSISTENT, String.valueOf(persistent));
+		properties.setProperty(ENABLE_JOURNAL_DISK_SYNCS, String.valueOf(enableJournalDiskSyncs));
+		properties.setProperty(JOURNAL_MAX_FILE_LENGTH, String.valueOf(journalMaxFileLength));
+		properties.setProperty(INDEX_CACHE_SIZE, String.valueOf(indexCacheSize));
+		properties.setProperty(INDEX_WRITE_BATCH_SIZE, String.valueOf(indexWriteBatchSize));
+		properties.setProperty(CONCURRENT_STORE_AND_DISPATCH_QUEUES, String.valueOf(concurrentStoreAndDispatchQueues));
+		properties.setProperty(CONCURRENT_STORE_AND_DISPATCH_TOPICS, String.valueOf(concurrentStoreAndDispatchTopics));
+	}
+
+	/**
+	 * This will add the properties of this profile to the passed properties.  The properties
+	 * that were already set, i.e. by the populateProperties method of a spawner, are kept.
+	 *
+	 * @param brokerProperties
+	 */
+	public void apply(Properties brokerProperties) {
+		for (String name : properties.stringPropertyNames()) {
+			if (!brokerProperties.containsKey(name)) {
+				brokerProperties.setProperty(name, properties.getProperty(name));
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the properties set by this profile
+	 */
+	public Properties getProperties() {
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	/**
+	 * @param name the name of a profile, i.e. ASYNC_JOURNAL or async-journal
+	 * @return the matching profile
+	 */
+	public static PersistenceProfileEnum fromName(String name) {
+		return valueOf(name.trim().replace('-', '_').toUpperCase());
+	}
+}
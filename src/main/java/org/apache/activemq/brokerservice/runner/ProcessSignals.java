@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class sends signals to the spawned brokers using their process id.  It is used when
+ * a broker does not answer the requests sent on its control connection.  It also pins the
+ * spawned brokers to their processors.
+ *
+ * @author Claudio Corsi
+ *
+ */
+final class ProcessSignals {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProcessSignals.class);
+
+	private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+	private ProcessSignals() {
+	}
+
+	/**
+	 * This will send the passed signal to the passed process and wait for the command
+	 * sending it to complete.
+	 *
+	 * @param processId
+	 * @param signal The name of the signal like KILL or QUIT
+	 * @return true if the signal was sent
+	 */
+	static boolean signal(long processId, String signal) {
+		if (processId <= 0) {
+			return false;
+		}
+		String command[];
+		if (WINDOWS) {
+			if (!"KILL".equals(signal)) {
+				// Only the KILL signal has an equivalent on windows
+				return false;
+			}
+			command = new String[] { "taskkill", "/F", "/PID", String.valueOf(processId) };
+		} else {
+			command = new String[] { "kill", "-" + signal, String.valueOf(processId) };
+		}
+		return execute(command);
+	}
+
+	/**
+	 * This will pin every thread of the passed process to the passed processors using taskset.
+	 * The threads created afterwards inherit the processors of the thread creating them.
+	 *
+	 * @param processId
+	 * @param cpus a list of processors, i.e. 0-3,8
+	 * @return true if the process was pinned
+	 */
+	static boolean setAffinity(long processId, String cpus) {
+		if (processId <= 0 || WINDOWS) {
+			return false;
+		}
+		return execute(new String[] { "taskset", "-a", "-cp", cpus, String.valueOf(processId) });
+	}
+
+	/**
+	 * @param command
+	 * @return true if the command completed successfully
+	 */
+	private static boolean execute(String command[]) {
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			process.getOutputStream().close();
+			while (process.getInputStream().read() != -1) {
+				// Discard the output of the command
+			}
+			return process.waitFor() == 0;
+		} catch (IOException e) {
+			logger.debug("Unable to execute " + Arrays.toString(command), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * @param processId
+	 * @return true if the process was killed
+	 */
+	static boolean kill(long processId) {
+		return signal(processId, "KILL");
+	}
+}
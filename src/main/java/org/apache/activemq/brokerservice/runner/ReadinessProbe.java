@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+
+/**
+ * A readiness probe is used to determine if a spawned broker is ready to be used by the
+ * brokers that depend on it.  The probe is polled until it returns true or until the
+ * readiness timeout has expired.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public interface ReadinessProbe {
+
+	/**
+	 * @param node The broker to probe
+	 * @return true if the broker is ready
+	 * @throws IOException
+	 */
+	boolean isReady(BrokerServiceNode node) throws IOException;
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+
+/**
+ * This probe considers a broker ready once it has sent the started notification on the
+ * control socket.  The spawned brokers send the notification even when the notifyIfStarted
+ * system property is not set.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class StartedNotificationReadinessProbe implements ReadinessProbe {
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.ReadinessProbe#isReady(org.apache.activemq.brokerservice.runner.BrokerServiceNode)
+	 */
+	public boolean isReady(BrokerServiceNode node) throws IOException {
+		BrokerServiceManager manager = node.getManager();
+		return manager != null && manager.isStarted();
+	}
+
+}
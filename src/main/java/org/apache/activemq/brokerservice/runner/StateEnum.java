@@ -17,10 +17,17 @@
 package org.apache.activemq.brokerservice.runner;
 
 /**
+ * The states of the lifecycle of a broker.  A broker is STARTING until it reports that it
+ * was started and STOPPING once it was requested to stop.  A broker that exited without
+ * being requested to stop is CRASHED and is RESTARTING while it is restarted by the
+ * supervisor of its spawner.  A broker that stopped answering its heartbeats is DEGRADED
+ * until it answers them again.  The ordinal of the states is published on the status board,
+ * new states have to be added at the end.
+ *
  * @author Claudio Corsi
  *
  */
 public enum StateEnum {
-	INITIALIZED, STARTED, STOPPED
+	INITIALIZED, STARTED, STOPPED, STARTING, STOPPING, CRASHED, RESTARTING, DEGRADED
 
 }
@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * This probe considers a broker ready once its openwire transport accepts a connection.
+ * The transport address is taken from the properties used to generate the broker
+ * configuration, i.e. master.hostname/master.port.number for a master broker and
+ * hostname/port.number when no role specific property was set.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class TcpConnectReadinessProbe implements ReadinessProbe {
+
+	private int connectTimeout = 1000;
+
+	/* (non-Javadoc)
+	 * @see org.apache.activemq.brokerservice.runner.ReadinessProbe#isReady(org.apache.activemq.brokerservice.runner.BrokerServiceNode)
+	 */
+	public boolean isReady(BrokerServiceNode node) throws IOException {
+		InetSocketAddress address = getTransportAddress(node);
+		if (address == null) {
+			throw new IOException("No transport port number was defined for broker " + node);
+		}
+		Socket socket = new Socket();
+		try {
+			socket.connect(address, connectTimeout);
+			return isReady(socket);
+		} catch (IOException e) {
+			// The transport is not accepting connections yet
+			return false;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * This method is called once a connection was established with the broker transport.
+	 *
+	 * @param socket
+	 * @return true if the broker is ready
+	 * @throws IOException
+	 */
+	protected boolean isReady(Socket socket) throws IOException {
+		return true;
+	}
+
+	/**
+	 * @param node
+	 * @return the address of the openwire transport of the passed broker
+	 */
+	public static InetSocketAddress getTransportAddress(BrokerServiceNode node) {
+		Properties properties = node.getProperties();
+		String prefix = node.getRole().name().toLowerCase() + ".";
+		String port = properties.getProperty(prefix + "port.number",
+				properties.getProperty("port.number"));
+		if (port == null) {
+			return null;
+		}
+		String hostname = properties.getProperty(prefix + "hostname",
+				properties.getProperty("hostname", "localhost"));
+		return new InetSocketAddress(hostname, Integer.parseInt(port));
+	}
+
+	/**
+	 * @param connectTimeout the number of milliseconds to wait for a connection
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.load;
+
+import java.util.Arrays;
+
+/**
+ * This histogram records latencies using buckets whose width doubles for every power of two
+ * and that are split into 32 sub buckets, this way any value is recorded with a precision of
+ * about 3% using a fixed array and without allocating.  An instance is not thread safe, every
+ * thread records its own histogram and the histograms are added once the threads completed.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long counts[] = new long[(64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS];
+	private long count;
+	private long total;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	/**
+	 * @param value the latency to record, a negative value is recorded as zero
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[index(value)]++;
+		count++;
+		total += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * @param other the histogram whose values are added to this histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for (int idx = 0 ; idx < counts.length ; idx++) {
+			counts[idx] += other.counts[idx];
+		}
+		count += other.count;
+		total += other.total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * This will remove all of the recorded values.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the smallest recorded value or zero if no value was recorded
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the mean of the recorded values
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * @param percentile a value between 0 and 100
+	 * @return the highest value of the bucket containing the passed percentile, it never
+	 * 		exceeds the largest recorded value
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int idx = 0 ; idx < counts.length ; idx++) {
+			seen += counts[idx];
+			if (seen >= rank) {
+				return Math.min(max, highestValue(idx));
+			}
+		}
+		return max;
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	static long highestValue(int index) {
+		int bucket = index >>> SUB_BUCKET_BITS;
+		int subBucket = index & (SUB_BUCKETS - 1);
+		if (bucket == 0) {
+			return subBucket;
+		}
+		int shift = bucket - 1;
+		return (((long) (SUB_BUCKETS + subBucket)) << shift) + (1L << shift) - 1;
+	}
+}
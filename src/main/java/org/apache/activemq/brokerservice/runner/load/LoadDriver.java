@@ -0,0 +1,517 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.load;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.brokerservice.runner.BrokerServiceNode;
+import org.apache.activemq.brokerservice.runner.BrokerServicePlacement;
+import org.apache.activemq.brokerservice.runner.TcpConnectReadinessProbe;
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This will load the brokers of a spawned topology using producers and consumers that
+ * connect to the brokers through a pooled connection factory.  The producers are either
+ * throttled, they then send at a fixed rate and the latency is measured from the time at
+ * which the message should have been sent, or they send as fast as the broker accepts the
+ * messages.  Every producer reuses the same message and payload so that the allocations of
+ * the driver do not distort the measurements of the brokers.<p/>
+ *
+ * The end to end latency is computed using the send time stored within the message, the
+ * producers and consumers therefore have to run within the same process.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class LoadDriver {
+
+	private static final Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+	/**
+	 * The name of the message property that contains the time at which the message was sent
+	 */
+	public static final String SEND_TIME_PROPERTY = "BrokerServiceLoadSendTime";
+
+	/**
+	 * The name of the message property that contains the index of the producer url
+	 */
+	public static final String PRODUCER_URL_PROPERTY = "BrokerServiceLoadProducerUrl";
+
+	private List<String> producerUrls = Arrays.asList(System.getProperty("broker.service.load.url", "tcp://localhost:61616"));
+	private List<String> consumerUrls = producerUrls;
+	private String destinationName = System.getProperty("broker.service.load.destination", "broker.service.load");
+	private boolean topic = Boolean.getBoolean("broker.service.load.topic");
+	private int producers = Integer.getInteger("broker.service.load.producers", 1);
+	private int consumers = Integer.getInteger("broker.service.load.consumers", 1);
+	private int messageSize = Integer.getInteger("broker.service.load.message.size", 1024);
+	private boolean persistent = Boolean.parseBoolean(System.getProperty("broker.service.load.persistent", "true"));
+	private int acknowledgeMode = getAcknowledgeMode(System.getProperty("broker.service.load.ack.mode", "AUTO"));
+	private int rate = Integer.getInteger("broker.service.load.rate", 0);
+	private long warmupMillis = Long.getLong("broker.service.load.warmup", 0);
+	private long durationMillis = Long.getLong("broker.service.load.duration", 10000);
+	private long drainMillis = Long.getLong("broker.service.load.drain", 2000);
+	private int maxConnections = Integer.getInteger("broker.service.load.connections", 8);
+
+	private volatile boolean stopping;
+	private volatile long measureStart;
+
+	/**
+	 * This will run the producers and consumers, the consumers are subscribed before the
+	 * producers start sending.
+	 *
+	 * @return the outcome of the run
+	 * @throws JMSException
+	 * @throws InterruptedException
+	 */
+	public LoadResult run() throws JMSException, InterruptedException {
+		stopping = false;
+		// Ignore the messages left over by a previous run
+		measureStart = Long.MAX_VALUE;
+		Map<String, PooledConnectionFactory> factories = new LinkedHashMap<String, PooledConnectionFactory>();
+		List<Client> producerClients = new ArrayList<Client>(producers);
+		List<Client> consumerClients = new ArrayList<Client>(consumers);
+		try {
+			CountDownLatch subscribed = new CountDownLatch(consumers);
+			for (int idx = 0 ; idx < consumers ; idx++) {
+				String url = consumerUrls.get(idx % consumerUrls.size());
+				Consumer consumer = new Consumer("consumer-" + idx, url, getFactory(factories, url), subscribed);
+				consumerClients.add(consumer);
+				consumer.start();
+			}
+			if (!subscribed.await(durationMillis + drainMillis, TimeUnit.MILLISECONDS)) {
+				throw new JMSException("The consumers were not subscribed within " + (durationMillis + drainMillis) + " milliseconds");
+			}
+
+			long start = System.nanoTime();
+			long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+			long sendUntil = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+			measureStart = measureFrom;
+			for (int idx = 0 ; idx < producers ; idx++) {
+				String url = producerUrls.get(idx % producerUrls.size());
+				Producer producer = new Producer("producer-" + idx, url, getFactory(factories, url),
+						measureFrom, sendUntil);
+				producerClients.add(producer);
+				producer.start();
+			}
+			for (Client producer : producerClients) {
+				producer.join();
+			}
+			// A throttled producer that fell behind its schedule sends past the end of the run
+			long elapsed = Math.max(System.nanoTime(), sendUntil) - measureFrom;
+
+			// Let the consumers drain the destination before stopping them
+			stopping = true;
+			long drainUntil = System.currentTimeMillis() + drainMillis;
+			for (Client consumer : consumerClients) {
+				consumer.join(Math.max(1, drainUntil - System.currentTimeMillis()));
+			}
+
+			long sent = 0, received = 0, errors = 0;
+			LatencyHistogram latencies = new LatencyHistogram();
+			Map<String, LatencyHistogram> consumerLatencies = new LinkedHashMap<String, LatencyHistogram>();
+			Map<String, LatencyHistogram> producerLatencies = new LinkedHashMap<String, LatencyHistogram>();
+			for (Client producer : producerClients) {
+				sent += producer.count;
+				errors += producer.failure == null ? 0 : 1;
+			}
+			for (Client client : consumerClients) {
+				Consumer consumer = (Consumer) client;
+				received += consumer.count;
+				errors += consumer.failure == null ? 0 : 1;
+				latencies.add(consumer.latencies);
+				LoadResult.add(consumerLatencies, consumer.url, consumer.latencies);
+				for (int idx = 0 ; idx < producerUrls.size() ; idx++) {
+					LoadResult.add(producerLatencies, producerUrls.get(idx), consumer.producerLatencies[idx]);
+				}
+			}
+			return new LoadResult(sent, received, errors, elapsed, latencies, consumerLatencies, producerLatencies);
+		} finally {
+			stopping = true;
+			for (Client client : consumerClients) {
+				client.interrupt();
+			}
+			for (PooledConnectionFactory factory : factories.values()) {
+				factory.stop();
+			}
+		}
+	}
+
+	private PooledConnectionFactory getFactory(Map<String, PooledConnectionFactory> factories, String url) {
+		PooledConnectionFactory factory = factories.get(url);
+		if (factory == null) {
+			factory = new PooledConnectionFactory(url);
+			factory.setMaxConnections(maxConnections);
+			factory.start();
+			factories.put(url, factory);
+		}
+		return factory;
+	}
+
+	private Session createSession(Connection connection) throws JMSException {
+		boolean transacted = acknowledgeMode == Session.SESSION_TRANSACTED;
+		return connection.createSession(transacted, transacted ? Session.AUTO_ACKNOWLEDGE : acknowledgeMode);
+	}
+
+	private Destination createDestination(Session session) throws JMSException {
+		return topic ? session.createTopic(destinationName) : session.createQueue(destinationName);
+	}
+
+	/**
+	 * This is the base class of the producers and consumers, the counters are only read once
+	 * the thread completed.
+	 */
+	private abstract class Client extends Thread {
+
+		protected final String url;
+		protected final PooledConnectionFactory factory;
+		protected long count;
+		protected Exception failure;
+		protected final LatencyHistogram latencies = new LatencyHistogram();
+
+		protected Client(String name, String url, PooledConnectionFactory factory) {
+			super(name);
+			this.url = url;
+			this.factory = factory;
+			setDaemon(true);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				Connection connection = factory.createConnection();
+				try {
+					connection.start();
+					Session session = createSession(connection);
+					try {
+						execute(session);
+					} finally {
+						session.close();
+					}
+				} finally {
+					connection.close();
+				}
+			} catch (Exception e) {
+				if (!stopping) {
+					logger.warn(getName() + " failed", e);
+					failure = e;
+				}
+			}
+		}
+
+		protected abstract void execute(Session session) throws JMSException;
+	}
+
+	private class Producer extends Client {
+
+		private final long measureFrom;
+		private final long sendUntil;
+
+		Producer(String name, String url, PooledConnectionFactory factory, long measureFrom, long sendUntil) {
+			super(name, url, factory);
+			this.measureFrom = measureFrom;
+			this.sendUntil = sendUntil;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.activemq.brokerservice.runner.load.LoadDriver.Client#execute(javax.jms.Session)
+		 */
+		@Override
+		protected void execute(Session session) throws JMSException {
+			MessageProducer producer = session.createProducer(createDestination(session));
+			producer.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+			// The same message and payload are sent over and over, only the send time changes
+			BytesMessage message = session.createBytesMessage();
+			message.writeBytes(new byte[messageSize]);
+			// This lets the consumers break down the latencies by producing broker
+			message.setIntProperty(PRODUCER_URL_PROPERTY, producerUrls.indexOf(url));
+			boolean transacted = session.getTransacted();
+			long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+			long next = System.nanoTime();
+			while (!stopping) {
+				long now = System.nanoTime();
+				if (interval > 0) {
+					while (now < next) {
+						LockSupport.parkNanos(next - now);
+						now = System.nanoTime();
+					}
+					// Use the intended send time so that a stalled broker is not hidden
+					now = next;
+					next += interval;
+				}
+				if (now >= sendUntil) {
+					break;
+				}
+				message.setLongProperty(SEND_TIME_PROPERTY, now);
+				producer.send(message);
+				if (transacted) {
+					session.commit();
+				}
+				if (now >= measureFrom) {
+					count++;
+				}
+			}
+			producer.close();
+		}
+	}
+
+	private class Consumer extends Client {
+
+		private final CountDownLatch subscribed;
+		private final LatencyHistogram producerLatencies[];
+
+		Consumer(String name, String url, PooledConnectionFactory factory, CountDownLatch subscribed) {
+			super(name, url, factory);
+			this.subscribed = subscribed;
+			this.producerLatencies = new LatencyHistogram[producerUrls.size()];
+			for (int idx = 0 ; idx < producerLatencies.length ; idx++) {
+				producerLatencies[idx] = new LatencyHistogram();
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.activemq.brokerservice.runner.load.LoadDriver.Client#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				// Do not let the driver wait for a consumer that failed to subscribe
+				subscribed.countDown();
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.activemq.brokerservice.runner.load.LoadDriver.Client#execute(javax.jms.Session)
+		 */
+		@Override
+		protected void execute(Session session) throws JMSException {
+			MessageConsumer consumer = session.createConsumer(createDestination(session));
+			subscribed.countDown();
+			boolean transacted = session.getTransacted();
+			boolean acknowledge = session.getAcknowledgeMode() == Session.CLIENT_ACKNOWLEDGE;
+			while (true) {
+				Message message = consumer.receive(100);
+				if (message == null) {
+					if (stopping) {
+						// The destination has been drained
+						break;
+					}
+					continue;
+				}
+				long sendTime = message.getLongProperty(SEND_TIME_PROPERTY);
+				long now = System.nanoTime();
+				if (transacted) {
+					session.commit();
+				} else if (acknowledge) {
+					message.acknowledge();
+				}
+				if (sendTime >= measureStart) {
+					latencies.record(now - sendTime);
+					Object producerUrl = message.getObjectProperty(PRODUCER_URL_PROPERTY);
+					if (producerUrl instanceof Integer && (Integer) producerUrl >= 0
+							&& (Integer) producerUrl < producerLatencies.length) {
+						producerLatencies[(Integer) producerUrl].record(now - sendTime);
+					}
+					count++;
+				}
+			}
+			consumer.close();
+		}
+	}
+
+	/**
+	 * @param node
+	 * @return the tcp url of the transport connector of the passed broker or null if its
+	 * 		port is unknown
+	 */
+	public static String getBrokerUrl(BrokerServiceNode node) {
+		InetSocketAddress address = TcpConnectReadinessProbe.getTransportAddress(node);
+		return address == null ? null : "tcp://" + address.getHostName() + ":" + address.getPort();
+	}
+
+	/**
+	 * @param acknowledgeMode AUTO, CLIENT, DUPS_OK or TRANSACTED
+	 * @return the matching session acknowledge mode
+	 */
+	public static int getAcknowledgeMode(String acknowledgeMode) {
+		String mode = acknowledgeMode.toUpperCase();
+		if ("AUTO".equals(mode)) {
+			return Session.AUTO_ACKNOWLEDGE;
+		} else if ("CLIENT".equals(mode)) {
+			return Session.CLIENT_ACKNOWLEDGE;
+		} else if ("DUPS_OK".equals(mode)) {
+			return Session.DUPS_OK_ACKNOWLEDGE;
+		} else if ("TRANSACTED".equals(mode)) {
+			return Session.SESSION_TRANSACTED;
+		}
+		throw new IllegalArgumentException("Unknown acknowledge mode: " + acknowledgeMode);
+	}
+
+	/**
+	 * @param brokerUrl the url used by both the producers and the consumers
+	 */
+	public void setBrokerUrl(String brokerUrl) {
+		setProducerUrls(brokerUrl);
+		setConsumerUrls(brokerUrl);
+	}
+
+	/**
+	 * @param producerUrls the urls the producers are assigned to in a round robin fashion
+	 */
+	public void setProducerUrls(String... producerUrls) {
+		if (producerUrls.length == 0) {
+			throw new IllegalArgumentException("At least one producer url is required");
+		}
+		this.producerUrls = Collections.unmodifiableList(Arrays.asList(producerUrls));
+	}
+
+	/**
+	 * @param consumerUrls the urls the consumers are assigned to in a round robin fashion
+	 */
+	public void setConsumerUrls(String... consumerUrls) {
+		if (consumerUrls.length == 0) {
+			throw new IllegalArgumentException("At least one consumer url is required");
+		}
+		this.consumerUrls = Collections.unmodifiableList(Arrays.asList(consumerUrls));
+	}
+
+	/**
+	 * @param destinationName
+	 */
+	public void setDestinationName(String destinationName) {
+		this.destinationName = destinationName;
+	}
+
+	/**
+	 * @param topic true if the messages are sent to a topic instead of a queue
+	 */
+	public void setTopic(boolean topic) {
+		this.topic = topic;
+	}
+
+	/**
+	 * @param producers
+	 */
+	public void setProducers(int producers) {
+		this.producers = producers;
+	}
+
+	/**
+	 * @param consumers
+	 */
+	public void setConsumers(int consumers) {
+		this.consumers = consumers;
+	}
+
+	/**
+	 * @param messageSize the number of bytes of the payload of every message
+	 */
+	public void setMessageSize(int messageSize) {
+		this.messageSize = messageSize;
+	}
+
+	/**
+	 * @param persistent
+	 */
+	public void setPersistent(boolean persistent) {
+		this.persistent = persistent;
+	}
+
+	/**
+	 * @param acknowledgeMode one of the Session acknowledge modes, Session.SESSION_TRANSACTED
+	 * 		commits every sent and received message
+	 */
+	public void setAcknowledgeMode(int acknowledgeMode) {
+		this.acknowledgeMode = acknowledgeMode;
+	}
+
+	/**
+	 * @param rate the number of messages sent per second by every producer, zero sends the
+	 * 		messages as fast as possible
+	 */
+	public void setRate(int rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * @param warmupMillis the time during which the messages are sent but not measured
+	 */
+	public void setWarmupMillis(long warmupMillis) {
+		this.warmupMillis = warmupMillis;
+	}
+
+	/**
+	 * @param durationMillis the time during which the messages are measured
+	 */
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * @param drainMillis the maximum time given to the consumers to receive the remaining
+	 * 		messages once the producers stopped
+	 */
+	public void setDrainMillis(long drainMillis) {
+		this.drainMillis = drainMillis;
+	}
+
+	/**
+	 * @param maxConnections the number of pooled connections per broker url
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public static void main(String args[]) throws Exception {
+		String cpus = System.getProperty("broker.service.load.cpus");
+		if (cpus != null && !BrokerServicePlacement.pinCurrentProcess(cpus)) {
+			logger.warn("Unable to pin the load driver to the processors " + cpus);
+		}
+		LoadDriver driver = new LoadDriver();
+		if (args.length > 0) {
+			driver.setBrokerUrl(args[0]);
+		}
+		LoadResult result = driver.run();
+		System.out.println(result);
+		System.exit(result.getErrors() == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.load;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This contains the outcome of a load driver run.  The counters and the latencies only
+ * include the messages that were sent after the warm up period.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class LoadResult {
+
+	private final long sent;
+	private final long received;
+	private final long errors;
+	private final long elapsedNanos;
+	private final LatencyHistogram latencies;
+	private final Map<String, LatencyHistogram> consumerLatencies;
+	private final Map<String, LatencyHistogram> producerLatencies;
+
+	LoadResult(long sent, long received, long errors, long elapsedNanos, LatencyHistogram latencies,
+			Map<String, LatencyHistogram> consumerLatencies, Map<String, LatencyHistogram> producerLatencies) {
+		this.sent = sent;
+		this.received = received;
+		this.errors = errors;
+		this.elapsedNanos = elapsedNanos;
+		this.latencies = latencies;
+		this.consumerLatencies = Collections.unmodifiableMap(consumerLatencies);
+		this.producerLatencies = Collections.unmodifiableMap(producerLatencies);
+	}
+
+	/**
+	 * @param results the results of drivers that ran concurrently
+	 * @return the result that combines the counters and latencies of the passed results
+	 */
+	public static LoadResult merge(Collection<LoadResult> results) {
+		long sent = 0, received = 0, errors = 0, elapsedNanos = 0;
+		LatencyHistogram latencies = new LatencyHistogram();
+		Map<String, LatencyHistogram> consumerLatencies = new LinkedHashMap<String, LatencyHistogram>();
+		Map<String, LatencyHistogram> producerLatencies = new LinkedHashMap<String, LatencyHistogram>();
+		for (LoadResult result : results) {
+			sent += result.sent;
+			received += result.received;
+			errors += result.errors;
+			elapsedNanos = Math.max(elapsedNanos, result.elapsedNanos);
+			latencies.add(result.latencies);
+			for (Map.Entry<String, LatencyHistogram> entry : result.consumerLatencies.entrySet()) {
+				add(consumerLatencies, entry.getKey(), entry.getValue());
+			}
+			for (Map.Entry<String, LatencyHistogram> entry : result.producerLatencies.entrySet()) {
+				add(producerLatencies, entry.getKey(), entry.getValue());
+			}
+		}
+		return new LoadResult(sent, received, errors, elapsedNanos, latencies, consumerLatencies, producerLatencies);
+	}
+
+	static void add(Map<String, LatencyHistogram> histograms, String url, LatencyHistogram latencies) {
+		LatencyHistogram histogram = histograms.get(url);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.put(url, histogram);
+		}
+		histogram.add(latencies);
+	}
+
+	/**
+	 * @return the number of messages sent by every producer
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return the number of messages received by every consumer
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return the number of producers and consumers that failed
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return the duration of the measured period in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the number of messages sent per second
+	 */
+	public double getSendThroughput() {
+		return elapsedNanos == 0 ? 0 : sent * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	/**
+	 * @return the number of messages received per second
+	 */
+	public double getReceiveThroughput() {
+		return elapsedNanos == 0 ? 0 : received * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	/**
+	 * @return the end to end latencies in nanoseconds of the received messages
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * @return the end to end latencies of the received messages keyed by the url the
+	 * 		consumers were connected to
+	 */
+	public Map<String, LatencyHistogram> getLatenciesByConsumerUrl() {
+		return consumerLatencies;
+	}
+
+	/**
+	 * @return the end to end latencies of the received messages keyed by the url the
+	 * 		producers were connected to
+	 */
+	public Map<String, LatencyHistogram> getLatenciesByProducerUrl() {
+		return producerLatencies;
+	}
+
+	/**
+	 * @param percentile a value between 0 and 100
+	 * @return the end to end latency in microseconds of the passed percentile
+	 */
+	public long getLatencyMicros(double percentile) {
+		return TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(percentile));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("sent=%d (%.0f msg/s) received=%d (%.0f msg/s) errors=%d latency(us) p50=%d p90=%d p99=%d p99.9=%d max=%d",
+				sent, getSendThroughput(), received, getReceiveThroughput(), errors, getLatencyMicros(50),
+				getLatencyMicros(90), getLatencyMicros(99), getLatencyMicros(99.9),
+				TimeUnit.NANOSECONDS.toMicros(latencies.getMax()));
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceControlFrameTest {
+
+	@Test
+	public void testDecodePipelinedFrames() throws IOException {
+		BrokerServiceControlFrame ping = new BrokerServiceControlFrame(ControlCommandEnum.PING, 1, new byte[] { 1, 2, 3 });
+		BrokerServiceControlFrame stop = new BrokerServiceControlFrame(ControlCommandEnum.STOP, 2);
+		ByteBuffer buffer = ByteBuffer.allocate(ping.getSize() + stop.getSize());
+		ping.encode(buffer);
+		stop.encode(buffer);
+		buffer.flip();
+		// Only part of the second frame is available
+		buffer.limit(buffer.limit() - 1);
+		BrokerServiceControlFrame frame = BrokerServiceControlFrame.decode(buffer);
+		assertEquals(ControlCommandEnum.PING, frame.getCommand());
+		assertEquals(1, frame.getRequestId());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, frame.getPayload());
+		assertNull(BrokerServiceControlFrame.decode(buffer));
+		buffer.limit(buffer.limit() + 1);
+		frame = BrokerServiceControlFrame.decode(buffer);
+		assertEquals(ControlCommandEnum.STOP, frame.getCommand());
+		assertEquals(2, frame.getRequestId());
+		assertEquals(0, frame.getPayload().length);
+	}
+
+	@Test
+	public void testStreamAndBufferEncodingsMatch() throws IOException {
+		Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+		statistics.put("heap.used", 1024L);
+		statistics.put("enqueues", 7L);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		BrokerServiceControlFrame.createStatistics(5, statistics).write(dos);
+		dos.flush();
+		BrokerServiceControlFrame frame = BrokerServiceControlFrame.decode(ByteBuffer.wrap(baos.toByteArray()));
+		assertEquals(ControlCommandEnum.REPLY, frame.getCommand());
+		assertEquals(5, frame.getRequestId());
+		assertEquals(statistics, frame.getStatistics());
+		frame = BrokerServiceControlFrame.read(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+		assertEquals(statistics, frame.getStatistics());
+	}
+
+	@Test
+	public void testDiagnosticsFitInATextReply() throws IOException {
+		// A thread dump is larger than the strings written using writeUTF
+		String diagnostics = BrokerServiceProcess.getDiagnostics();
+		assertTrue(diagnostics.contains("heap used="));
+		BrokerServiceControlFrame frame = BrokerServiceControlFrame.createText(3, diagnostics);
+		ByteBuffer buffer = ByteBuffer.allocate(frame.getSize());
+		frame.encode(buffer);
+		buffer.flip();
+		frame = BrokerServiceControlFrame.decode(buffer);
+		assertEquals(ControlCommandEnum.REPLY, frame.getCommand());
+		assertEquals(diagnostics, frame.getText());
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectInvalidLength() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4);
+		buffer.putInt(-1);
+		buffer.flip();
+		BrokerServiceControlFrame.decode(buffer);
+	}
+}
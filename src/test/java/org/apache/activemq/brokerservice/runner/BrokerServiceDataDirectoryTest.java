@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceDataDirectoryTest {
+
+	@Test
+	public void testAllocateAndDelete() throws IOException, InterruptedException {
+		File root = File.createTempFile("ram", "");
+		assertTrue(root.delete() && root.mkdir());
+		BrokerServiceDataDirectory dataDirectory = BrokerServiceDataDirectory.create(
+				new File(root, "missing").getPath() + "," + root.getPath());
+		assertNotNull(dataDirectory);
+		assertEquals(root, dataDirectory.getDirectory().getParentFile());
+
+		File broker = dataDirectory.allocate("Broker0", 1024);
+		assertEquals(new File(dataDirectory.getDirectory(), "Broker0"), broker);
+		assertEquals(1024, dataDirectory.getReservedSpace());
+		// The space left on the file system can not hold this store
+		assertNull(dataDirectory.allocate("Broker1", root.getUsableSpace()));
+		assertEquals(1024, dataDirectory.getReservedSpace());
+
+		assertTrue(new File(broker, "0/kahadb").mkdirs());
+		dataDirectory.deleteAsync();
+		for (int idx = 0 ; idx < 100 && dataDirectory.getDirectory().exists() ; idx++) {
+			Thread.sleep(50);
+		}
+		assertFalse(dataDirectory.getDirectory().exists());
+		root.delete();
+	}
+
+	@Test
+	public void testRequiredSpaceFollowsJournalLength() {
+		Properties properties = new Properties();
+		PersistenceProfileEnum.ASYNC_JOURNAL.apply(properties);
+		assertEquals(2L * 64 * 1024 * 1024, BrokerServiceDataDirectory.getRequiredSpace(properties));
+	}
+
+	@Test
+	public void testNoRoot() {
+		assertNull(BrokerServiceDataDirectory.create("/does/not/exist"));
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.apache.activemq.network.DiscoveryNetworkConnector;
+import org.apache.activemq.network.NetworkConnector;
+import org.apache.activemq.transport.discovery.simple.SimpleDiscoveryAgent;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * This test checks that the brokers created by the BrokerServiceFactory are configured like
+ * the brokers described by the template of their role.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceFactoryTest {
+
+	private static final Map<RoleEnum, String> TEMPLATES = new EnumMap<RoleEnum, String>(RoleEnum.class);
+
+	static {
+		TEMPLATES.put(RoleEnum.BROKER, "activemq.xml");
+		TEMPLATES.put(RoleEnum.HUB, "hub-activemq.xml");
+		TEMPLATES.put(RoleEnum.SPOKE, "spoke-activemq.xml");
+		TEMPLATES.put(RoleEnum.MASTER, "master-activemq.xml");
+		TEMPLATES.put(RoleEnum.SLAVE, "slave-activemq.xml");
+		TEMPLATES.put(RoleEnum.MAIN, "main-activemq.xml");
+		TEMPLATES.put(RoleEnum.NETWORKED, "network-activemq.xml");
+	}
+
+	@Test
+	public void testBrokersMatchTheirTemplate() throws Exception {
+		for (RoleEnum role : RoleEnum.values()) {
+			String name = TEMPLATES.get(role);
+			assertNotNull("No template is known for " + role, name);
+			Properties properties = createProperties();
+			Element expected = getBrokerElement(BrokerServiceTemplate.getTemplate(name).render(properties,
+					BrokerServiceTemplate.INLINED_PROPERTIES_FILE));
+			BrokerService broker = new BrokerServiceFactory().createBroker(role, properties);
+			try {
+				checkBroker(role, name, expected, broker);
+			} finally {
+				// The transport connectors are bound once they are added
+				for (TransportConnector connector : broker.getTransportConnectors()) {
+					connector.stop();
+				}
+			}
+		}
+	}
+
+	private static void checkBroker(RoleEnum role, String name, Element expected, BrokerService broker) throws Exception {
+		String message = role + " does not match " + name;
+		assertEquals(message, expected.getAttribute("brokerName"), broker.getBrokerName());
+		assertEquals(message, getBoolean(expected, "persistent", true), broker.isPersistent());
+		assertEquals(message, getBoolean(expected, "useJmx", true), broker.isUseJmx());
+		assertEquals(message, getBoolean(expected, "deleteAllMessagesOnStartup", false),
+				broker.isDeleteAllMessagesOnStartup());
+		assertEquals(message, getBoolean(expected, "waitForSlave", false), broker.isWaitForSlave());
+		assertEquals(message, getBoolean(expected, "shutdownOnSlaveFailure", false),
+				broker.isShutdownOnSlaveFailure());
+		assertEquals(message, expected.hasAttribute("masterConnectorURI") ? expected.getAttribute("masterConnectorURI")
+				: null, broker.getMasterConnectorURI());
+		assertEquals(message, getAttributes(expected, "transportConnector", "uri"), getTransportUris(broker));
+		assertEquals(message, getAttributes(expected, "networkConnector", "uri"), getNetworkUris(broker));
+		for (NetworkConnector connector : broker.getNetworkConnectors()) {
+			assertEquals(message, true, connector.isDuplex());
+			}
+	}
+
+	private static Properties createProperties() throws IOException {
+		Properties properties = new Properties();
+		// The brokers of every role use the same port while the hub, master and network
+		// ports are the ports of the brokers a spoke, slave or networked broker connects to
+		String port = getFreePort();
+		for (RoleEnum role : RoleEnum.values()) {
+			properties.setProperty(BrokerServiceFactory.getPrefix(role) + ".suffix.name", "0");
+			properties.setProperty(role.name().toLowerCase() + ".hostname", "localhost");
+			properties.setProperty(role.name().toLowerCase() + ".port.number", port);
+		}
+		properties.setProperty("hostname", "localhost");
+		properties.setProperty("port.number", port);
+		properties.setProperty("network.hostname", "localhost");
+		properties.setProperty("network.port.number", getFreePort());
+		properties.setProperty("hub.port.number", getFreePort());
+		properties.setProperty("master.port.number", getFreePort());
+		properties.setProperty("kahadb.dir", new File("target", "factory").getAbsolutePath());
+		properties.setProperty("kahadb.prefix", "0");
+		PersistenceProfileEnum.DEFAULT.apply(properties);
+		return properties;
+	}
+
+	private static String getFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return String.valueOf(socket.getLocalPort());
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static Element getBrokerElement(String configuration) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(configuration.getBytes("UTF-8")));
+		return (Element) document.getElementsByTagNameNS("*", "broker").item(0);
+	}
+
+	private static boolean getBoolean(Element element, String attribute, boolean defaultValue) {
+		return element.hasAttribute(attribute) ? Boolean.parseBoolean(element.getAttribute(attribute)) : defaultValue;
+	}
+
+	private static List<String> getAttributes(Element broker, String element, String attribute) {
+		List<String> values = new ArrayList<String>();
+		NodeList elements = broker.getElementsByTagNameNS("*", element);
+		for (int idx = 0 ; idx < elements.getLength() ; idx++) {
+			values.add(((Element) elements.item(idx)).getAttribute(attribute));
+		}
+		return values;
+	}
+
+	private static List<String> getTransportUris(BrokerService broker) throws Exception {
+		List<String> uris = new ArrayList<String>();
+		for (TransportConnector connector : broker.getTransportConnectors()) {
+			uris.add(connector.getUri().toString());
+		}
+		return uris;
+	}
+
+	private static List<String> getNetworkUris(BrokerService broker) {
+		List<String> uris = new ArrayList<String>();
+		for (NetworkConnector connector : broker.getNetworkConnectors()) {
+			SimpleDiscoveryAgent agent = (SimpleDiscoveryAgent) ((DiscoveryNetworkConnector) connector).getDiscoveryAgent();
+			uris.add("static:(" + Arrays.asList(agent.getServices()).toString().replaceAll("[\\[\\] ]", "") + ")");
+		}
+		return uris;
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.activemq.advisory.AdvisorySupport;
+import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ProducerBrokerExchange;
+import org.apache.activemq.broker.region.RegionBroker;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * These tests check the heartbeat of a broker whose messages can be held.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceHeartbeatTest {
+
+	private volatile CountDownLatch stall;
+	private BrokerService broker;
+	private BrokerServiceHeartbeat heartbeat;
+
+	@Before
+	public void setUp() throws Exception {
+		broker = new BrokerService();
+		broker.setBrokerName("heartbeat");
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.setPlugins(new BrokerPlugin[] { new BrokerPlugin() {
+			public Broker installPlugin(Broker next) {
+				return new BrokerFilter(next) {
+					@Override
+					public void send(ProducerBrokerExchange exchange, Message message) throws Exception {
+						CountDownLatch stall = BrokerServiceHeartbeatTest.this.stall;
+						if (stall != null) {
+							stall.await();
+						}
+						super.send(exchange, message);
+					}
+				};
+			}
+		} });
+		broker.start();
+		broker.waitUntilStarted();
+		heartbeat = new BrokerServiceHeartbeat(broker, 1000);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (stall != null) {
+			stall.countDown();
+		}
+		heartbeat.close();
+		broker.stop();
+		broker.waitUntilStopped();
+	}
+
+	@Test
+	public void testStalledBrokerIsNotHealthy() throws Exception {
+		assertNull(check());
+		assertNull(check());
+		stall = new CountDownLatch(1);
+		String problem = check();
+		assertTrue(problem, problem != null && problem.contains("did not deliver a message"));
+		// The stalled round trip is waited for instead of sending another message
+		problem = check();
+		assertTrue(problem, problem != null && problem.contains("did not deliver a message"));
+		stall.countDown();
+		stall = null;
+		assertNull(check());
+		assertNull(check());
+	}
+
+	@Test
+	public void testHeartbeatsAreNotCounted() throws Exception {
+		RegionBroker regionBroker = (RegionBroker) broker.getRegionBroker();
+		Set<ActiveMQDestination> destinations = new HashSet<ActiveMQDestination>(regionBroker.getDestinationMap().keySet());
+		// The first heartbeat opens the connection which publishes a connection advisory
+		assertNull(check());
+		Map<String, Long> counters = BrokerServiceHeartbeat.getMessageCounters(regionBroker);
+		long enqueues = regionBroker.getDestinationStatistics().getEnqueues().getCount();
+		for (int idx = 0 ; idx < 3 ; idx++) {
+			assertNull(check());
+		}
+		assertEquals(counters, BrokerServiceHeartbeat.getMessageCounters(regionBroker));
+		assertEquals(enqueues + 3, regionBroker.getDestinationStatistics().getEnqueues().getCount());
+		// Only the heartbeat topic was added, no advisory was published for it
+		Set<ActiveMQDestination> added = new HashSet<ActiveMQDestination>(regionBroker.getDestinationMap().keySet());
+		added.removeAll(destinations);
+		added.remove(AdvisorySupport.getConnectionAdvisoryTopic());
+		assertTrue(added.toString(), added.size() == 1 && AdvisorySupport.isAdvisoryTopic(added.iterator().next()));
+	}
+
+	private String check() throws Exception {
+		return heartbeat.check().get();
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceJvmProfileTest {
+
+	@Test
+	public void testSizedProfilesFitTheMemory() {
+		// A hub with 49 spokes on a host with 16 GB given to the brokers and 8 processors
+		List<RoleEnum> roles = new ArrayList<RoleEnum>();
+		roles.add(RoleEnum.HUB);
+		for (int idx = 0 ; idx < 49 ; idx++) {
+			roles.add(RoleEnum.SPOKE);
+		}
+		BrokerServiceJvmProfile hub = BrokerServiceJvmProfile.size(RoleEnum.HUB, roles, 16 * 1024, 8);
+		BrokerServiceJvmProfile spoke = BrokerServiceJvmProfile.size(RoleEnum.SPOKE, roles, 16 * 1024, 8);
+		assertEquals(2 * spoke.getHeapSize(), hub.getHeapSize(), 1);
+		long used = hub.getHeapSize() + hub.getMaxDirectMemorySize()
+				+ 49 * (spoke.getHeapSize() + spoke.getMaxDirectMemorySize());
+		assertTrue(used <= 16 * 1024);
+		assertEquals("SerialGC", spoke.getGarbageCollector());
+		assertEquals(1, spoke.getGcThreads());
+	}
+
+	@Test
+	public void testDeclaredValuesReplaceSizedValues() {
+		BrokerServiceJvmProfile sized = BrokerServiceJvmProfile.size(RoleEnum.MASTER,
+				Arrays.asList(RoleEnum.MASTER, RoleEnum.SLAVE), 8 * 1024, 8);
+		assertEquals(2048, sized.getHeapSize());
+		assertEquals("G1GC", sized.getGarbageCollector());
+		BrokerServiceJvmProfile declared = new BrokerServiceJvmProfile();
+		declared.setHeapSize(512);
+		declared.setThreadStackSize(256);
+		declared.addArgument("-XX:+AlwaysPreTouch");
+		List<String> jvmArgs = sized.merge(declared).getJVMArgs();
+		assertEquals(Arrays.asList("-Xms512m", "-Xmx512m", "-XX:MaxDirectMemorySize=1024m", "-Xss256k",
+				"-XX:+UseG1GC", "-XX:ParallelGCThreads=4", "-XX:ConcGCThreads=1", "-XX:+AlwaysPreTouch"), jvmArgs);
+	}
+
+	@Test
+	public void testDeclaredUsingSystemProperties() {
+		System.setProperty("test.jvm.heap", "256");
+		System.setProperty("test.jvm.gc", "ParallelGC");
+		System.setProperty("test.jvm.args", " -XX:+UseNUMA  -Dfoo=bar ");
+		try {
+			BrokerServiceJvmProfile profile = BrokerServiceJvmProfile.fromSystemProperties("test.jvm");
+			assertEquals(Arrays.asList("-Xms256m", "-Xmx256m", "-XX:+UseParallelGC", "-XX:+UseNUMA", "-Dfoo=bar"),
+					profile.getJVMArgs());
+		} finally {
+			System.clearProperty("test.jvm.heap");
+			System.clearProperty("test.jvm.gc");
+			System.clearProperty("test.jvm.args");
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServicePlacementTest {
+
+	@Test
+	public void testCpuList() {
+		int cpus[] = BrokerServicePlacement.parseCpuList("8, 0-3,10-11\n");
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 8, 10, 11 }, cpus);
+		assertEquals("0-3,8,10-11", BrokerServicePlacement.toCpuList(cpus));
+		assertEquals("", BrokerServicePlacement.toCpuList(new int[0]));
+	}
+
+	@Test
+	public void testReadNumaNodes() throws IOException {
+		File system = File.createTempFile("system", "");
+		assertTrue(system.delete());
+		write(new File(system, "node/node1/cpulist"), "4-7\n");
+		write(new File(system, "node/node0/cpulist"), "0-3\n");
+		assertTrue(new File(system, "node/power").mkdirs());
+		List<int[]> nodes = BrokerServicePlacement.readNumaNodes(system);
+		assertEquals(2, nodes.size());
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, nodes.get(0));
+		assertArrayEquals(new int[] { 4, 5, 6, 7 }, nodes.get(1));
+
+		// Without NUMA nodes the online processors are used
+		File other = File.createTempFile("system", "");
+		assertTrue(other.delete());
+		write(new File(other, "cpu/online"), "0-1\n");
+		nodes = BrokerServicePlacement.readNumaNodes(other);
+		assertEquals(1, nodes.size());
+		assertArrayEquals(new int[] { 0, 1 }, nodes.get(0));
+	}
+
+	@Test
+	public void testPlace() {
+		BrokerServicePlacement placement = new BrokerServicePlacement(Arrays.asList(
+				new int[] { 0, 1, 2, 3 }, new int[] { 4, 5, 6, 7 }), 1);
+		assertArrayEquals(new int[] { 7 }, placement.getClientCpus());
+		List<RoleEnum> roles = Arrays.asList(RoleEnum.HUB, RoleEnum.SPOKE, RoleEnum.SPOKE);
+		int hub[] = placement.place(0, roles);
+		int first[] = placement.place(1, roles);
+		int second[] = placement.place(2, roles);
+		assertArrayEquals(new int[] { 0, 1, 2 }, hub);
+		assertArrayEquals(new int[] { 3, 4 }, first);
+		assertArrayEquals(new int[] { 5, 6 }, second);
+		assertEquals(1, placement.getNumaNodes(hub).size());
+		assertTrue(placement.getNumaNodes(hub).contains(0));
+		assertEquals(2, placement.getNumaNodes(first).size());
+	}
+
+	@Test
+	public void testMoreBrokersThanProcessors() {
+		BrokerServicePlacement placement = new BrokerServicePlacement(Arrays.asList(new int[] { 0, 1 }), 4);
+		// A processor is always left to the brokers
+		assertArrayEquals(new int[] { 1 }, placement.getClientCpus());
+		List<RoleEnum> roles = Arrays.asList(RoleEnum.BROKER, RoleEnum.BROKER, RoleEnum.BROKER);
+		for (int idx = 0 ; idx < roles.size() ; idx++) {
+			assertArrayEquals(new int[] { 0 }, placement.place(idx, roles));
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		assertTrue(file.getParentFile().mkdirs());
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(content.getBytes("US-ASCII"));
+		} finally {
+			fos.close();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceScalingPolicyTest {
+
+	private BrokerServiceScalingPolicy createPolicy() {
+		BrokerServiceNode hub = new BrokerServiceNode("hub", RoleEnum.HUB, new Properties(), new Properties(), null);
+		BrokerServiceScalingPolicy policy = new BrokerServiceScalingPolicy(null, hub);
+		policy.setBacklogThresholds(1000, 10);
+		policy.setCpuThresholds(80, 20);
+		policy.setBrokerLimits(1, 4);
+		policy.setCooldown(0);
+		return policy;
+	}
+
+	@Test
+	public void testScalesOutOnBacklogOrCpu() {
+		BrokerServiceScalingPolicy policy = createPolicy();
+		long now = System.nanoTime();
+		assertEquals(1, policy.decide(1000, -1, 2, now));
+		assertEquals(1, policy.decide(500, 90, 2, now));
+		assertEquals(0, policy.decide(500, 50, 2, now));
+		// The largest number of brokers was reached
+		assertEquals(0, policy.decide(5000, 90, 4, now));
+	}
+
+	@Test
+	public void testScalesInWhenIdle() {
+		BrokerServiceScalingPolicy policy = createPolicy();
+		long now = System.nanoTime();
+		assertEquals(-1, policy.decide(0, 5, 2, now));
+		assertEquals(-1, policy.decide(10, 20, 2, now));
+		assertEquals(0, policy.decide(10, 30, 2, now));
+		// The smallest number of brokers was reached
+		assertEquals(0, policy.decide(0, 5, 1, now));
+	}
+
+	@Test
+	public void testCooldownDelaysChanges() {
+		BrokerServiceScalingPolicy policy = createPolicy();
+		policy.setCooldown(60000);
+		long now = System.nanoTime();
+		// No change was made since the policy was created
+		assertEquals(1, policy.decide(5000, -1, 2, now));
+		assertEquals(0, policy.decide(5000, -1, 3, now + TimeUnit.SECONDS.toNanos(30)));
+		assertEquals(0, policy.decide(0, 5, 3, now + TimeUnit.SECONDS.toNanos(30)));
+		assertEquals(1, policy.decide(5000, -1, 3, now + TimeUnit.MINUTES.toNanos(2)));
+	}
+
+	@Test
+	public void testDoesNotScaleInBeforeTheCpuUsageIsKnown() {
+		BrokerServiceScalingPolicy policy = createPolicy();
+		long now = System.nanoTime();
+		// The first sample of the cpu time does not provide a cpu usage
+		int cpu = policy.getCpuUsage("spoke", 1000, now, 4);
+		assertEquals(-1, cpu);
+		assertEquals(0, policy.decide(0, cpu, 2, now));
+		// A large backlog still adds a broker
+		assertEquals(1, policy.decide(5000, cpu, 2, now));
+	}
+
+	@Test
+	public void testCpuUsageIsRelativeToTheProcessors() {
+		BrokerServiceScalingPolicy policy = createPolicy();
+		long now = System.nanoTime();
+		long second = TimeUnit.SECONDS.toNanos(1);
+		policy.getCpuUsage("spoke", 0, now, 4);
+		// Two busy processors out of four
+		assertEquals(50, policy.getCpuUsage("spoke", 2 * second, now + second, 4));
+		assertEquals(100, policy.getCpuUsage("spoke", 6 * second, now + 2 * second, 4));
+	}
+}
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.valhalla.tools.process.Spawner;
+
+/**
+ * These tests stop topologies of brokers that are only simulated by their manager and
+ * embedded broker, no broker is started.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceShutdownTest {
+
+	private final List<String> stopped = Collections.synchronizedList(new ArrayList<String>());
+	private final List<BrokerServiceNode> nodes = new ArrayList<BrokerServiceNode>();
+	private final List<IBrokerServiceManager> managers = new ArrayList<IBrokerServiceManager>();
+
+	@Test
+	public void testDependentsAreStoppedFirst() throws Exception {
+		BrokerServiceNode hub = createNode("hub", RoleEnum.HUB, true);
+		BrokerServiceNode spoke1 = createNode("spoke1", RoleEnum.SPOKE, true, hub);
+		BrokerServiceNode spoke2 = createNode("spoke2", RoleEnum.SPOKE, true, hub);
+		BrokerServiceNode master = createNode("master", RoleEnum.MASTER, true);
+		BrokerServiceNode slave = createNode("slave", RoleEnum.SLAVE, true, master);
+
+		Collection<String> forced = new BrokerServiceShutdown(5000).stop(managers, nodes);
+
+		assertTrue("Forcibly stopped " + forced, forced.isEmpty());
+		assertEquals(5, stopped.size());
+		// The spokes and the slave are stopped within the first tier
+		assertEquals(new HashSet<String>(Arrays.asList(spoke1.getIdentifier(), spoke2.getIdentifier(),
+				slave.getIdentifier())), new HashSet<String>(stopped.subList(0, 3)));
+		assertEquals(new HashSet<String>(Arrays.asList(hub.getIdentifier(), master.getIdentifier())),
+				new HashSet<String>(stopped.subList(3, 5)));
+	}
+
+	@Test
+	public void testTierIsOneMoreThanTheHighestDependent() throws Exception {
+		// The main broker is stopped after the networked broker that depends on the hub
+		BrokerServiceNode main = createNode("main", RoleEnum.MAIN, true);
+		BrokerServiceNode hub = createNode("hub", RoleEnum.HUB, true, main);
+		BrokerServiceNode spoke = createNode("spoke", RoleEnum.SPOKE, true, hub);
+		BrokerServiceNode networked = createNode("networked", RoleEnum.NETWORKED, true, main);
+		FakeManager unknown = new FakeManager("unknown", null, true);
+		managers.add(unknown);
+
+		Collection<String> forced = new BrokerServiceShutdown(5000).stop(managers, nodes);
+
+		assertTrue("Forcibly stopped " + forced, forced.isEmpty());
+		assertEquals(5, stopped.size());
+		assertEquals(new HashSet<String>(Arrays.asList(spoke.getIdentifier(), networked.getIdentifier(),
+				"unknown")), new HashSet<String>(stopped.subList(0, 3)));
+		assertEquals(hub.getIdentifier(), stopped.get(3));
+		assertEquals(main.getIdentifier(), stopped.get(4));
+	}
+
+	@Test
+	public void testUnresponsiveBrokersAreForciblyStopped() throws Exception {
+		BrokerServiceNode hub = createNode("hub", RoleEnum.HUB, true);
+		BrokerServiceNode spoke1 = createNode("spoke1", RoleEnum.SPOKE, false, hub);
+		BrokerServiceNode spoke2 = createNode("spoke2", RoleEnum.SPOKE, true, hub);
+		// This broker never connected to the control channel
+		BrokerServiceNode spoke3 = createNode("spoke3", RoleEnum.SPOKE, true, hub);
+		managers.remove(spoke3.getManager());
+		spoke3.setManager(null);
+
+		Collection<String> forced = new BrokerServiceShutdown(200).stop(managers, nodes);
+
+		assertEquals(new HashSet<String>(Arrays.asList(spoke1.getIdentifier(), spoke3.getIdentifier())),
+				new HashSet<String>(forced));
+		assertTrue(((FakeBroker) spoke1.getEmbeddedBroker()).interrupted);
+		assertTrue(((FakeManager) spoke1.getManager()).closed);
+		assertTrue(((FakeBroker) spoke3.getEmbeddedBroker()).interrupted);
+		assertFalse(((FakeBroker) spoke2.getEmbeddedBroker()).interrupted);
+		assertFalse(stopped.contains(spoke3.getIdentifier()));
+		// The hub is still stopped once its tier was forcibly stopped
+		assertEquals(hub.getIdentifier(), stopped.get(stopped.size() - 1));
+		assertTrue(hub.isExited());
+	}
+
+	@Test
+	public void testForkedBrokerWithoutHelloIsDestroyed() throws Exception {
+		// This broker was forked but never sent its HELLO, it has neither a manager nor a process id
+		FakeSpawner spawner = new FakeSpawner();
+		BrokerServiceNode spoke = new BrokerServiceNode("spoke", RoleEnum.SPOKE, new Properties(), new Properties(),
+				spawner);
+		spoke.setLaunched(true);
+		nodes.add(spoke);
+
+		Collection<String> forced = new BrokerServiceShutdown(200).stop(managers, nodes);
+
+		assertEquals(Arrays.asList(spoke.getIdentifier()), new ArrayList<String>(forced));
+		assertTrue(spawner.stopped);
+		assertTrue(spoke.isExited());
+	}
+
+	@Test
+	public void testPooledBrokerWithoutHelloIsDestroyed() throws Exception {
+		FakeSpawner spawner = new FakeSpawner();
+		FakeSpawner worker = new FakeSpawner();
+		BrokerServiceNode spoke = new BrokerServiceNode("spoke", RoleEnum.SPOKE, new Properties(), new Properties(),
+				spawner);
+		spoke.setWorkerSpawner(worker);
+		spoke.setLaunched(true);
+
+		assertTrue(BrokerServiceShutdown.forceStop(spoke, null, spoke.getIdentifier()));
+		// The worker executing the broker is destroyed, the spawner of the broker was never used
+		assertTrue(worker.stopped);
+		assertFalse(spawner.stopped);
+	}
+
+	private BrokerServiceNode createNode(String identifier, RoleEnum role, boolean responsive,
+			BrokerServiceNode... dependencies) {
+		BrokerServiceNode node = new BrokerServiceNode(identifier, role, new Properties(), new Properties(),
+				null, dependencies);
+		FakeBroker broker = new FakeBroker(identifier);
+		FakeManager manager = new FakeManager(identifier, broker, responsive);
+		node.setEmbeddedBroker(broker);
+		node.setManager(manager);
+		node.setLaunched(true);
+		nodes.add(node);
+		managers.add(manager);
+		return node;
+	}
+
+	/**
+	 * This simulates the thread of an embedded broker.
+	 */
+	private static class FakeBroker extends EmbeddedBrokerService {
+
+		private volatile boolean alive = true;
+		private volatile boolean interrupted;
+
+		FakeBroker(String identifier) {
+			super(identifier, new Properties());
+		}
+
+		@Override
+		boolean isAlive() {
+			return alive;
+		}
+
+		@Override
+		void interrupt() {
+			interrupted = true;
+			alive = false;
+		}
+	}
+
+	/**
+	 * This simulates the spawner of a forked broker whose process exits once it is stopped.
+	 */
+	private static class FakeSpawner extends Spawner {
+
+		private volatile boolean stopped;
+
+		FakeSpawner() {
+			super(BrokerServiceProcess.class.getName(), "execute");
+		}
+
+		@Override
+		public void stopProcess() {
+			stopped = true;
+		}
+
+		@Override
+		public boolean isProcessExited() {
+			return stopped;
+		}
+	}
+
+	/**
+	 * This records the order in which the brokers were asked to stop, an unresponsive
+	 * broker ignores the request.
+	 */
+	private class FakeManager extends BrokerServiceManager {
+
+		private final String identifier;
+		private final FakeBroker broker;
+		private final boolean responsive;
+		private volatile boolean closed;
+
+		FakeManager(String identifier, FakeBroker broker, boolean responsive) {
+			super(null, null);
+			this.identifier = identifier;
+			this.broker = broker;
+			this.responsive = responsive;
+		}
+
+		@Override
+		public void stopBroker() {
+			stopped.add(identifier);
+			if (responsive && broker != null) {
+				broker.alive = false;
+			}
+		}
+
+		@Override
+		public String getIdentifier() {
+			return identifier;
+		}
+
+		@Override
+		void close() {
+			closed = true;
+		}
+	}
+}
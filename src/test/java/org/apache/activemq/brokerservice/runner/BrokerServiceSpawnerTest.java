@@ -111,6 +111,50 @@ public class BrokerServiceSpawnerTest {
 		
 	}
 
+	@Test
+	public void testEmbeddedBrokersBrokerServiceSpawner() throws IOException, InterruptedException {
+		AbstractBrokerServiceSpawner spawner = new BrokersBrokerServiceSpawner() {
+
+			private int currentPort;
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see
+			 * org.apache.activemq.brokerservice.runner.AbstractBrokerServiceSpawner
+			 * #preCreateSpawners()
+			 */
+			@Override
+			protected void preCreateSpawners() {
+				this.currentPort = this.getAmqPort();
+			}
+
+			@Override
+			protected String getTemplatePrefix() {
+				return "activemq";
+			}
+
+			@Override
+			protected void populateProperties(Properties props, int id) {
+				props.setProperty("activemq.suffix.name", String.valueOf(id));
+				props.setProperty("kahadb.dir", "activemq");
+				props.setProperty("kahadb.prefix", String.valueOf(id));
+				props.setProperty("hostname", "localhost");
+				props.setProperty("port.number", String.valueOf(currentPort++));
+			}
+
+			{
+				setExecutionMode(ExecutionModeEnum.EMBEDDED);
+			}
+		};
+		spawner.execute();
+		
+		logger.info("All embedded brokers have been started");
+		
+		spawner.stopBrokers();
+		
+	}
+
 	@Test
 	public void testMasterSlaveBrokerServiceSpawner() throws IOException, InterruptedException {
 		AbstractBrokerServiceSpawner spawner = new MasterSlaveBrokerServiceSpawner() {
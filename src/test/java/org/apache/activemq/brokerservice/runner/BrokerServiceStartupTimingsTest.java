@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceStartupTimingsTest {
+
+	@Test
+	public void testAggregatePhases() {
+		List<BrokerServiceNode> nodes = new ArrayList<BrokerServiceNode>();
+		for (int idx = 1 ; idx <= 100 ; idx++) {
+			BrokerServiceNode node = new BrokerServiceNode("broker" + idx, RoleEnum.BROKER,
+					new Properties(), new Properties(), null);
+			node.setStartupPhase("launch", idx * 1000000L);
+			nodes.add(node);
+		}
+		nodes.get(0).setStartupPhase("broker.create", 2500000L);
+		BrokerServiceStartupTimings timings = new BrokerServiceStartupTimings(nodes);
+		assertArrayEquals(new String[] { "launch", "broker.create" }, timings.getPhases());
+		assertEquals(50.0, timings.getP50Millis("launch"), 0.0);
+		assertEquals(99.0, timings.getP99Millis("launch"), 0.0);
+		assertEquals(100.0, timings.getMaxMillis("launch"), 0.0);
+		assertEquals(2.5, timings.getBrokerPhaseMillis("broker1", "broker.create"), 0.0);
+		assertEquals(-1.0, timings.getBrokerPhaseMillis("broker2", "broker.create"), 0.0);
+		assertEquals(-1.0, timings.getMaxMillis("unknown"), 0.0);
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceStatusBoardTest {
+
+	@Test
+	public void testWriteAndReadSlot() throws IOException {
+		File file = File.createTempFile("status", ".board");
+		file.deleteOnExit();
+		BrokerServiceStatusBoard runner = BrokerServiceStatusBoard.create(file, 4);
+		BrokerServiceStatusBoard broker = BrokerServiceStatusBoard.open(file, true);
+		BrokerServiceStatus status = new BrokerServiceStatus();
+		assertFalse(runner.read(2, status));
+		status.setState(StateEnum.STARTED);
+		status.setHeapUsed(1024);
+		status.setEnqueues(10);
+		status.setDequeues(7);
+		status.setInflight(3);
+		status.setStoreUsage(42);
+		broker.writeIdentifier(2, "NetworkBroker0-12345678901234567890");
+		broker.write(2, status);
+		BrokerServiceStatus read = new BrokerServiceStatus();
+		assertTrue(runner.read(2, read));
+		assertEquals(StateEnum.STARTED, read.getState());
+		assertEquals(1024, read.getHeapUsed());
+		assertEquals(10, read.getEnqueues());
+		assertEquals(7, read.getDequeues());
+		assertEquals(3, read.getInflight());
+		assertEquals(42, read.getStoreUsage());
+		assertEquals("NetworkBroker0-1234567890123456", runner.readIdentifier(2));
+		assertFalse(runner.read(1, read));
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectUnknownVersion() throws IOException {
+		File file = File.createTempFile("status", ".board");
+		file.deleteOnExit();
+		BrokerServiceStatusBoard.create(file, 1);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(4);
+			raf.writeInt(BrokerServiceStatusBoard.VERSION + 1);
+		} finally {
+			raf.close();
+		}
+		BrokerServiceStatusBoard.open(file, false);
+	}
+}
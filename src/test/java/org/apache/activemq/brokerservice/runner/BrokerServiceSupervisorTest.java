@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceSupervisorTest {
+
+	@Test
+	public void testBackoffDoublesUpToTheMaximum() {
+		assertEquals(500, BrokerServiceSupervisor.getBackoff(500, 5000, 0));
+		assertEquals(1000, BrokerServiceSupervisor.getBackoff(500, 5000, 1));
+		assertEquals(4000, BrokerServiceSupervisor.getBackoff(500, 5000, 3));
+		assertEquals(5000, BrokerServiceSupervisor.getBackoff(500, 5000, 4));
+		assertEquals(5000, BrokerServiceSupervisor.getBackoff(500, 5000, 100));
+	}
+
+	@Test
+	public void testRestartBudget() {
+		BrokerServiceSupervisor supervisor = new BrokerServiceSupervisor(null, 2, 60000, 60000);
+		BrokerServiceNode node = new BrokerServiceNode("broker", RoleEnum.BROKER, new Properties(), new Properties(), null);
+		try {
+			assertTrue(supervisor.canRestart(node));
+			supervisor.restart(node);
+			assertTrue(supervisor.canRestart(node));
+			supervisor.restart(node);
+			assertEquals(2, node.getRestartCount());
+			assertFalse(supervisor.canRestart(node));
+		} finally {
+			supervisor.close();
+		}
+		node.setRestartCount(0);
+		assertFalse(supervisor.canRestart(node));
+	}
+
+	@Test
+	public void testReadinessWaitsForARestartedBroker() throws Exception {
+		final ToggledReadinessProbe probe = new ToggledReadinessProbe();
+		final AbstractBrokerServiceSpawner spawner = createSpawner(probe);
+		final BrokerServiceNode node = createExitedNode(spawner, StateEnum.RESTARTING);
+		new Thread("RestartedBroker") {
+			{ setDaemon(true); start(); }
+
+			public void run() {
+				try {
+					// The broker is launched again after the readiness timeout
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					return;
+				}
+				probe.ready = true;
+				spawner.setBrokerState(node, StateEnum.STARTED);
+			}
+		};
+		long start = System.nanoTime();
+		spawner.waitUntilReady(node);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+	}
+
+	@Test
+	public void testReadinessFailsForACrashedBroker() throws Exception {
+		AbstractBrokerServiceSpawner spawner = createSpawner(new ToggledReadinessProbe());
+		BrokerServiceNode node = createExitedNode(spawner, StateEnum.CRASHED);
+		assertFalse(spawner.isRestarting(node));
+		try {
+			spawner.waitUntilReady(node);
+			fail("The crashed broker " + node + " was ready");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("exited before it was ready"));
+		}
+	}
+
+	@Test
+	public void testStoppedBrokerIsNotRelaunched() throws Exception {
+		final AbstractBrokerServiceSpawner spawner = createSpawner(new ToggledReadinessProbe());
+		final BrokerServiceNode node = new BrokerServiceNode("hub", RoleEnum.HUB, new Properties(), new Properties(), null);
+		final ExitingBroker broker = new ExitingBroker();
+		node.setEmbeddedBroker(broker);
+		node.setLaunched(true);
+		spawner.setBrokerState(node, StateEnum.RESTARTING);
+		new Thread("StopBrokers") {
+			{ setDaemon(true); start(); }
+
+			public void run() {
+				// The brokers are stopped while the previous instance is exiting
+				spawner.setBrokerState(node, StateEnum.STOPPING);
+				broker.alive = false;
+			}
+		};
+		spawner.restartBrokerNode(node);
+		assertEquals(StateEnum.STOPPING, node.getState());
+		assertTrue(node.getEmbeddedBroker() == broker);
+	}
+
+	private static AbstractBrokerServiceSpawner createSpawner(ReadinessProbe probe) {
+		AbstractBrokerServiceSpawner spawner = new AbstractBrokerServiceSpawner() {
+			@Override
+			protected void createSpawners() {
+			}
+		};
+		spawner.setReadinessProbe(probe);
+		spawner.setReadinessTimeout(100);
+		return spawner;
+	}
+
+	/**
+	 * The embedded broker of the returned broker was never started, i.e. it exited.
+	 */
+	private static BrokerServiceNode createExitedNode(AbstractBrokerServiceSpawner spawner, StateEnum state) {
+		BrokerServiceNode node = new BrokerServiceNode("hub", RoleEnum.HUB, new Properties(), new Properties(), null);
+		node.setEmbeddedBroker(new EmbeddedBrokerService("hub", new Properties()));
+		node.setLaunched(true);
+		spawner.setBrokerState(node, state);
+		assertTrue(node.isExited());
+		return node;
+	}
+
+	/**
+	 * This simulates the thread of an embedded broker that exits once it is told to.
+	 */
+	private static class ExitingBroker extends EmbeddedBrokerService {
+
+		private volatile boolean alive = true;
+
+		ExitingBroker() {
+			super("hub", new Properties());
+		}
+
+		@Override
+		boolean isAlive() {
+			return alive;
+		}
+	}
+
+	private static class ToggledReadinessProbe implements ReadinessProbe {
+
+		private volatile boolean ready;
+
+		public boolean isReady(BrokerServiceNode node) {
+			return ready;
+		}
+	}
+}
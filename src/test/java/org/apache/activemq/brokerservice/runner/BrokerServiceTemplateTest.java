@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceTemplateTest {
+
+	@Test
+	public void testRenderInlinesProperties() {
+		BrokerServiceTemplate template = new BrokerServiceTemplate(
+				"<value>@@PROPERTIESFILE@@</value><broker name=\"a-${name}\" uri=\"tcp://${host}:${port}\"/>");
+		Properties properties = new Properties();
+		properties.setProperty("name", "0");
+		properties.setProperty("host", "localhost");
+		properties.setProperty("port", "61616");
+		assertTrue(template.isResolvedBy(properties));
+		assertEquals("<value>file:/tmp/a.properties</value><broker name=\"a-0\" uri=\"tcp://localhost:61616\"/>",
+				template.render(properties, "file:/tmp/a.properties"));
+	}
+
+	@Test
+	public void testRenderKeepsUndefinedPlaceholders() {
+		BrokerServiceTemplate template = new BrokerServiceTemplate("dir=\"${kahadb.dir}/${unknown}\" ${unterminated");
+		Properties properties = new Properties();
+		properties.setProperty("kahadb.dir", "activemq");
+		assertFalse(template.isResolvedBy(properties));
+		assertEquals("dir=\"activemq/${unknown}\" ${unterminated", template.render(properties, null));
+	}
+
+	@Test
+	public void testRenderEscapesValues() {
+		BrokerServiceTemplate template = new BrokerServiceTemplate("<a b=\"${value}\"/>");
+		Properties properties = new Properties();
+		properties.setProperty("value", "<&\"'>");
+		assertEquals("<a b=\"&lt;&amp;&quot;&apos;&gt;\"/>", template.render(properties, null));
+	}
+
+	@Test
+	public void testTemplatesAreCached() throws IOException {
+		BrokerServiceTemplate template = BrokerServiceTemplate.getTemplate("activemq.xml");
+		assertSame(template, BrokerServiceTemplate.getTemplate("activemq.xml"));
+		Properties properties = new Properties();
+		properties.setProperty("activemq.suffix.name", "0");
+		properties.setProperty("kahadb.dir", "activemq");
+		properties.setProperty("kahadb.prefix", "0");
+		properties.setProperty("hostname", "localhost");
+		properties.setProperty("port.number", "61616");
+		PersistenceProfileEnum.DEFAULT.apply(properties);
+		assertTrue(template.isResolvedBy(properties));
+		String configuration = template.render(properties, BrokerServiceTemplate.INLINED_PROPERTIES_FILE);
+		assertTrue(configuration.contains("brokerName=\"activemq-0\""));
+		assertTrue(configuration.contains("tcp://localhost:61616"));
+		assertFalse(configuration.contains(BrokerServiceTemplate.PROPERTIES_FILE_MARKER));
+		assertTrue(configuration.contains("enableJournalDiskSyncs=\"true\""));
+	}
+
+	@Test
+	public void testPersistenceProfileKeepsPopulatedProperties() {
+		Properties properties = new Properties();
+		properties.setProperty(PersistenceProfileEnum.INDEX_CACHE_SIZE, "5000");
+		PersistenceProfileEnum.fromName("large-index-cache").apply(properties);
+		assertEquals("5000", properties.getProperty(PersistenceProfileEnum.INDEX_CACHE_SIZE));
+		assertEquals("10000", properties.getProperty(PersistenceProfileEnum.INDEX_WRITE_BATCH_SIZE));
+		assertEquals("true", properties.getProperty(PersistenceProfileEnum.PERSISTENT));
+	}
+}
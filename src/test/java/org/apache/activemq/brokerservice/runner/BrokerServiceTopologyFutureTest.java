@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceTopologyFutureTest {
+
+	private static BrokerServiceNode createNode(String identifier) {
+		return new BrokerServiceNode(identifier, RoleEnum.BROKER, new Properties(), new Properties(), null);
+	}
+
+	@Test
+	public void testCompletedOnceEveryBrokerStarted() throws Exception {
+		BrokerServiceNode first = createNode("first");
+		BrokerServiceNode second = createNode("second");
+		BrokerServiceTopologyFuture future = new BrokerServiceTopologyFuture();
+		future.setBrokerNodes(Arrays.asList(first, second));
+		first.getStartedFuture().set(first);
+		assertFalse(future.isDone());
+		assertEquals(Collections.singletonList("second"), future.getPendingBrokers());
+		second.getStartedFuture().set(second);
+		assertTrue(future.isDone());
+		assertEquals(2, future.get(0, TimeUnit.MILLISECONDS).size());
+	}
+
+	@Test
+	public void testFailsFastWhenOneBrokerFailed() throws Exception {
+		BrokerServiceNode first = createNode("first");
+		BrokerServiceNode second = createNode("second");
+		BrokerServiceTopologyFuture future = new BrokerServiceTopologyFuture();
+		future.setBrokerNodes(Arrays.asList(first, second));
+		IOException failure = new IOException("exited");
+		second.getStartedFuture().fail(failure);
+		try {
+			future.get(0, TimeUnit.MILLISECONDS);
+			fail("The topology future should have failed");
+		} catch (ExecutionException e) {
+			BrokerServiceStartupException exception = (BrokerServiceStartupException) e.getCause();
+			assertEquals(Collections.singletonMap("second", failure), exception.getFailures());
+			assertEquals(Collections.singletonList("first"), exception.getPendingBrokers());
+		}
+	}
+
+	@Test
+	public void testTimeoutReportsPendingBrokers() throws Exception {
+		BrokerServiceTopologyFuture future = new BrokerServiceTopologyFuture();
+		future.setBrokerNodes(Arrays.asList(createNode("slow")));
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			fail("The topology future should have timed out");
+		} catch (TimeoutException e) {
+			assertTrue(e.getMessage().contains("slow"));
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * These tests check the heartbeats of a broker that is only simulated by its manager, the
+ * replies of the heartbeats are completed by the tests.
+ *
+ * @author Claudio Corsi
+ *
+ */
+public class BrokerServiceWatchdogTest {
+
+	private final BrokerServiceNode node = new BrokerServiceNode("hub", RoleEnum.HUB, new Properties(),
+			new Properties(), null);
+	private final HeartbeatManager manager = new HeartbeatManager();
+	private final AbstractBrokerServiceSpawner spawner = new AbstractBrokerServiceSpawner() {
+		@Override
+		protected void createSpawners() {
+		}
+
+		@Override
+		public Collection<BrokerServiceNode> getBrokerNodes() {
+			return Collections.singletonList(node);
+		}
+	};
+	private final BrokerServiceWatchdog watchdog = new BrokerServiceWatchdog(spawner, 1000, 2, false);
+
+	@Test
+	public void testUnansweredHeartbeatsDegradeTheBroker() throws Exception {
+		start();
+		watchdog.check();
+		assertEquals(1, manager.heartbeats.size());
+		watchdog.check();
+		assertEquals(1, node.getMissedHeartbeats());
+		assertEquals(StateEnum.STARTED, node.getState());
+		// A heartbeat is not sent while the previous one is not answered
+		assertEquals(1, manager.heartbeats.size());
+		watchdog.check();
+		assertEquals(2, node.getMissedHeartbeats());
+		assertEquals(StateEnum.DEGRADED, node.getState());
+		waitForDiagnostics();
+		assertEquals("diagnostics", node.getDiagnostics());
+	}
+
+	@Test
+	public void testUnhealthyAnswersDegradeTheBroker() throws Exception {
+		start();
+		watchdog.check();
+		manager.heartbeats.getLast().fail(new IOException("The broker hub replied: stalled"));
+		watchdog.check();
+		assertEquals(1, node.getMissedHeartbeats());
+		assertEquals(2, manager.heartbeats.size());
+		manager.heartbeats.getLast().fail(new IOException("The broker hub replied: stalled"));
+		watchdog.check();
+		assertEquals(StateEnum.DEGRADED, node.getState());
+	}
+
+	@Test
+	public void testAnsweredHeartbeatRecoversTheBroker() throws Exception {
+		start();
+		watchdog.check();
+		watchdog.check();
+		watchdog.check();
+		assertEquals(StateEnum.DEGRADED, node.getState());
+		waitForDiagnostics();
+		manager.heartbeats.getLast().set(new BrokerServiceControlFrame(ControlCommandEnum.REPLY, 0));
+		watchdog.check();
+		assertEquals(0, node.getMissedHeartbeats());
+		assertEquals(StateEnum.STARTED, node.getState());
+		assertEquals(2, manager.heartbeats.size());
+		// A single missed heartbeat does not degrade the broker again
+		watchdog.check();
+		assertEquals(1, node.getMissedHeartbeats());
+		assertEquals(StateEnum.STARTED, node.getState());
+	}
+
+	@Test
+	public void testRestartedBrokerStartsWithoutMisses() throws Exception {
+		start();
+		watchdog.check();
+		watchdog.check();
+		assertEquals(1, node.getMissedHeartbeats());
+		// The broker connected again using a new control connection
+		HeartbeatManager restarted = new HeartbeatManager();
+		node.setManager(restarted);
+		watchdog.check();
+		assertEquals(1, restarted.heartbeats.size());
+		restarted.heartbeats.getLast().set(new BrokerServiceControlFrame(ControlCommandEnum.REPLY, 0));
+		watchdog.check();
+		assertEquals(0, node.getMissedHeartbeats());
+	}
+
+	private void start() {
+		node.setManager(manager);
+		spawner.setBrokerState(node, StateEnum.STARTED);
+	}
+
+	private void waitForDiagnostics() throws InterruptedException {
+		// The diagnostics are captured by their own thread
+		long deadline = System.currentTimeMillis() + 5000;
+		while (node.getDiagnostics() == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertNotNull(node.getDiagnostics());
+	}
+
+	/**
+	 * This records the heartbeats sent to the broker and answers its DUMP requests.
+	 */
+	private static class HeartbeatManager extends BrokerServiceManager {
+
+		private final LinkedList<BrokerServiceFuture<BrokerServiceControlFrame>> heartbeats = new LinkedList<BrokerServiceFuture<BrokerServiceControlFrame>>();
+
+		HeartbeatManager() {
+			super(null, null);
+		}
+
+		@Override
+		public BrokerServiceFuture<BrokerServiceControlFrame> send(ControlCommandEnum command) {
+			BrokerServiceFuture<BrokerServiceControlFrame> future = new BrokerServiceFuture<BrokerServiceControlFrame>();
+			if (command == ControlCommandEnum.DUMP) {
+				future.set(BrokerServiceControlFrame.createText(0, "diagnostics"));
+			} else {
+				heartbeats.add(future);
+			}
+			return future;
+		}
+
+		@Override
+		void close() {
+		}
+	}
+}
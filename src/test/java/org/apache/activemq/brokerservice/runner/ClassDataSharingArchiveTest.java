@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class ClassDataSharingArchiveTest {
+
+	@Test
+	public void testArchivesOfOtherClassPathsAreKept() throws IOException {
+		assumeTrue(ClassDataSharingArchive.isSupported());
+		File directory = new File("target", "cds-" + System.nanoTime());
+		directory.mkdirs();
+		long now = System.currentTimeMillis();
+		File recent = create(directory, "broker-recent.jsa", now);
+		File recentLock = create(directory, "broker-recent.lock", now);
+		File unused = create(directory, "broker-unused.jsa", now - 2 * 24 * 60 * 60 * 1000L);
+		File staleLock = create(directory, "broker-unused.lock", now - 2 * 60 * 60 * 1000L);
+
+		ClassDataSharingArchive archive = new ClassDataSharingArchive(directory, System.getProperty("java.class.path"));
+		archive.setRetentionPeriod(24 * 60 * 60 * 1000L);
+		List<String> jvmArgs = new ArrayList<String>();
+		archive.addToJVMArgs(jvmArgs);
+		assertEquals(1, jvmArgs.size());
+		assertTrue(jvmArgs.get(0).startsWith("-XX:ArchiveClassesAtExit="));
+		// The other spawning process is still training or using its archive
+		assertTrue(recent.exists());
+		assertTrue(recentLock.exists());
+		assertFalse(unused.exists());
+		assertFalse(staleLock.exists());
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static File create(File directory, String name, long lastModified) throws IOException {
+		File file = new File(directory, name);
+		file.createNewFile();
+		file.setLastModified(lastModified);
+		return file;
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.brokerservice.runner.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.jms.Session;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Claudio Corsi
+ *
+ */
+public class LoadDriverTest {
+
+	private BrokerService broker;
+
+	@Before
+	public void setUp() throws Exception {
+		broker = new BrokerService();
+		broker.setBrokerName("load");
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		broker.stop();
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1 ; value <= 1000 ; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		// The values are recorded with a precision of about 3%
+		assertEquals(500000, histogram.getPercentile(50), 500000 * 0.04);
+		assertEquals(990000, histogram.getPercentile(99), 990000 * 0.04);
+		assertEquals(1000000, histogram.getPercentile(100));
+		LatencyHistogram other = new LatencyHistogram();
+		other.record(5);
+		histogram.add(other);
+		assertEquals(1001, histogram.getCount());
+		assertEquals(5, histogram.getMin());
+	}
+
+	@Test
+	public void testRateLimitedQueue() throws Exception {
+		LoadDriver driver = new LoadDriver();
+		driver.setBrokerUrl("vm://load?create=false");
+		driver.setProducers(2);
+		driver.setConsumers(2);
+		driver.setPersistent(false);
+		driver.setAcknowledgeMode(Session.CLIENT_ACKNOWLEDGE);
+		driver.setRate(100);
+		driver.setDurationMillis(1000);
+		driver.setDrainMillis(1000);
+		LoadResult result = driver.run();
+		assertEquals(0, result.getErrors());
+		assertEquals(200, result.getSent(), 4);
+		assertEquals(result.getSent(), result.getReceived());
+		assertEquals(result.getReceived(), result.getLatencies().getCount());
+		assertEquals(result.getReceived(), result.getLatenciesByProducerUrl().get("vm://load?create=false").getCount());
+		assertEquals(result.getReceived(), result.getLatenciesByConsumerUrl().get("vm://load?create=false").getCount());
+	}
+
+	@Test
+	public void testOpenLoopTopic() throws Exception {
+		LoadDriver driver = new LoadDriver();
+		driver.setBrokerUrl("vm://load?create=false");
+		driver.setTopic(true);
+		driver.setConsumers(3);
+		driver.setPersistent(false);
+		driver.setMessageSize(64);
+		driver.setDurationMillis(500);
+		LoadResult result = driver.run();
+		assertEquals(0, result.getErrors());
+		assertTrue(result.getSent() > 0);
+		// Every consumer receives every message
+		assertEquals(3 * result.getSent(), result.getReceived());
+	}
+}